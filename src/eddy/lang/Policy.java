@@ -34,6 +34,15 @@ public class Policy implements Cloneable {
 		rules.add(rule);
 	}
 	
+	public boolean remove(Type type) {
+		return types.remove(type);
+	}
+	
+	public boolean remove(Rule rule) {
+		Rule r = ruleMap.remove(rule.id);
+		return r != null && rules.remove(r);
+	}
+	
 	public String[] attributes() {
 		return attrs.keySet().toArray(new String[attrs.size()]);
 	}
@@ -0,0 +1,88 @@
+package eddy.lang.analysis;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import eddy.lang.Action;
+import eddy.lang.Role;
+import eddy.lang.RoleValueSet;
+
+/**
+ * Enumerates the cartesian product of the {@link RoleValueSet}s of each {@link Role} in an
+ * action, one {@link Action} at a time. The actions are produced in the same order as the
+ * product was previously materialized by the {@link ExtensionCalculator}: the value of the
+ * first role changes slowest and the value of the last role changes fastest. Only the
+ * current position in the product is retained, so the enumeration uses constant memory,
+ * regardless of the size of the product.
+ */
+
+public class ActionProduct implements Iterator<Action> {
+	private final String name;
+	private final Role[] role;
+	private final List<RoleValueSet>[] sets;
+	private final int[] index;
+	private boolean hasNext;
+
+	public ActionProduct(String name, Role[] role, List<RoleValueSet>[] sets) {
+		this.name = name;
+		this.role = role;
+		this.sets = sets;
+		this.index = new int[sets.length];
+
+		// the product is empty, if there are no roles or any role has no values
+		this.hasNext = sets.length > 0;
+		for (int i = 0; i < sets.length; i++) {
+			if (sets[i].isEmpty()) {
+				hasNext = false;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of actions in the complete product.
+	 *
+	 * @return the size of the product
+	 */
+	public long size() {
+		if (sets.length == 0) {
+			return 0;
+		}
+		long size = 1;
+		for (int i = 0; i < sets.length; i++) {
+			size *= sets[i].size();
+		}
+		return size;
+	}
+
+	public boolean hasNext() {
+		return hasNext;
+	}
+
+	public Action next() {
+		if (!hasNext) {
+			throw new NoSuchElementException();
+		}
+		Action a = new Action(name);
+		for (int i = 0; i < role.length; i++) {
+			a.add(new Role(role[i].type, role[i].prefix, sets[i].get(index[i])));
+		}
+
+		// advance the last role first, carrying into the preceding roles
+		int i = index.length - 1;
+		while (i >= 0) {
+			index[i]++;
+			if (index[i] < sets[i].size()) {
+				break;
+			}
+			index[i] = 0;
+			i--;
+		}
+		hasNext = i >= 0;
+		return a;
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+}
@@ -0,0 +1,250 @@
+package eddy.lang.analysis;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import eddy.lang.Action;
+
+/**
+ * Dispatches blocks of extension {@link Action}s to workers running on an
+ * {@link ExecutorService}, and collects the results as the workers complete. Each worker
+ * is expected to both build and analyze the extension of its block, so that extension
+ * construction on one thread overlaps with classification on the others. By default, a
+ * work-stealing {@link ForkJoinPool} with one thread per available processor is created
+ * for each dispatch. This class is used by the {@link ExtendedConflictAnalyzer} and
+ * {@link LimitationPrinciple} analyses.
+ *
+ * @param <R> the type of the result of each block
+ */
+
+public class BlockDispatcher<R> {
+	private int threadCount = Runtime.getRuntime().availableProcessors();
+	private ExecutorService executor = null;
+	private volatile boolean cancelled = false;
+	private volatile boolean aborted = false;
+	private final CopyOnWriteArrayList<Future<Result<R>>> futures = new CopyOnWriteArrayList<Future<Result<R>>>();
+
+	/**
+	 * Submits each block to the given task and notifies the listener, on the calling
+	 * thread, as each block completes. If the task fails on any block, the remaining blocks
+	 * are cancelled and the failure is rethrown, so that no partial result is mistaken for
+	 * a complete one. A dispatch cancelled before it starts returns at once.
+	 *
+	 * @param blocks the blocks of actions
+	 * @param task the task that processes each block
+	 * @param listener the listener notified of each result, or null
+	 * @return true, if all blocks completed, or false, if the dispatch was cancelled
+	 * @throws BlockException if the task fails on a block
+	 */
+	public boolean dispatch(List<List<Action>> blocks, Task<R> task, Listener<R> listener) {
+		return dispatch(blocks.iterator(), blocks.size(), task, listener);
+	}
+
+	/**
+	 * Submits each block of a stream to the given task, as in
+	 * {@link #dispatch(List, Task, Listener)}. Blocks are read from the stream only as
+	 * workers become available, so that at most {@link #getMaxPending()} blocks are held in
+	 * memory at once, and the stream is read on the calling thread while the workers run.
+	 * Until the stream is exhausted, the listener is notified with a total of -1.
+	 *
+	 * @param blocks the stream of blocks
+	 * @param task the task that processes each block
+	 * @param listener the listener notified of each result, or null
+	 * @return true, if all blocks completed, or false, if the dispatch was cancelled
+	 * @throws BlockException if the task fails on a block
+	 */
+	public boolean dispatch(Iterator<List<Action>> blocks, Task<R> task, Listener<R> listener) {
+		return dispatch(blocks, -1, task, listener);
+	}
+
+	private boolean dispatch(Iterator<List<Action>> blocks, int total, final Task<R> task, Listener<R> listener) {
+		ExecutorService executor = this.executor;
+		if (executor == null) {
+			executor = new ForkJoinPool(threadCount);
+		}
+		CompletionService<Result<R>> service = new ExecutorCompletionService<Result<R>>(executor);
+		this.aborted = false;
+		futures.clear();
+		BlockException failure = null;
+
+		int submitted = 0, completed = 0;
+		try {
+			while (!cancelled) {
+				// keep the workers busy, without reading the stream too far ahead
+				while (futures.size() < getMaxPending() && !cancelled && blocks.hasNext()) {
+					final int index = submitted++;
+					final List<Action> block = blocks.next();
+					futures.add(service.submit(new Callable<Result<R>>() {
+						public Result<R> call() throws Exception {
+							try {
+								return new Result<R>(index, task.process(index, block));
+							}
+							catch (Exception e) {
+								throw new BlockException(index, e);
+							}
+						}
+					}));
+				}
+				if (futures.isEmpty() || cancelled) {
+					break;
+				}
+				if (total < 0 && !blocks.hasNext()) {
+					total = submitted;
+				}
+
+				Future<Result<R>> future = service.take();
+				futures.remove(future);
+				completed++;
+				try {
+					Result<R> result = future.get();
+					if (listener != null) {
+						listener.blockCompleted(result.index, completed, total, result.value);
+					}
+				}
+				catch (ExecutionException e) {
+					if (e.getCause() instanceof BlockException) {
+						failure = (BlockException) e.getCause();
+					}
+					else {
+						failure = new BlockException(-1, e.getCause());
+					}
+					break;
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			cancelled = true;
+		}
+		catch (CancellationException e) {
+			cancelled = true;
+		}
+		finally {
+			if (cancelled || failure != null) {
+				for (Future<Result<R>> f : futures) {
+					f.cancel(true);
+				}
+			}
+			futures.clear();
+			if (executor != this.executor) {
+				executor.shutdownNow();
+			}
+
+			// a cancellation requested before this dispatch started applies to this dispatch
+			this.aborted = cancelled;
+			this.cancelled = false;
+		}
+		if (failure != null) {
+			throw failure;
+		}
+		return !aborted;
+	}
+
+	/**
+	 * Cancels a running dispatch. Blocks that have not yet completed are abandoned.
+	 */
+	public void cancel() {
+		this.cancelled = true;
+
+		// cancelled workers are delivered to the completion service, which wakes the collector
+		for (Future<Result<R>> f : futures) {
+			f.cancel(true);
+		}
+	}
+
+	/**
+	 * Returns true, if a cancellation is pending or the last dispatch was cancelled.
+	 *
+	 * @return true, if cancelled
+	 */
+	public boolean isCancelled() {
+		return cancelled || aborted;
+	}
+
+	public int getThreadCount() {
+		return threadCount;
+	}
+
+	/**
+	 * Returns the maximum number of blocks submitted to the workers, but not yet completed,
+	 * which is twice the number of threads.
+	 *
+	 * @return the maximum number of pending blocks
+	 */
+	public int getMaxPending() {
+		return 2 * threadCount;
+	}
+
+	/**
+	 * Sets the number of worker threads used when no executor is given. By default, one
+	 * thread is used for each available processor.
+	 *
+	 * @param count the number of threads
+	 */
+	public void setThreadCount(int count) {
+		this.threadCount = count;
+	}
+
+	/**
+	 * Sets the executor that runs the block workers. The executor is not shut down by this
+	 * dispatcher. If null, a work-stealing pool is created for each dispatch.
+	 *
+	 * @param executor the executor
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	private static class Result<R> {
+		private final int index;
+		private final R value;
+
+		private Result(int index, R value) {
+			this.index = index;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * Reports the failure of the task on one block of a dispatch.
+	 */
+
+	public static class BlockException extends RuntimeException {
+		public final static long serialVersionUID = 1;
+		public final int index;
+
+		public BlockException(int index, Throwable cause) {
+			super("Failed to process block " + index + ": " + cause, cause);
+			this.index = index;
+		}
+	}
+
+	/**
+	 * Processes one block of actions on a worker thread.
+	 *
+	 * @param <R> the type of the block result
+	 */
+
+	public static interface Task<R> {
+		public R process(int index, List<Action> block) throws Exception;
+	}
+
+	/**
+	 * Receives the result of each block on the dispatching thread.
+	 *
+	 * @param <R> the type of the block result
+	 */
+
+	public static interface Listener<R> {
+		public void blockCompleted(int index, int completed, int total, R result);
+	}
+}
@@ -14,6 +14,7 @@ import eddy.lang.Type;
 import eddy.lang.parser.Compilation;
 import eddy.lang.parser.CompilationProperties;
 import eddy.lang.parser.CompilerConstants;
+import eddy.lang.reasoner.TaxonomySnapshot;
 
 /**
  * Computes a set of statistics from the {@link Compilation}.
@@ -27,44 +28,24 @@ public class CompilationProfile implements CompilerConstants, CompilationPropert
 		OWLDataFactory factory = compilation.getOntology().getOWLOntologyManager().getOWLDataFactory();
 		
 		// define the final classes for building queries
-		OWLClassExpression classRight = factory.getOWLClass(IRI.create(nsRight));
-		OWLClassExpression classObligation = factory.getOWLClass(IRI.create(nsObligation));
-		OWLClassExpression classProhibition = factory.getOWLClass(IRI.create(nsProhibition));
-		OWLClassExpression classExclusionOfRight = factory.getOWLClass(IRI.create(nsExclusionOfRight));
-		OWLClassExpression classExclusionOfObligation = factory.getOWLClass(IRI.create(nsExclusionOfObligation));
-		OWLClassExpression classExclusionOfProhibition = factory.getOWLClass(IRI.create(nsExclusionOfProhibition));
+		OWLClass classRight = factory.getOWLClass(IRI.create(nsRight));
+		OWLClass classObligation = factory.getOWLClass(IRI.create(nsObligation));
+		OWLClass classProhibition = factory.getOWLClass(IRI.create(nsProhibition));
+		OWLClass classExclusionOfRight = factory.getOWLClass(IRI.create(nsExclusionOfRight));
+		OWLClass classExclusionOfObligation = factory.getOWLClass(IRI.create(nsExclusionOfObligation));
+		OWLClass classExclusionOfProhibition = factory.getOWLClass(IRI.create(nsExclusionOfProhibition));
 		OWLClass classRule = factory.getOWLClass(IRI.create(nsRule));
 		
-		classRight = factory.getOWLObjectIntersectionOf(classRight, classRule);
-		classObligation = factory.getOWLObjectIntersectionOf(classObligation, classRule);
-		classProhibition = factory.getOWLObjectIntersectionOf(classProhibition, classRule);
-		classExclusionOfRight = factory.getOWLObjectIntersectionOf(classExclusionOfRight, classRule);
-		classExclusionOfObligation = factory.getOWLObjectIntersectionOf(classExclusionOfObligation, classRule);
-		classExclusionOfProhibition = factory.getOWLObjectIntersectionOf(classExclusionOfProhibition, classRule);
-		
 		OWLReasoner reasoner = compilation.getReasoner();
+		TaxonomySnapshot taxonomy = compilation.getTaxonomySnapshot();
 		
 		// tally the direct counts for each modality
-		Set<OWLClass> set;
-		OWLClass nothing = factory.getOWLNothing();
-		set = reasoner.getSubClasses(classRight, true).getFlattened();
-		set.remove(nothing);
-		compilation.getProperties().setProperty(RULE_RIGHTS, set.size() + "");
-		set = reasoner.getSubClasses(classObligation, true).getFlattened();
-		set.remove(nothing);
-		compilation.getProperties().setProperty(RULE_OBLIGATIONS, set.size() + "");
-		set = reasoner.getSubClasses(classProhibition, true).getFlattened();
-		set.remove(nothing);
-		compilation.getProperties().setProperty(RULE_PROHIBITIONS, set.size() + "");
-		set = reasoner.getSubClasses(classExclusionOfRight, true).getFlattened();
-		set.remove(nothing);
-		compilation.getProperties().setProperty(RULE_EX_RIGHT, set.size() + "");
-		set = reasoner.getSubClasses(classExclusionOfObligation, true).getFlattened();
-		set.remove(nothing);
-		compilation.getProperties().setProperty(RULE_EX_OBLIGATION, set.size() + "");
-		set = reasoner.getSubClasses(classExclusionOfProhibition, true).getFlattened();
-		set.remove(nothing);
-		compilation.getProperties().setProperty(RULE_EX_PROHIBITION, set.size() + "");
+		compilation.getProperties().setProperty(RULE_RIGHTS, countRules(factory, reasoner, taxonomy, classRight, classRule) + "");
+		compilation.getProperties().setProperty(RULE_OBLIGATIONS, countRules(factory, reasoner, taxonomy, classObligation, classRule) + "");
+		compilation.getProperties().setProperty(RULE_PROHIBITIONS, countRules(factory, reasoner, taxonomy, classProhibition, classRule) + "");
+		compilation.getProperties().setProperty(RULE_EX_RIGHT, countRules(factory, reasoner, taxonomy, classExclusionOfRight, classRule) + "");
+		compilation.getProperties().setProperty(RULE_EX_OBLIGATION, countRules(factory, reasoner, taxonomy, classExclusionOfObligation, classRule) + "");
+		compilation.getProperties().setProperty(RULE_EX_PROHIBITION, countRules(factory, reasoner, taxonomy, classExclusionOfProhibition, classRule) + "");
 		
 		// tally actions
 		TreeMap<String,Integer> tally1 = new TreeMap<String,Integer>();
@@ -111,4 +92,15 @@ public class CompilationProfile implements CompilerConstants, CompilationPropert
 		
 		
 	}
+	
+	private static int countRules(OWLDataFactory factory, OWLReasoner reasoner, TaxonomySnapshot taxonomy, OWLClass modality, OWLClass classRule) {
+		// count the greatest classes that are both a rule and of this modality
+		Set<OWLClass> set = taxonomy.getCommonSubClasses(modality, classRule, true);
+		if (set == null) {
+			OWLClassExpression expr = factory.getOWLObjectIntersectionOf(modality, classRule);
+			set = reasoner.getSubClasses(expr, true).getFlattened();
+			set.remove(factory.getOWLNothing());
+		}
+		return set.size();
+	}
 }
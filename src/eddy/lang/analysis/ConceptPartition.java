@@ -0,0 +1,257 @@
+package eddy.lang.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+
+import eddy.lang.Action;
+import eddy.lang.Actor;
+import eddy.lang.Datum;
+import eddy.lang.Purpose;
+import eddy.lang.Role;
+import eddy.lang.RoleValue;
+import eddy.lang.RoleValueSet;
+import eddy.lang.Rule;
+import eddy.lang.Type;
+import eddy.lang.parser.Compilation;
+import eddy.lang.parser.Compiler;
+import eddy.lang.parser.ParseException;
+import eddy.lang.reasoner.ReasonerProvider;
+import eddy.lang.reasoner.TaxonomySnapshot;
+
+/**
+ * Partitions the leaf concepts of a classified {@link Compilation} into groups of
+ * interchangeable concepts. Two leaf concepts are interchangeable, if they have the same
+ * direct superclasses and neither is named by a {@link Rule}, or by a disjointness or
+ * equivalence {@link Type} axiom of the policy: every rule then applies to both concepts
+ * through the same superclasses, so that an extension action over one concept is
+ * classified exactly as the same action over the other. Leaves named in the policy keep a group of their own, because their position in
+ * a rule, such as an exception, distinguishes them from their siblings.
+ *
+ * The {@link ExtensionCalculator} expands one representative of each group, and the
+ * analyses re-attach the other members to their results with {@link #expand(Action)}.
+ */
+
+public class ConceptPartition {
+	private final HashMap<OWLClass,OWLClass> representatives = new HashMap<OWLClass,OWLClass>();
+	private final HashMap<OWLClass,List<OWLClass>> members = new HashMap<OWLClass,List<OWLClass>>();
+	private final Compiler compiler;
+	private int collapsed = 0;
+
+	private ConceptPartition(Compiler compiler) {
+		this.compiler = compiler;
+	}
+
+	/**
+	 * Creates the partition of the leaf concepts of the given compilation.
+	 *
+	 * @param comp the classified compilation
+	 * @param provider the provider of the reasoner that classifies the compilation, or
+	 * null, if the compilation's default reasoner is used
+	 * @return the partition
+	 * @throws ParseException if a rule role value cannot be compiled
+	 */
+	public static ConceptPartition create(Compilation comp, ReasonerProvider provider) throws ParseException {
+		ConceptPartition partition = new ConceptPartition(comp.getCompiler());
+		TaxonomySnapshot taxonomy = comp.getTaxonomySnapshot(provider);
+		OWLDataFactory factory = comp.getOntology().getOWLOntologyManager().getOWLDataFactory();
+		String ns = comp.getOntology().getOntologyID().getOntologyIRI().toString();
+
+		// collect the concepts named by the rules and type axioms
+		HashSet<OWLClass> named = new HashSet<OWLClass>();
+		for (Rule rule : comp.getPolicy().rules()) {
+			for (Role role : rule.action.roles()) {
+				partition.addNamed(role.values, named);
+			}
+		}
+		for (Type type : comp.getPolicy().types()) {
+			// subclass axioms are reflected in the direct superclasses of each leaf
+			if (type.op == Type.SUBCLASS || type.op == Type.SUPERCLASS) {
+				continue;
+			}
+			named.add(factory.getOWLClass(IRI.create(ns + "#" + type.lhs)));
+			for (String rhs : type.rhs) {
+				named.add(factory.getOWLClass(IRI.create(ns + "#" + rhs)));
+			}
+		}
+
+		// group the unnamed leaves by their direct superclasses
+		TreeMap<String,List<OWLClass>> groups = new TreeMap<String,List<OWLClass>>();
+		for (int id = 0; id < taxonomy.size(); id++) {
+			OWLClass[] classes = taxonomy.getClasses(id);
+			if (taxonomy.getChildren(id).length > 0 || classes.length != 1 || named.contains(classes[0])) {
+				continue;
+			}
+			String signature = Arrays.toString(taxonomy.getParents(id));
+			List<OWLClass> group = groups.get(signature);
+			if (group == null) {
+				group = new ArrayList<OWLClass>();
+				groups.put(signature, group);
+			}
+			group.add(classes[0]);
+		}
+
+		// the first member, by name, represents each group
+		for (List<OWLClass> group : groups.values()) {
+			if (group.size() < 2) {
+				continue;
+			}
+			Collections.sort(group);
+			OWLClass rep = group.get(0);
+			for (OWLClass c : group) {
+				partition.representatives.put(c, rep);
+			}
+			partition.members.put(rep, Collections.unmodifiableList(group));
+			partition.collapsed += group.size() - 1;
+		}
+		return partition;
+	}
+
+	private void addNamed(RoleValueSet values, Set<OWLClass> named) throws ParseException {
+		if (values.isSingle()) {
+			OWLClassExpression expr = compiler.compile(values.getValue());
+			if (!expr.isAnonymous()) {
+				named.add(expr.asOWLClass());
+			}
+			return;
+		}
+		addNamed(values.getLHS(), named);
+		addNamed(values.getRHS(), named);
+	}
+
+	/**
+	 * Returns true, if the concept is expanded in the extension, which is the case for
+	 * each representative and every concept that is not grouped.
+	 *
+	 * @param clazz the concept
+	 * @return true, if the concept is expanded
+	 */
+	public boolean isRepresentative(OWLClass clazz) {
+		OWLClass rep = representatives.get(clazz);
+		return rep == null || rep.equals(clazz);
+	}
+
+	public OWLClass getRepresentative(OWLClass clazz) {
+		OWLClass rep = representatives.get(clazz);
+		return rep == null ? clazz : rep;
+	}
+
+	/**
+	 * Returns the members of the group represented by the given concept, including the
+	 * representative, or the concept alone, if it does not represent a group.
+	 *
+	 * @param clazz the representative concept
+	 * @return the group members, sorted by name
+	 */
+	public List<OWLClass> getMembers(OWLClass clazz) {
+		List<OWLClass> list = members.get(clazz);
+		return list == null ? Collections.singletonList(clazz) : list;
+	}
+
+	/**
+	 * Returns the number of groups with more than one member.
+	 *
+	 * @return the number of groups
+	 */
+	public int getGroupCount() {
+		return members.size();
+	}
+
+	/**
+	 * Returns the number of concepts that are not expanded, because another member of
+	 * their group represents them.
+	 *
+	 * @return the number of collapsed concepts
+	 */
+	public int getCollapsedCount() {
+		return collapsed;
+	}
+
+	/**
+	 * Returns the actions represented by the given extension action: one action for each
+	 * combination of the group members of its singleton role values. The given action is
+	 * always the first action returned.
+	 *
+	 * @param action the extension action
+	 * @return the represented actions
+	 * @throws ParseException if a role value cannot be compiled
+	 */
+	public List<Action> expand(Action action) throws ParseException {
+		Role[] role = action.roles();
+		@SuppressWarnings("unchecked")
+		List<RoleValueSet>[] sets = new List[role.length];
+		boolean grouped = false;
+
+		for (int i = 0; i < role.length; i++) {
+			sets[i] = new ArrayList<RoleValueSet>();
+			sets[i].add(role[i].values);
+			if (!role[i].values.isSingle()) {
+				continue;
+			}
+			RoleValue value = role[i].values.getValue();
+			OWLClassExpression expr = compiler.compile(value);
+			if (expr.isAnonymous()) {
+				continue;
+			}
+			for (OWLClass c : getMembers(expr.asOWLClass())) {
+				if (!c.equals(expr)) {
+					sets[i].add(new RoleValueSet.Singleton(cast(value, c)));
+					grouped = true;
+				}
+			}
+		}
+		if (!grouped) {
+			return Collections.singletonList(action);
+		}
+
+		ArrayList<Action> actions = new ArrayList<Action>();
+		ActionProduct product = new ActionProduct(action.name, role, sets);
+		while (product.hasNext()) {
+			actions.add(product.next());
+		}
+		// the product starts from the first value of each role, which is the original action
+		actions.set(0, action);
+		return actions;
+	}
+
+	/**
+	 * Records the other actions represented by each interpretation of the conflict, under
+	 * the extension id of that interpretation (see {@link Conflict#represented}). The
+	 * interpretations themselves are left as they are, keyed by their extension ids.
+	 *
+	 * @param conflict the conflict
+	 * @throws ParseException if a role value cannot be compiled
+	 */
+	public void expand(Conflict conflict) throws ParseException {
+		for (String id : conflict.actions.keySet()) {
+			if (conflict.actions.get(id) == null) {
+				continue;
+			}
+			List<Action> actions = expand(conflict.actions.get(id));
+			if (actions.size() > 1) {
+				conflict.represented.put(id, new ArrayList<Action>(actions.subList(1, actions.size())));
+			}
+		}
+	}
+
+	private static RoleValue cast(RoleValue value, OWLClass c) {
+		String name = c.getIRI().getFragment();
+		if (value instanceof Actor) {
+			return new Actor(name);
+		}
+		else if (value instanceof Purpose) {
+			return new Purpose(name);
+		}
+		return new Datum(name);
+	}
+}
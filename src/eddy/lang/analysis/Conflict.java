@@ -1,5 +1,10 @@
 package eddy.lang.analysis;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
 import java.util.TreeMap;
 
 import eddy.lang.Action;
@@ -30,6 +35,13 @@ public class Conflict implements Comparable<Conflict> {
 	public final Rule rule1, rule2;
 	public final TreeMap<String,Action> actions = new TreeMap<String,Action>();
 	
+	/**
+	 * The actions that each interpretation in {@link #actions} represents, keyed by its
+	 * extension id, if the analysis collapsed interchangeable concepts (see
+	 * {@link ConceptPartition}). The represented actions are not in the extension.
+	 */
+	public final TreeMap<String,List<Action>> represented = new TreeMap<String,List<Action>>();
+	
 	public Conflict(Extension ext, Type type, Rule rule1, Rule rule2, String id, Action action) {
 		this.ext = ext;
 		this.actions.put(id, action);
@@ -59,6 +71,21 @@ public class Conflict implements Comparable<Conflict> {
 		return rule2.id.compareTo(c.rule2.id);
 	}
 	
+	/**
+	 * Releases the extensions that the given conflicts refer to, once the conflicts are no
+	 * longer needed (see {@link Extension#release()}).
+	 * 
+	 * @param conflicts the conflicts
+	 */
+	public static void release(Collection<Conflict> conflicts) {
+		Set<Extension> released = Collections.newSetFromMap(new IdentityHashMap<Extension,Boolean>());
+		for (Conflict c : conflicts) {
+			if (c.ext != null && released.add(c.ext)) {
+				c.ext.release();
+			}
+		}
+	}
+	
 	public boolean equals(Conflict c) {
 		return compareTo(c) == 0;
 	}
@@ -1,6 +1,10 @@
 package eddy.lang.analysis;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -18,6 +22,8 @@ import eddy.lang.Rule;
 import eddy.lang.parser.CompilationProperties;
 import eddy.lang.parser.CompilerConstants;
 import eddy.lang.parser.ParseException;
+import eddy.lang.reasoner.ReasonerProvider;
+import eddy.lang.reasoner.TaxonomySnapshot;
 
 /**
  * Analyzes a {@link eddy.lang.parser.Compilation} for conflicts between policy rules. This class
@@ -26,6 +32,12 @@ import eddy.lang.parser.ParseException;
  * itemized concept is in the class of Rights and Prohibitions, then it is deemed to
  * represent a conflicting interpretation.
  * 
+ * The subclasses of Conflict are visited once each, in topological order of the classified
+ * hierarchy, and the superordinate rules of each class are computed once and cached, so that
+ * the analysis time is linear in the number of conflicting classes. The
+ * {@link SymbolicConflictAnalyzer} detects conflicts by comparing pairs of rules instead,
+ * without computing the extension.
+ * 
  * @author Travis Breaux
  */
 
@@ -33,22 +45,39 @@ public class ConflictAnalyzer implements CompilerConstants, CompilationPropertie
 	private TreeSet<Conflict> conflicts;
 	private OWLDataFactory factory;
 	private OWLReasoner reasoner;
+	private TaxonomySnapshot taxonomy;
 	private Policy policy;
 	private OWLClass classRule, classConflict;
 	private Extension ext;
+	private ReasonerProvider provider = null;
+	private final HashMap<Integer,TreeSet<Rule>> supersById = new HashMap<Integer,TreeSet<Rule>>();
+	private final HashMap<OWLClass,TreeSet<Rule>> supersByClass = new HashMap<OWLClass,TreeSet<Rule>>();
 	
 	public ConflictAnalyzer() {
 		return;
 	}
 	
+	/**
+	 * Sets the provider of the reasoner used to classify the extension. If null, the 
+	 * extension's default reasoner is used.
+	 * 
+	 * @param provider the reasoner provider
+	 */
+	public void setReasonerProvider(ReasonerProvider provider) {
+		this.provider = provider;
+	}
+	
 	public ArrayList<Conflict> analyze(Extension ext) throws ParseException {
 		// reset global variables
 		this.conflicts = new TreeSet<Conflict>();
+		supersById.clear();
+		supersByClass.clear();
 		
 		// set the compilation elements
 		this.ext = ext;
 		this.policy = ext.getPolicy();
-		this.reasoner = ext.getReasoner();
+		this.reasoner = ext.getReasoner(provider);
+		this.taxonomy = ext.getTaxonomySnapshot(provider);
 		
 		OWLOntology ontology = ext.getOntology();
 		OWLOntologyManager manager = ontology.getOWLOntologyManager();
@@ -66,10 +95,20 @@ public class ConflictAnalyzer implements CompilerConstants, CompilationPropertie
 		 * it conflicts.
 		 */
 		
-		Set<OWLClass> set = reasoner.getSubClasses(classConflict, false).getFlattened();
-		for (OWLClass clazz : set) {
-			// process conflicts for this class, and recurse
-			processConflicts(clazz);
+		int root = taxonomy.getId(classConflict);
+		if (root >= 0) {
+			// visit each node below conflict once; node ids are in topological order
+			for (int id : findDescendants(root)) {
+				for (OWLClass clazz : taxonomy.getClasses(id)) {
+					processConflicts(clazz);
+				}
+			}
+		}
+		else {
+			Set<OWLClass> set = reasoner.getSubClasses(classConflict, false).getFlattened();
+			for (OWLClass clazz : set) {
+				processConflicts(clazz);
+			}
 		}
 
 		// set the conflict property
@@ -117,28 +156,69 @@ public class ConflictAnalyzer implements CompilerConstants, CompilationPropertie
 			}
 		}
 		
-		// recurse on subclasses
-		Set<OWLClass> set = reasoner.getSubClasses(clazz, false).getFlattened();
-		for (OWLClass c : set) {
-			processConflicts(c);
+		/* The subclasses of this class are also subclasses of conflict, and each is
+		 * processed once by the analysis, so there is no need to recurse.
+		 */
+	}
+	
+	private int[] findDescendants(int root) {
+		boolean[] visited = new boolean[taxonomy.size()];
+		LinkedList<Integer> queue = new LinkedList<Integer>();
+		ArrayList<Integer> list = new ArrayList<Integer>();
+		queue.add(root);
+		while (!queue.isEmpty()) {
+			for (int y : taxonomy.getChildren(queue.removeFirst())) {
+				if (!visited[y]) {
+					visited[y] = true;
+					list.add(y);
+					queue.add(y);
+				}
+			}
+		}
+		int[] ids = new int[list.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = list.get(i);
 		}
+		Arrays.sort(ids);
+		return ids;
 	}
 	
 	private TreeSet<Rule> findSuperOrdinates(OWLClass clazz) {
+		// equivalent classes share their superordinate rules
+		int id = taxonomy.getId(clazz);
+		TreeSet<Rule> rules = id >= 0 ? supersById.get(id) : supersByClass.get(clazz);
+		if (rules != null) {
+			return rules;
+		}
 		
 		// find the rules that are super classes of the given rule clazz
-		OWLClassExpression expr = factory.getOWLObjectIntersectionOf(classRule, clazz);
-		Set<OWLClass> set = reasoner.getSuperClasses(expr, true).getFlattened();
+		Set<OWLClass> set;
+		if (id >= 0 && taxonomy.isSubClassOf(clazz, classRule)) {
+			// the intersection with the rule class is equivalent to the clazz itself
+			set = new HashSet<OWLClass>();
+			for (int p : taxonomy.getParents(id)) {
+				set.addAll(Arrays.asList(taxonomy.getClasses(p)));
+			}
+		}
+		else {
+			OWLClassExpression expr = factory.getOWLObjectIntersectionOf(classRule, clazz);
+			set = reasoner.getSuperClasses(expr, true).getFlattened();
+		}
 
 		// identify the rule id and map this to the rule
-		TreeSet<Rule> rules = new TreeSet<Rule>();
+		rules = new TreeSet<Rule>();
 		for (OWLClass c : set) {
-			String id = c.getIRI().getFragment();
-			Rule rule = policy.getRule(id);
+			Rule rule = policy.getRule(c.getIRI().getFragment());
 			if (rule != null) {
 				rules.add(rule);
 			}
 		}
+		if (id >= 0) {
+			supersById.put(id, rules);
+		}
+		else {
+			supersByClass.put(clazz, rules);
+		}
 		return rules;
 	}
 }
@@ -29,6 +29,7 @@ import eddy.lang.parser.Compilation;
 import eddy.lang.parser.Compiler;
 import eddy.lang.parser.CompilerFactory;
 import eddy.lang.parser.ParseException;
+import eddy.lang.parser.PolicyBaseMapper;
 
 /**
  * Find all data flows across two or more {@link Policy} objects. Each policy is described 
@@ -96,6 +97,7 @@ public class CrossFlowTracer extends Tracer {
 			compilations.put(agent.uri, comp);
 
 			FlowTracer tracer = new FlowTracer();
+			tracer.setReasonerProvider(provider);
 			for (String s : crossTarget) {
 				tracer.addSource(s);
 			}
@@ -195,6 +197,7 @@ public class CrossFlowTracer extends Tracer {
 	
 	private Compilation compileServiceMap(ServiceMap map, Compilation comp1, Compilation comp2) throws ParseException {
 		OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+		manager.addIRIMapper(new PolicyBaseMapper());
 		OWLOntology ontology;
 		
 		try {
@@ -237,7 +240,7 @@ public class CrossFlowTracer extends Tracer {
 		OWLOntology onto2 = comp2.getOntology();
 		manager.addAxioms(comp.getOntology(), onto1.getAxioms());
 		manager.addAxioms(comp.getOntology(), onto2.getAxioms());
-		comp.getReasoner().flush();
+		comp.refreshReasoner();
 		return comp;
 	}
 	
@@ -3,19 +3,39 @@ package eddy.lang.analysis;
 import java.io.File;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
 
 import eddy.lang.Action;
 import eddy.lang.parser.Compilation;
+import eddy.lang.parser.CompilationProperties;
 import eddy.lang.parser.Logger;
 import eddy.lang.parser.ParseException;
+import eddy.lang.reasoner.ReasonerProvider;
 
 /**
  * Extends the {@link ConflictAnalyzer} to multi-threaded analysis. The {@link eddy.lang.Policy} 
  * is segmented and separately compiled in a cache, where each policy segment is analyzed
  * and the results are recombined to detect the complete set of {@link Conflict}s.
  * 
+ * Each block is extended and analyzed by a worker on an {@link ExecutorService}, and the
+ * results are collected as the workers complete (see {@link BlockDispatcher}). The analysis
+ * may be cancelled, and its progress may be observed with a {@link ProgressListener}. The
+ * extension is enumerated lazily, so that only the blocks pending analysis are held in memory, and actions that
+ * cannot be interpreted as a conflict may be pruned before they are classified (see
+ * {@link #setPruneExtension(boolean)}).
+ * 
+ * Each block is a {@link Extension} of the compilation's shared {@link ExtensionBase}.
+ * Blocks without conflicts are released as soon as they are analyzed, and so are the
+ * blocks whose conflicts duplicate those of another block. The blocks that the returned
+ * conflicts refer to are retained, and callers release them once the conflicts are no
+ * longer needed (see {@link Conflict#release(java.util.Collection)}).
+ * 
  * @author Travis Breaux
  *
  */
@@ -23,101 +43,196 @@ import eddy.lang.parser.ParseException;
 public class ExtendedConflictAnalyzer {
 	private Logger logger = new Logger(new PrintWriter(System.err), Logger.WARN, this.getClass().getName() + ": ");
 	private int blockSize = 1000;
-	private int threadCount = 3;
 	private TreeSet<Conflict> conflicts;
+	private ArrayList<Extension> extensions;
 	private String cachePath = null;
+	private ReasonerProvider provider = null;
+	private final BlockDispatcher<List<Conflict>> dispatcher = new BlockDispatcher<List<Conflict>>();
+	private ProgressListener listener = null;
+	private boolean pruneExtension = false;
+	private boolean collapseConcepts = false;
 	
+	/**
+	 * Detects the conflicts of the compilation. The conflicts refer to the extension blocks
+	 * in which they were detected, which the caller must release (see
+	 * {@link Conflict#release(java.util.Collection)}).
+	 * 
+	 * @param comp the compilation
+	 * @return the conflicts, in rule order
+	 */
 	public ArrayList<Conflict> analyze(Compilation comp) {
 		this.conflicts = new TreeSet<Conflict>();
+		this.extensions = new ArrayList<Extension>();
 		
-		// compute the extensions for this ontology
+		// enumerate the extension for this ontology, without materializing it
 		ExtensionCalculator calculator = new ExtensionCalculator();
-		ArrayList<Action> actions;
+		calculator.setReasonerProvider(provider);
+		calculator.setCollapseConcepts(collapseConcepts);
+		Iterator<Action> actions;
+		ExtensionPruner pruner = null;
 		try {
-			actions = calculator.compute(comp);
+			actions = calculator.iterate(comp);
+			
+			// drop the actions that cannot be interpreted as a conflict
+			if (pruneExtension) {
+				pruner = new ExtensionPruner(comp, provider);
+				actions = pruner.prune(actions);
+			}
 			
 		} catch (ParseException e) {
-			actions = new ArrayList<Action>();
+			actions = new ArrayList<Action>().iterator();
 			e.printStackTrace();
 		}
-		logger.log(Logger.DEBUG, "Calculated " + actions.size() + " actions in the extensions");
 		
-		// separate the actions into work blocks
-		ArrayList<List<Action>> blocks = new ArrayList<List<Action>>();
-		for (int i = 0; i < actions.size(); i += blockSize) {
-			blocks.add(actions.subList(i, Math.min(actions.size(), i + blockSize)));
-		}
+		// count the actions as they are separated into work blocks
+		final int[] count = new int[1];
+		final Iterator<List<Action>> stream = ExtensionCalculator.partition(actions, blockSize);
+		Iterator<List<Action>> blocks = new Iterator<List<Action>>() {
+			public boolean hasNext() {
+				return stream.hasNext();
+			}
+			public List<Action> next() {
+				List<Action> block = stream.next();
+				count[0] += block.size();
+				return block;
+			}
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
 		
 		// distribute blocks to workers
-		distribute(blocks, comp);
+		try {
+			distribute(blocks, comp);
+		}
+		catch (RuntimeException e) {
+			conflicts.clear();
+			throw e;
+		}
+		finally {
+			releaseUnused();
+		}
+		
+		// re-attach the actions of the concepts collapsed into each representative
+		ConceptPartition partition = calculator.getConceptPartition();
+		if (partition != null) {
+			try {
+				for (Conflict c : conflicts) {
+					partition.expand(c);
+				}
+			} catch (ParseException e) {
+				e.printStackTrace();
+			}
+		}
+		
+		// blocks complete in any order, so restore the size of the complete extension
+		int size = count[0];
+		if (pruner != null) {
+			// the size of the extension includes the pruned actions
+			size += pruner.getPruned();
+			logger.log(Logger.DEBUG, "Pruned " + pruner.getPruned() + " actions without conflicting rules");
+			comp.getProperties().setProperty(CompilationProperties.EXT_PRUNED, pruner.getPruned() + "");
+		}
+		logger.log(Logger.DEBUG, "Calculated " + size + " actions in the extensions");
+		comp.getProperties().setProperty(CompilationProperties.EXT_SIZE, size + "");
 		logger.log(Logger.DEBUG, "Detected " + conflicts.size() + " unique conflicts");
 		
 		return new ArrayList<Conflict>(conflicts);
 	}
 	
-	private void distribute(ArrayList<List<Action>> blocks, Compilation comp) {
-		Worker[] worker = new Worker[threadCount];
-		Thread[] thread = new Thread[threadCount];
-		
-		// initialize workers with shared list
-		for (int i = 0; i < worker.length; i++) {
-			worker[i] = new Worker();
-		}
+	private void distribute(Iterator<List<Action>> blocks, final Compilation comp) {
+		final ReasonerProvider provider = this.provider != null ? this.provider : comp.getReasonerProvider();
+		logger.log(Logger.DEBUG, "Dispatching work blocks to " + dispatcher.getThreadCount() + " workers...");
 		
-		logger.log(Logger.DEBUG, "Dispatching " + blocks.size() + " work blocks to " + threadCount + " workers...");
-		for (int i = 0; i < thread.length; i++) {
-			thread[i] = new Thread();
-		}
-
-		// begin distribution of blocks to workers
-		int index = 0;
-		boolean running = true;
-		while (running) {
-			running = false;
-			for (int i = 0; i < thread.length; i++) {
-				if (thread[i] == null) {
-					continue;
+		// each worker builds and analyzes the extension of its block
+		dispatcher.dispatch(blocks, new BlockDispatcher.Task<List<Conflict>>() {
+			public List<Conflict> process(int index, List<Action> block) throws Exception {
+				Extension extComp = ExtensionCalculator.extend(comp, block, index * blockSize, provider);
+				if (cachePath != null) {
+					File file = new File(cachePath + "/part" + (index + 1) + ".owl");
+					extComp.save(file);
+				}
+				List<Conflict> result;
+				try {
+					result = new ConflictAnalyzer().analyze(extComp);
+				}
+				catch (Exception e) {
+					extComp.release();
+					throw e;
 				}
-				else if (thread[i].isAlive()) {
-					running = true;
+				if (result.isEmpty()) {
+					extComp.release();
 				}
 				else {
-					// check if this worker has any uncollected work
-					if (worker[i].conflicts != null) {
-						logger.log(Logger.DEBUG, "Received block " + worker[i].index + " with " + worker[i].conflicts.size() + " conflicts");
-						this.conflicts.addAll(worker[i].conflicts);
-						worker[i].conflicts = null;
-					}
-					
-					// start a new thread for any remaining blocks
-					if (index < blocks.size()) {
-						List<Action> block = blocks.get(index);
-						int counter = index * blockSize;
-						worker[i].index = index;
-						worker[i].extComp = ExtensionCalculator.extend(comp, block, counter);
-						index++;
-						
-						if (cachePath != null) {
-							File file = new File(cachePath + "/part" + index + ".owl");
-							worker[i].extComp.save(file);
-						}
-						
-						thread[i] = new Thread(worker[i]);
-						thread[i].start();
-						running = true;
-					}
-					else {
-						thread[i] = null;
-					}
+					// the conflicts refer to the block, but not to its reasoner
+					extComp.dispose();
 				}
+				return result;
 			}
-			try {
-				Thread.sleep(1000);
-			} catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+		}, new BlockDispatcher.Listener<List<Conflict>>() {
+			public void blockCompleted(int index, int completed, int total, List<Conflict> result) {
+				logger.log(Logger.DEBUG, "Received block " + index + " with " + result.size() + " conflicts");
+				conflicts.addAll(result);
+				if (!result.isEmpty()) {
+					extensions.add(result.get(0).ext);
+				}
+				if (listener != null) {
+					listener.blockCompleted(index, completed, total, result);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Releases the blocks of the last analysis that none of its conflicts refer to.
+	 */
+	private void releaseUnused() {
+		Set<Extension> used = Collections.newSetFromMap(new IdentityHashMap<Extension,Boolean>());
+		for (Conflict c : conflicts) {
+			used.add(c.ext);
+		}
+		for (Extension ext : extensions) {
+			if (!used.contains(ext)) {
+				ext.release();
 			}
 		}
+		extensions.clear();
+	}
+	
+	/**
+	 * Cancels a running analysis. Blocks that have not yet completed are abandoned, and
+	 * {@link #analyze(Compilation)} returns the conflicts found in the completed blocks.
+	 */
+	public void cancel() {
+		dispatcher.cancel();
+	}
+	
+	public boolean isCancelled() {
+		return dispatcher.isCancelled();
+	}
+	
+	/**
+	 * Sets the number of worker threads used when no executor is given. By default, one
+	 * thread is used for each available processor.
+	 * 
+	 * @param count the number of threads
+	 */
+	public void setThreadCount(int count) {
+		dispatcher.setThreadCount(count);
+	}
+	
+	/**
+	 * Sets the executor that runs the block workers. The executor is not shut down by this
+	 * analyzer. If null, a work-stealing pool is created for each analysis.
+	 * 
+	 * @param executor the executor
+	 */
+	public void setExecutor(ExecutorService executor) {
+		dispatcher.setExecutor(executor);
+	}
+	
+	public void setProgressListener(ProgressListener listener) {
+		this.listener = listener;
 	}
 	
 	public void setCachePath(String path) {
@@ -128,23 +243,55 @@ public class ExtendedConflictAnalyzer {
 		this.blockSize = size;
 	}
 	
-	class Worker implements Runnable {
-		private Extension extComp;
-		private ConflictAnalyzer analyzer = new ConflictAnalyzer();
-		private ArrayList<Conflict> conflicts = null;
-		private int index;
-		
-		public Worker() {
-			return;
-		}
-		public void run() {
-			try {
-				this.conflicts = analyzer.analyze(extComp);
-			}
-			catch (Exception e) {
-				conflicts = new ArrayList<Conflict>();
-				e.printStackTrace();
-			}
-		}
+	/**
+	 * Sets whether the extension is pruned of actions that no two conflicting rules can
+	 * subsume, before it is classified (see {@link ExtensionPruner}). Pruned actions are
+	 * not numbered, so the extension ids of the remaining actions differ from those of an
+	 * unpruned analysis. The extension size property still counts the pruned actions,
+	 * which are counted separately by the pruned property. Pruning is disabled by default.
+	 * 
+	 * @param prune true, if the extension is pruned
+	 */
+	public void setPruneExtension(boolean prune) {
+		this.pruneExtension = prune;
+	}
+	
+	/**
+	 * Sets whether interchangeable leaf concepts are analyzed once per group, and the
+	 * actions of the other group members are recorded with the detected conflicts (see
+	 * {@link ConceptPartition}, {@link Conflict#represented}). By default, concepts are not collapsed.
+	 * 
+	 * @param collapse true, if interchangeable concepts are collapsed
+	 */
+	public void setCollapseConcepts(boolean collapse) {
+		this.collapseConcepts = collapse;
+	}
+	
+	/**
+	 * Sets the provider of the reasoners used to classify each extension block. If null, 
+	 * the reasoner provider of the analyzed compilation is used.
+	 * 
+	 * @param provider the reasoner provider
+	 */
+	public void setReasonerProvider(ReasonerProvider provider) {
+		this.provider = provider;
+	}
+	
+	/**
+	 * Receives the progress of an {@link ExtendedConflictAnalyzer}, as each block of the
+	 * extension is analyzed. Notifications are made on the thread calling
+	 * {@link ExtendedConflictAnalyzer#analyze(Compilation)}.
+	 */
+	
+	public static interface ProgressListener {
+		/**
+		 * Notifies the listener that a block has been analyzed.
+		 * 
+		 * @param index the index of the analyzed block
+		 * @param completed the number of blocks analyzed so far
+		 * @param total the total number of blocks, or -1 if not yet known
+		 * @param conflicts the conflicts detected in the analyzed block
+		 */
+		public void blockCompleted(int index, int completed, int total, List<Conflict> conflicts);
 	}
 }
@@ -3,15 +3,21 @@ package eddy.lang.analysis;
 import java.util.TreeMap;
 
 import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.reasoner.OWLReasoner;
 
 import eddy.lang.Action;
 import eddy.lang.Policy;
 import eddy.lang.parser.Compilation;
 import eddy.lang.parser.Compiler;
+import eddy.lang.reasoner.ReasonerProvider;
 
 /**
  * Describes the itemized {@link Action} interpretations for all {@link eddy.lang.Rule} in a 
  * {@link Policy}. The extension is computed using the {@link ExtensionCalculator}.
+ * 
+ * Extensions computed in blocks import a shared copy of the compiled ontology (see
+ * {@link ExtensionBase}), and should be released, once neither the extension nor its
+ * results are needed.
  *  
  * @author Travis Breaux
  *
@@ -19,10 +25,20 @@ import eddy.lang.parser.Compiler;
 
 public class Extension extends Compilation {
 	private final TreeMap<String,Action> extMap = new TreeMap<String,Action>();
+	private final ExtensionBase base;
 	
 	public Extension(Compiler c, Policy p, OWLOntology o, TreeMap<String,Action> map) {
 		super(c, p, o);
 		this.extMap.putAll(map);
+		this.base = null;
+	}
+	public Extension(Compiler c, Policy p, OWLOntology o, TreeMap<String,Action> map, ReasonerProvider provider) {
+		this(c, p, o, map, provider, null);
+	}
+	public Extension(Compiler c, Policy p, OWLOntology o, TreeMap<String,Action> map, ReasonerProvider provider, ExtensionBase base) {
+		super(c, p, o, provider);
+		this.extMap.putAll(map);
+		this.base = base;
 	}
 	public String[] getExtension() {
 		return extMap.keySet().toArray(new String[extMap.size()]);
@@ -30,4 +46,31 @@ public class Extension extends Compilation {
 	public Action getAction(String id) {
 		return extMap.get(id);
 	}
+	
+	/**
+	 * Disposes a reasoner of this extension. Disposing removes the reasoner's listener from
+	 * the ontology manager, so the reasoners of a block are disposed while holding the lock
+	 * of the shared base.
+	 */
+	protected void dispose(OWLReasoner reasoner) {
+		if (base == null) {
+			reasoner.dispose();
+			return;
+		}
+		synchronized (base.getLock()) {
+			reasoner.dispose();
+		}
+	}
+	
+	/**
+	 * Disposes the reasoners of this extension and, if the extension is a block of a shared
+	 * {@link ExtensionBase}, removes the block from the shared manager. The extension can
+	 * no longer be classified after it is released.
+	 */
+	public void release() {
+		dispose();
+		if (base != null) {
+			base.removeBlock(getOntology());
+		}
+	}
 }
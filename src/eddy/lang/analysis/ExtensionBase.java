@@ -0,0 +1,192 @@
+package eddy.lang.analysis;
+
+import java.io.File;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.AddImport;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLImportsDeclaration;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.semanticweb.owlapi.model.OWLOntologyID;
+import org.semanticweb.owlapi.model.OWLOntologyLoaderConfiguration;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+import org.semanticweb.owlapi.reasoner.OWLReasoner;
+import org.semanticweb.owlapi.util.SimpleIRIMapper;
+
+import eddy.lang.parser.Compilation;
+import eddy.lang.parser.Compiler;
+import eddy.lang.parser.PolicyBase;
+import eddy.lang.parser.PolicyBaseMapper;
+import eddy.lang.reasoner.ReasonerProvider;
+import eddy.lang.reasoner.TaxonomyReasoner;
+
+/**
+ * Provides one frozen copy of a compiled policy ontology, which is shared by every
+ * {@link Extension} block of that {@link Compilation}. The copy is created once, in a
+ * manager owned by this base, and each block is created in the same manager as a small
+ * ontology that imports the copy and holds only the equivalence axioms of its actions.
+ * Blocks share the ontology IRI of the compilation, so that names resolve as before, and
+ * are distinguished by a version IRI.
+ *
+ * The shared manager is not thread-safe, so blocks are built while holding the lock
+ * returned by {@link #getLock()}, and reasoners over the blocks are created by the
+ * provider returned by {@link #synchronize(ReasonerProvider)}, which loads the import
+ * closure while holding the same lock. Reasoners over the blocks are disposed while
+ * holding the lock, too, and blocks are removed from the manager when their extension is
+ * released (see {@link Extension#release()}).
+ */
+
+public class ExtensionBase {
+	private static final WeakHashMap<Compilation,ExtensionBase> bases = new WeakHashMap<Compilation,ExtensionBase>();
+	private static final Compilation.ChangeListener listener = new Compilation.ChangeListener() {
+		public void compilationChanged(Compilation comp, Set<OWLAxiom> added, Set<OWLAxiom> removed, Set<OWLClass> affected) {
+			invalidate(comp);
+		}
+	};
+	private final OWLOntologyManager manager;
+	private final OWLOntology base;
+	private final IRI iri;
+	private int blocks = 0;
+	private boolean stale = false;
+
+	private ExtensionBase(Compilation comp, File basePolicy) throws OWLOntologyCreationException {
+		OWLOntology onto = comp.getOntology();
+		this.iri = onto.getOntologyID().getOntologyIRI();
+		this.manager = OWLManager.createOWLOntologyManager();
+		OWLDataFactory factory = manager.getOWLDataFactory();
+
+		// load the upper ontology from the bundled copy, unless overridden by a local file
+		manager.addIRIMapper(new PolicyBaseMapper());
+		IRI ns = IRI.create(Compiler.NS);
+		if (basePolicy != null) {
+			manager.addIRIMapper(new SimpleIRIMapper(ns, IRI.create(basePolicy)));
+			manager.loadOntology(ns);
+		}
+		else {
+			PolicyBase.attach(manager);
+		}
+
+		// copy the compiled axioms once, under a name distinct from the blocks
+		this.base = manager.createOntology(onto.getAxioms(), IRI.create(iri + "/base"));
+		OWLImportsDeclaration decl = factory.getOWLImportsDeclaration(ns);
+		manager.applyChange(new AddImport(base, decl));
+		manager.makeLoadImportRequest(decl, new OWLOntologyLoaderConfiguration());
+	}
+
+	/**
+	 * Returns the base of the given compilation, which is created on the first request. A
+	 * new base is created, if the compilation has changed since its base was created (see
+	 * {@link Compilation#addChangeListener(Compilation.ChangeListener)}).
+	 *
+	 * @param comp the compilation
+	 * @param basePolicy the local file of the upper ontology, or null, if the bundled
+	 * copy is used
+	 * @return the shared base
+	 * @throws OWLOntologyCreationException if the upper ontology cannot be loaded
+	 */
+	public static ExtensionBase get(Compilation comp, File basePolicy) throws OWLOntologyCreationException {
+		synchronized (bases) {
+			ExtensionBase base = bases.get(comp);
+			if (base == null) {
+				comp.addChangeListener(listener);
+			}
+			if (base == null || base.stale) {
+				base = new ExtensionBase(comp, basePolicy);
+				bases.put(comp, base);
+			}
+			return base;
+		}
+	}
+
+	/**
+	 * Discards the base of the given compilation, for example, after the compiled ontology
+	 * has changed. Existing blocks remain valid.
+	 *
+	 * @param comp the compilation
+	 */
+	public static void invalidate(Compilation comp) {
+		synchronized (bases) {
+			ExtensionBase base = bases.get(comp);
+			if (base != null) {
+				base.stale = true;
+			}
+		}
+	}
+
+	/**
+	 * Returns the lock that guards the shared manager.
+	 *
+	 * @return the lock
+	 */
+	public Object getLock() {
+		return manager;
+	}
+
+	public OWLOntologyManager getManager() {
+		return manager;
+	}
+
+	/**
+	 * Creates a new, empty block that imports the base. The caller must hold the lock.
+	 *
+	 * @return the new block ontology
+	 * @throws OWLOntologyCreationException if the block cannot be created
+	 */
+	public OWLOntology createBlock() throws OWLOntologyCreationException {
+		OWLDataFactory factory = manager.getOWLDataFactory();
+		IRI version = IRI.create(iri + "/block" + (blocks++));
+		OWLOntology block = manager.createOntology(new OWLOntologyID(iri, version));
+		manager.applyChange(new AddImport(block, factory.getOWLImportsDeclaration(base.getOntologyID().getOntologyIRI())));
+		return block;
+	}
+
+	/**
+	 * Removes the given block from the shared manager.
+	 *
+	 * @param block the block ontology
+	 */
+	public void removeBlock(OWLOntology block) {
+		synchronized (manager) {
+			if (manager.contains(block.getOntologyID())) {
+				manager.removeOntology(block);
+			}
+		}
+	}
+
+	/**
+	 * Returns a provider that creates and refreshes reasoners of the given provider while
+	 * holding the lock of this base. A {@link TaxonomyReasoner}, which otherwise reads the
+	 * import closure and creates its fallback reasoner on the first request, is prepared
+	 * while the lock is held (see {@link TaxonomyReasoner#prepare(Object)}).
+	 *
+	 * @param provider the reasoner provider
+	 * @return the synchronized provider
+	 */
+	public ReasonerProvider synchronize(final ReasonerProvider provider) {
+		return new ReasonerProvider() {
+			public OWLReasoner createReasoner(OWLOntology ontology) {
+				synchronized (manager) {
+					OWLReasoner reasoner = provider.createReasoner(ontology);
+					TaxonomyReasoner.prepare(reasoner, manager);
+					return reasoner;
+				}
+			}
+			public OWLReasoner refreshReasoner(OWLReasoner reasoner) {
+				synchronized (manager) {
+					reasoner = provider.refreshReasoner(reasoner);
+					TaxonomyReasoner.prepare(reasoner, manager);
+					return reasoner;
+				}
+			}
+			public String toString() {
+				return provider.toString();
+			}
+		};
+	}
+}
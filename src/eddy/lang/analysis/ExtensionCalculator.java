@@ -3,25 +3,24 @@ package eddy.lang.analysis;
 import java.io.File;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
 
-import org.semanticweb.owlapi.apibinding.OWLManager;
-import org.semanticweb.owlapi.model.AddImport;
 import org.semanticweb.owlapi.model.IRI;
 import org.semanticweb.owlapi.model.OWLAxiom;
 import org.semanticweb.owlapi.model.OWLClass;
 import org.semanticweb.owlapi.model.OWLClassExpression;
 import org.semanticweb.owlapi.model.OWLDataFactory;
-import org.semanticweb.owlapi.model.OWLImportsDeclaration;
 import org.semanticweb.owlapi.model.OWLOntology;
 import org.semanticweb.owlapi.model.OWLOntologyCreationException;
-import org.semanticweb.owlapi.model.OWLOntologyLoaderConfiguration;
 import org.semanticweb.owlapi.model.OWLOntologyManager;
 import org.semanticweb.owlapi.reasoner.OWLReasoner;
-import org.semanticweb.owlapi.util.SimpleIRIMapper;
 
 import eddy.lang.Action;
 import eddy.lang.Actor;
@@ -40,6 +39,8 @@ import eddy.lang.parser.Compiler;
 import eddy.lang.parser.CompilerConstants;
 import eddy.lang.parser.Logger;
 import eddy.lang.parser.ParseException;
+import eddy.lang.reasoner.ReasonerProvider;
+import eddy.lang.reasoner.TaxonomySnapshot;
 
 /**
  * Computes the {@link Extension} from a {@link Policy}. The extension consists of all itemized
@@ -59,62 +60,57 @@ public class ExtensionCalculator implements CompilerConstants, CompilationProper
 	}
 	private static File basePolicy = null;
 	public static Extension extend(Compilation comp, List<Action> actions, int counter) {
-		// copy the ontology before performing extension
-		OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
-		OWLDataFactory factory = manager.getOWLDataFactory();
-		OWLOntology ontology = null;
-		OWLOntology onto = comp.getOntology();
-		String ns = onto.getOntologyID().getOntologyIRI().toString();
-		
-		// load the upper ontology
-		if (basePolicy != null) {
-			IRI docIRI = IRI.create("http://gaius.isri.cmu.edu/2011/8/policy-base.owl");
-			SimpleIRIMapper mapper = new SimpleIRIMapper(docIRI, IRI.create(basePolicy));
-			manager.addIRIMapper(mapper);
+		return extend(comp, actions, counter, comp.getReasonerProvider());
+	}
+	public static Extension extend(Compilation comp, List<Action> actions, int counter, ReasonerProvider provider) {
+		if (provider == null) {
+			provider = comp.getReasonerProvider();
 		}
-		
-		IRI iri = IRI.create(Compiler.NS);
-		OWLImportsDeclaration decl = factory.getOWLImportsDeclaration(iri);
-		OWLOntologyLoaderConfiguration conf = new OWLOntologyLoaderConfiguration();
-
+		// share one frozen copy of the compiled ontology among all extension blocks
+		ExtensionBase base;
 		try {
-			ontology = manager.createOntology(IRI.create(ns));
-			manager.applyChange(new AddImport(ontology, decl));
-			manager.loadOntology(iri);
-			manager.makeLoadImportRequest(decl, conf);
-
+			base = ExtensionBase.get(comp, basePolicy);
 		} catch (OWLOntologyCreationException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			throw new RuntimeException("Cannot create extension base: " + e.getMessage(), e);
 		}
-		
-		// copy the axioms from the existing ontology
-		manager.addAxioms(ontology, onto.getAxioms());
-		
-		// compile the extension into the new ontology
-		Compiler compiler = new Compiler(ontology);
+		OWLDataFactory factory = base.getManager().getOWLDataFactory();
+		String ns = comp.getOntology().getOntologyID().getOntologyIRI().toString();
+		OWLOntology ontology;
+		Compiler compiler;
 		TreeMap<String,Action> extMap = new TreeMap<String,Action>();
 		
-		// for each action, create a new equivalence class to index that action
-		for (Action a : actions) {
+		synchronized (base.getLock()) {
 			try {
-				OWLClassExpression expr = compiler.compile(a);
-				OWLClassExpression id = factory.getOWLClass(IRI.create(ns + "#x" + counter));
-				OWLAxiom axiom1 = factory.getOWLEquivalentClassesAxiom(id, expr);
-				manager.addAxiom(ontology, axiom1);
-				extMap.put("x" + counter, a);
-				counter++;
-				
-			} catch (ParseException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+				ontology = base.createBlock();
+			} catch (OWLOntologyCreationException e) {
+				throw new RuntimeException("Cannot create extension block: " + e.getMessage(), e);
+			}
+			OWLOntologyManager manager = ontology.getOWLOntologyManager();
+			
+			// compile the extension into the new block, which imports the compiled ontology
+			compiler = new Compiler(ontology);
+			
+			// for each action, create a new equivalence class to index that action
+			for (Action a : actions) {
+				try {
+					OWLClassExpression expr = compiler.compile(a);
+					OWLClassExpression id = factory.getOWLClass(IRI.create(ns + "#x" + counter));
+					OWLAxiom axiom1 = factory.getOWLEquivalentClassesAxiom(id, expr);
+					manager.addAxiom(ontology, axiom1);
+					extMap.put("x" + counter, a);
+					counter++;
+					
+				} catch (ParseException e) {
+					// TODO Auto-generated catch block
+					e.printStackTrace();
+				}
 			}
 		}
 		
 		comp.getProperties().setProperty(CompilationProperties.EXT_COMPUTED, "true");
 		comp.getProperties().setProperty(CompilationProperties.EXT_SIZE, counter + "");
 		
-		return new Extension(compiler, comp.getPolicy(), ontology, extMap);
+		return new Extension(compiler, comp.getPolicy(), ontology, extMap, base.synchronize(provider), base);
 	}
 	public static TreeMap<Rule,TreeSet<String>> findExtension(Compilation comp, List<Rule> rules) {
 		TreeMap<Rule,TreeSet<String>> map = new TreeMap<Rule,TreeSet<String>>();
@@ -210,13 +206,21 @@ public class ExtensionCalculator implements CompilerConstants, CompilationProper
 		return map;
 	}
 	public static void setOntologyBasePolicy(String pathname) {
-		basePolicy = new File(pathname);
+		// a null path restores the shared, bundled upper ontology
+		if (pathname == null) {
+			basePolicy = null;
+		}
+		else {
+			basePolicy = new File(pathname);
+		}
 	}
 	private OWLOntology ontology;
 	private OWLOntologyManager manager;
 	private OWLDataFactory factory;
 	private OWLReasoner reasoner;
+	private TaxonomySnapshot taxonomy;
 	private Compiler compiler;
+	private ReasonerProvider provider = null;
 	private RoleValueCastor castActor, castDatum, castPurpose;
 	
 	private TreeMap<Role.Type,RoleValueCastor> roleRangeMap = new TreeMap<Role.Type,RoleValueCastor>();
@@ -231,11 +235,19 @@ public class ExtensionCalculator implements CompilerConstants, CompilationProper
 	
 	private boolean computeOnlyProhibitions = true;
 	
+	private boolean collapseConcepts = false;
+	
+	private ConceptPartition partition = null;
+	
 	public ExtensionCalculator() {
 		return;
 	}
 
 	public ArrayList<Action> compute(Compilation comp) throws ParseException {
+		return compute(comp, computeRange(comp));
+	}
+	
+	private ArrayList<Action> computeRange(Compilation comp) {
 		// create the extension from every combination of action and role value
 		ArrayList<Action> actions = new ArrayList<Action>();
 
@@ -272,22 +284,108 @@ public class ExtensionCalculator implements CompilerConstants, CompilationProper
 			}
 			actions.addAll(actionMap.values());
 		}
-		return compute(comp, actions);
+		return actions;
 	}
 	
 	public ArrayList<Action> compute(Compilation comp, ArrayList<Action> range) throws ParseException {
+		setup(comp);
+		
+		logger.log(Logger.DEBUG, "Computing extension for " + range.size() + " action(s)");
+		List<ArrayList<RoleValueSet>[]> values = computeRoleValues(range);
+		
+		// enumerate the product of role values, filtering actions to remove duplicates
+		TreeMap<String,Action> map = new TreeMap<String,Action>();
+		for (int i = 0; i < range.size(); i++) {
+			Action action = range.get(i);
+			ActionProduct product = new ActionProduct(action.name, action.roles(), values.get(i));
+			while (product.hasNext()) {
+				Action a = product.next();
+				map.put(a.toString(), a);
+			}
+		}
+		ArrayList<Action> actions = new ArrayList<Action>(map.values());
+		
+		// save statistics for reporting purposes
+		comp.getProperties().setProperty(CompilationProperties.EXT_COMPUTED, "true");
+		comp.getProperties().setProperty(CompilationProperties.EXT_SIZE, "" + actions.size());
+		return actions;
+
+	}
+	
+	/**
+	 * Returns an iterator over the extension of the compilation, which yields each action
+	 * as it is enumerated from the product of role values, without materializing the
+	 * complete extension. Unlike {@link #compute(Compilation)}, the actions are not sorted;
+	 * duplicate actions are still removed. The role value ranges are computed before this
+	 * method returns, so the iterator does not query the reasoner.
+	 * 
+	 * @param comp the compilation
+	 * @return the iterator over the extension
+	 * @throws ParseException if a role value cannot be compiled
+	 */
+	public Iterator<Action> iterate(Compilation comp) throws ParseException {
+		return iterate(comp, computeRange(comp));
+	}
+	
+	public Iterator<Action> iterate(Compilation comp, ArrayList<Action> range) throws ParseException {
+		setup(comp);
+		
+		logger.log(Logger.DEBUG, "Enumerating extension for " + range.size() + " action(s)");
+		List<ArrayList<RoleValueSet>[]> values = computeRoleValues(range);
+		comp.getProperties().setProperty(CompilationProperties.EXT_COMPUTED, "true");
+		return new ExtensionIterator(range, values);
+	}
+	
+	/**
+	 * Separates a stream of actions into consecutive blocks of the given size, where only
+	 * the last block may be smaller. Each block is read from the stream when it is requested.
+	 * 
+	 * @param actions the stream of actions
+	 * @param size the block size
+	 * @return the iterator over the blocks
+	 */
+	public static Iterator<List<Action>> partition(final Iterator<Action> actions, final int size) {
+		return new Iterator<List<Action>>() {
+			public boolean hasNext() {
+				return actions.hasNext();
+			}
+			public List<Action> next() {
+				if (!actions.hasNext()) {
+					throw new NoSuchElementException();
+				}
+				List<Action> block = new ArrayList<Action>(size);
+				while (block.size() < size && actions.hasNext()) {
+					block.add(actions.next());
+				}
+				return block;
+			}
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+	
+	private void setup(Compilation comp) throws ParseException {
 		this.ontology = comp.getOntology();
 		this.manager = ontology.getOWLOntologyManager();
 		this.factory = manager.getOWLDataFactory();
-		this.reasoner = comp.getReasoner();
+		this.reasoner = comp.getReasoner(provider);
+		this.taxonomy = comp.getTaxonomySnapshot(provider);
 		this.compiler = comp.getCompiler();
 		
 		// setup the default classes and role value castors
 		setupClassesAndCastors();
 		
-		ArrayList<Action> actions = new ArrayList<Action>();
-		
-		logger.log(Logger.DEBUG, "Computing extension for " + range.size() + " action(s)");
+		// group the interchangeable leaf concepts, which are expanded once per group
+		this.partition = null;
+		if (collapseConcepts) {
+			this.partition = ConceptPartition.create(comp, provider);
+			logger.log(Logger.DEBUG, "Collapsed " + partition.getCollapsedCount() + " concept(s) into " + partition.getGroupCount() + " group(s)");
+		}
+	}
+	
+	private List<ArrayList<RoleValueSet>[]> computeRoleValues(ArrayList<Action> range) throws ParseException {
+		List<ArrayList<RoleValueSet>[]> list = new ArrayList<ArrayList<RoleValueSet>[]>();
 		for (Action action : range) {
 			// create an action from this rule
 			Role[] role = action.roles();
@@ -302,53 +400,21 @@ public class ExtensionCalculator implements CompilerConstants, CompilationProper
 				else {
 					computeRoleValueRange(values[j], roleRangeMap.get(role[j].type), role[j].values);
 				}
-			}
-			
-			// compute the actions from the product of role values
-			actions.addAll(compute(action.name, role, values));
-		}
-		
-		// filter actions to remove duplicates
-		TreeMap<String,Action> map = new TreeMap<String,Action>();
-		for (Action a : actions) {
-			map.put(a.toString(), a);
-		}
-		actions.clear();
-		actions.addAll(map.values());
-		
-		// save statistics for reporting purposes
-		comp.getProperties().setProperty(CompilationProperties.EXT_COMPUTED, "true");
-		comp.getProperties().setProperty(CompilationProperties.EXT_SIZE, "" + actions.size());
-		return actions;
-
-	}
-	
-	private List<Action> compute(String name, Role[] role, ArrayList<RoleValueSet>[] sets) {
-		List<Action> actions = new ArrayList<Action>();
-		
-		// for the first role, create the initial set of actions
-		for (int i = 0; i < sets[0].size(); i++) {
-			Action a = new Action(name);
-			Role r = new Role(role[0].type, role[0].prefix, sets[0].get(i));
-			a.add(r);
-			actions.add(a);
-		}
-		// for each subsequent role, create the remaining actions using the role product
-		for (int i = 1; i < sets.length; i++) {
-			int mark = actions.size();
-			
-			for (int j = 0; j < mark; j++) {
 				
-				for (int k = 0; k < sets[i].size(); k++) {
-					Action a = actions.get(j).clone();
-					Role r = new Role(role[i].type, role[i].prefix, sets[i].get(k));
-					a.add(r);
-					actions.add(a);
+				// a subclass reached through several superclasses is ranged more than once
+				LinkedHashMap<String,RoleValueSet> unique = new LinkedHashMap<String,RoleValueSet>();
+				for (RoleValueSet set : values[j]) {
+					String s = set.toString();
+					if (!unique.containsKey(s)) {
+						unique.put(s, set);
+					}
 				}
+				values[j].clear();
+				values[j].addAll(unique.values());
 			}
-			actions = actions.subList(mark, actions.size());
+			list.add(values);
 		}
-		return actions;
+		return list;
 	}
 	
 	private void computeRoleValueRange(ArrayList<RoleValueSet> ranges, RoleValueCastor castor, RoleValueSet vset) throws ParseException {
@@ -361,8 +427,7 @@ public class ExtensionCalculator implements CompilerConstants, CompilationProper
 		 */
 		
 		OWLClassExpression c = compiler.compile(vset.first());
-		Set<OWLClass> except = reasoner.getSubClasses(c, true).getFlattened();
-		except.remove(factory.getOWLNothing());
+		Set<OWLClass> except = getDirectSubClasses(c);
 		
 		if (except.size() == 0) {
 			ranges.add(vset);
@@ -375,8 +440,10 @@ public class ExtensionCalculator implements CompilerConstants, CompilationProper
 		RoleValue value = castor.cast(d);
 		RoleValueSet set = new RoleValueSet.Singleton(value);
 		
-		// recurse on the first subclass
-		computeRoleValueRange(ranges, castor, set);
+		// recurse on the first subclass, unless another concept represents it
+		if (isExpanded(d)) {
+			computeRoleValueRange(ranges, castor, set);
+		}
 		
 		// for all additional subclasses, build a union
 		for (OWLClass e : except) {
@@ -384,7 +451,9 @@ public class ExtensionCalculator implements CompilerConstants, CompilationProper
 			set = new RoleValueSet.Union(value, set);
 			
 			// recurse on each additional subclasses
-			computeRoleValueRange(ranges, castor, new RoleValueSet.Singleton(value));
+			if (isExpanded(e)) {
+				computeRoleValueRange(ranges, castor, new RoleValueSet.Singleton(value));
+			}
 		}
 
 		set = new RoleValueSet.Complement(vset, set);
@@ -394,8 +463,7 @@ public class ExtensionCalculator implements CompilerConstants, CompilationProper
 	private void computeRoleValueRangeExceptionless(ArrayList<RoleValueSet> ranges, RoleValueCastor castor, RoleValueSet vset) throws ParseException {
 		// compute the range as c \ union of subclasses and recurse for each subclass
 		OWLClassExpression c = compiler.compile(vset.first());
-		Set<OWLClass> subs = reasoner.getSubClasses(c, true).getFlattened();
-		subs.remove(factory.getOWLNothing());
+		Set<OWLClass> subs = getDirectSubClasses(c);
 		
 		// initialize the ranges with the high-level role value
 		ranges.add(new RoleValueSet.Singleton(vset.first()));
@@ -403,18 +471,77 @@ public class ExtensionCalculator implements CompilerConstants, CompilationProper
 		// process all subclasses as singletons
 		
 		for (OWLClass d : subs) {
+			if (!isExpanded(d)) {
+				continue;
+			}
 			RoleValue value = castor.cast(d);
 			RoleValueSet set = new RoleValueSet.Singleton(value);
 			ranges.add(set);
 		}
 	}
 	
+	private boolean isExpanded(OWLClass c) {
+		return partition == null || partition.isRepresentative(c);
+	}
+	
+	private Set<OWLClass> getDirectSubClasses(OWLClassExpression c) {
+		// named classes are answered from the hierarchy snapshot
+		if (!c.isAnonymous() && taxonomy.contains(c.asOWLClass())) {
+			return taxonomy.getSubClasses(c.asOWLClass(), true);
+		}
+		Set<OWLClass> subs = reasoner.getSubClasses(c, true).getFlattened();
+		subs.remove(factory.getOWLNothing());
+		return subs;
+	}
+	
 	public Extension extend(Compilation comp) throws ParseException {
 		ArrayList<Action> actions = compute(comp);
-		Extension ext = extend(comp, actions, 0);
+		Extension ext = extend(comp, actions, 0, provider != null ? provider : comp.getReasonerProvider());
 		return ext;
 	}
 	
+	/**
+	 * Sets the provider of the reasoner used to compute and classify the extension. If
+	 * null, the compilation's default reasoner is used.
+	 * 
+	 * @param provider the reasoner provider
+	 */
+	public void setReasonerProvider(ReasonerProvider provider) {
+		this.provider = provider;
+	}
+	
+	/**
+	 * Sets whether the extension is computed from the generic COLLECT, USE and TRANSFER
+	 * actions over all concepts, rather than from the actions of the policy rules.
+	 * 
+	 * @param complete true, if the complete extension is computed
+	 */
+	public void setComputeCompleteExtension(boolean complete) {
+		this.computeCompleteExtension = complete;
+	}
+	
+	/**
+	 * Sets whether interchangeable leaf concepts are collapsed, so that the extension
+	 * contains one representative of each group of concepts (see {@link ConceptPartition}).
+	 * The represented actions are recovered from the partition returned by
+	 * {@link #getConceptPartition()}. By default, concepts are not collapsed.
+	 * 
+	 * @param collapse true, if interchangeable concepts are collapsed
+	 */
+	public void setCollapseConcepts(boolean collapse) {
+		this.collapseConcepts = collapse;
+	}
+	
+	/**
+	 * Returns the partition of the concepts used to compute the last extension, or null,
+	 * if concepts were not collapsed.
+	 * 
+	 * @return the concept partition
+	 */
+	public ConceptPartition getConceptPartition() {
+		return partition;
+	}
+	
 	public Logger getLogger() {
 		return logger;
 	}
@@ -460,4 +587,93 @@ public class ExtensionCalculator implements CompilerConstants, CompilationProper
 		roleRangeMap.put(Role.Type.TARGET, castActor);
 		roleRangeMap.put(Role.Type.PURPOSE, castPurpose);
 	}
+	
+	/**
+	 * Enumerates the product of role values of each range action in turn. An action is
+	 * skipped, if an earlier range action with the same name yields the same role values,
+	 * which is decided from the role strings of the earlier products, without retaining the
+	 * actions already returned.
+	 */
+	private static class ExtensionIterator implements Iterator<Action> {
+		private final ArrayList<Action> range;
+		private final List<ArrayList<RoleValueSet>[]> values;
+		private final List<HashSet<String>[]> seen = new ArrayList<HashSet<String>[]>();
+		private int current = -1;
+		private ActionProduct product = null;
+		private Action next = null;
+		
+		private ExtensionIterator(ArrayList<Action> range, List<ArrayList<RoleValueSet>[]> values) {
+			this.range = range;
+			this.values = values;
+			
+			// index the role strings of each range action's product
+			for (int i = 0; i < range.size(); i++) {
+				Role[] role = range.get(i).roles();
+				ArrayList<RoleValueSet>[] sets = values.get(i);
+				@SuppressWarnings("unchecked")
+				HashSet<String>[] strings = new HashSet[role.length];
+				for (int j = 0; j < role.length; j++) {
+					strings[j] = new HashSet<String>();
+					for (RoleValueSet set : sets[j]) {
+						strings[j].add(new Role(role[j].type, role[j].prefix, set).toString());
+					}
+				}
+				seen.add(strings);
+			}
+			advance();
+		}
+		
+		private void advance() {
+			next = null;
+			while (next == null) {
+				while (product == null || !product.hasNext()) {
+					current++;
+					if (current >= range.size()) {
+						return;
+					}
+					Action action = range.get(current);
+					product = new ActionProduct(action.name, action.roles(), values.get(current));
+				}
+				Action a = product.next();
+				if (!isEnumerated(a)) {
+					next = a;
+				}
+			}
+		}
+		
+		private boolean isEnumerated(Action a) {
+			Role[] role = a.roles();
+			for (int i = 0; i < current; i++) {
+				HashSet<String>[] strings = seen.get(i);
+				if (!range.get(i).name.equals(a.name) || strings.length != role.length) {
+					continue;
+				}
+				boolean contains = true;
+				for (int j = 0; j < role.length && contains; j++) {
+					contains = strings[j].contains(role[j].toString());
+				}
+				if (contains) {
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		public boolean hasNext() {
+			return next != null;
+		}
+		
+		public Action next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			Action a = next;
+			advance();
+			return a;
+		}
+		
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
 }
@@ -0,0 +1,288 @@
+package eddy.lang.analysis;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+
+import eddy.lang.Action;
+import eddy.lang.Role;
+import eddy.lang.RoleValueSet;
+import eddy.lang.Rule;
+import eddy.lang.Rule.Modality;
+import eddy.lang.parser.Compilation;
+import eddy.lang.parser.Compiler;
+import eddy.lang.parser.ParseException;
+import eddy.lang.reasoner.ReasonerProvider;
+import eddy.lang.reasoner.TaxonomySnapshot;
+
+/**
+ * Removes the {@link Action}s of an extension that cannot be interpreted as a
+ * {@link Conflict}. An extension action is classified under Conflict only if it is subsumed
+ * by two rules whose {@link Modality}s conflict, and it can only be subsumed by a rule, if
+ * the action name and each role value overlaps the corresponding name and role value of
+ * that rule in the class hierarchy of the compilation. Actions that overlap no pair of
+ * conflicting rules are pruned before the extension is classified.
+ *
+ * The overlap test is conservative: role value exceptions are ignored, and classes that
+ * are not named in the hierarchy overlap every class, so that no conflicting action is
+ * pruned. The rules overlapped by each distinct role value are computed once and cached.
+ */
+
+public class ExtensionPruner {
+	private final TaxonomySnapshot taxonomy;
+	private final Compiler compiler;
+	private final OWLDataFactory factory;
+	private final String ns;
+	private final Rule[] rules;
+	private final ArrayList<Set<OWLClass>> ruleActions = new ArrayList<Set<OWLClass>>();
+	private final ArrayList<HashMap<Role.Type,Set<OWLClass>>> ruleRoles = new ArrayList<HashMap<Role.Type,Set<OWLClass>>>();
+	private final HashMap<String,BitSet> actionRules = new HashMap<String,BitSet>();
+	private final HashMap<String,BitSet> roleRules = new HashMap<String,BitSet>();
+	private long kept = 0, pruned = 0;
+
+	public ExtensionPruner(Compilation comp) throws ParseException {
+		this(comp, null);
+	}
+
+	/**
+	 * Creates a pruner for the extension of the given compilation.
+	 *
+	 * @param comp the compilation
+	 * @param provider the provider of the reasoner that classifies the compilation, or
+	 * null, if the compilation's default reasoner is used
+	 * @throws ParseException if a rule role value cannot be compiled
+	 */
+	public ExtensionPruner(Compilation comp, ReasonerProvider provider) throws ParseException {
+		this.taxonomy = comp.getTaxonomySnapshot(provider);
+		this.compiler = comp.getCompiler();
+		this.factory = comp.getOntology().getOWLOntologyManager().getOWLDataFactory();
+		this.ns = comp.getOntology().getOntologyID().getOntologyIRI().toString();
+		this.rules = comp.getPolicy().rules();
+
+		// index the named classes bounding the action and role values of each rule
+		for (Rule rule : rules) {
+			Set<OWLClass> action = new HashSet<OWLClass>();
+			action.add(factory.getOWLClass(IRI.create(ns + "#" + rule.action.name)));
+			ruleActions.add(action);
+
+			HashMap<Role.Type,Set<OWLClass>> roles = new HashMap<Role.Type,Set<OWLClass>>();
+			for (Role role : rule.action.roles()) {
+				roles.put(role.type, getBounds(role.values));
+			}
+			ruleRoles.add(roles);
+		}
+	}
+
+	/**
+	 * Returns true, if the action may be subsumed by two rules with conflicting modalities.
+	 *
+	 * @param action the extension action
+	 * @return true, if the action may be interpreted as a conflict
+	 * @throws ParseException if a role value cannot be compiled
+	 */
+	public boolean isRelevant(Action action) throws ParseException {
+		BitSet candidates = (BitSet) getActionRules(action.name).clone();
+		for (Role role : action.roles()) {
+			if (candidates.isEmpty()) {
+				break;
+			}
+			candidates.and(getRoleRules(role));
+		}
+
+		// look for a pair of candidate rules whose modalities conflict
+		ArrayList<Modality> modalities = new ArrayList<Modality>();
+		for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+			Modality m = rules[i].modality;
+			for (Modality n : modalities) {
+				if (m.conflictsWith(n) || n.conflictsWith(m)) {
+					return true;
+				}
+			}
+			if (!modalities.contains(m)) {
+				modalities.add(m);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns true, if the two actions may share an interpretation: their names overlap, and
+	 * the values of each role type that both actions restrict overlap. The test is as
+	 * conservative as {@link #isRelevant(Action)}.
+	 *
+	 * @param a the first action
+	 * @param b the second action
+	 * @return true, if the actions may overlap
+	 * @throws ParseException if a role value cannot be compiled
+	 */
+	public boolean overlaps(Action a, Action b) throws ParseException {
+		OWLClass c = factory.getOWLClass(IRI.create(ns + "#" + a.name));
+		OWLClass d = factory.getOWLClass(IRI.create(ns + "#" + b.name));
+		if (!overlaps(c, d)) {
+			return false;
+		}
+		for (Role role : a.roles()) {
+			Role other = b.getRole(role.type);
+			if (other != null && !overlaps(getBounds(role.values), getBounds(other.values))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the relevant actions of the given list, in order.
+	 *
+	 * @param actions the extension actions
+	 * @return the relevant actions
+	 */
+	public List<Action> prune(List<Action> actions) {
+		ArrayList<Action> list = new ArrayList<Action>();
+		Iterator<Action> i = prune(actions.iterator());
+		while (i.hasNext()) {
+			list.add(i.next());
+		}
+		return list;
+	}
+
+	/**
+	 * Returns an iterator over the relevant actions of the given stream. Actions are tested
+	 * as the stream is read. An action whose role value cannot be compiled is kept.
+	 *
+	 * @param actions the stream of extension actions
+	 * @return the stream of relevant actions
+	 */
+	public Iterator<Action> prune(final Iterator<Action> actions) {
+		return new Iterator<Action>() {
+			private Action next = advance();
+
+			private Action advance() {
+				while (actions.hasNext()) {
+					Action a = actions.next();
+					boolean relevant = true;
+					try {
+						relevant = isRelevant(a);
+					}
+					catch (ParseException e) {
+						e.printStackTrace();
+					}
+					if (relevant) {
+						kept++;
+						return a;
+					}
+					pruned++;
+				}
+				return null;
+			}
+			public boolean hasNext() {
+				return next != null;
+			}
+			public Action next() {
+				if (next == null) {
+					throw new NoSuchElementException();
+				}
+				Action a = next;
+				next = advance();
+				return a;
+			}
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Returns the number of actions kept by this pruner.
+	 *
+	 * @return the number of relevant actions
+	 */
+	public long getKept() {
+		return kept;
+	}
+
+	/**
+	 * Returns the number of actions removed by this pruner.
+	 *
+	 * @return the number of pruned actions
+	 */
+	public long getPruned() {
+		return pruned;
+	}
+
+	private BitSet getActionRules(String name) {
+		BitSet bits = actionRules.get(name);
+		if (bits == null) {
+			Set<OWLClass> bounds = new HashSet<OWLClass>();
+			bounds.add(factory.getOWLClass(IRI.create(ns + "#" + name)));
+
+			bits = new BitSet(rules.length);
+			for (int i = 0; i < rules.length; i++) {
+				if (overlaps(bounds, ruleActions.get(i))) {
+					bits.set(i);
+				}
+			}
+			actionRules.put(name, bits);
+		}
+		return bits;
+	}
+
+	private BitSet getRoleRules(Role role) throws ParseException {
+		String key = role.type + " " + role.values;
+		BitSet bits = roleRules.get(key);
+		if (bits == null) {
+			Set<OWLClass> bounds = getBounds(role.values);
+
+			// rules without a role of this type do not restrict the role value
+			bits = new BitSet(rules.length);
+			for (int i = 0; i < rules.length; i++) {
+				Set<OWLClass> other = ruleRoles.get(i).get(role.type);
+				if (other == null || overlaps(bounds, other)) {
+					bits.set(i);
+				}
+			}
+			roleRules.put(key, bits);
+		}
+		return bits;
+	}
+
+	private Set<OWLClass> getBounds(RoleValueSet values) throws ParseException {
+		return RuleIndex.getBounds(compiler, values);
+	}
+
+	private boolean overlaps(Set<OWLClass> a, Set<OWLClass> b) {
+		if (a == null || b == null) {
+			return true;
+		}
+		for (OWLClass c : a) {
+			for (OWLClass d : b) {
+				if (overlaps(c, d)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private boolean overlaps(OWLClass c, OWLClass d) {
+		if (c.equals(d)) {
+			return true;
+		}
+		if (!taxonomy.contains(c) || !taxonomy.contains(d)) {
+			// unsatisfiable classes are not in the hierarchy and overlap nothing
+			return !taxonomy.isUnsatisfiable(c) && !taxonomy.isUnsatisfiable(d);
+		}
+		if (taxonomy.isSubClassOf(c, d) || taxonomy.isSubClassOf(d, c)) {
+			return true;
+		}
+		return !taxonomy.getCommonSubClasses(c, d, true).isEmpty();
+	}
+}
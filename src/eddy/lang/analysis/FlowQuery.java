@@ -0,0 +1,170 @@
+package eddy.lang.analysis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClass;
+
+import eddy.lang.Datum;
+import eddy.lang.Rule;
+import eddy.lang.analysis.Tracer.Flow;
+import eddy.lang.parser.Compilation;
+import eddy.lang.parser.ParseException;
+
+/**
+ * Answers repeated datum-scoped flow queries against one {@link Compilation}. For each
+ * {@link Datum}, the source and target rules of a {@link FlowTracer} whose objects may be
+ * that datum are computed once, as the datum's slice of the policy, and each query traces
+ * flows over the slice only. The slices can be computed ahead of time for every datum class
+ * in the classified hierarchy with {@link #precompute()}, and the flows of each datum are
+ * cached, so that a repeated query is answered without tracing again.
+ *
+ * The query owns its tracer, which should not be used for other traces. The query observes
+ * the compilation (see {@link Compilation#addChangeListener(Compilation.ChangeListener)}),
+ * and discards its cached results on the next query after the compilation changes, until
+ * the query is disposed. Queries are synchronized, because the compiler of the tracer is
+ * not thread-safe.
+ */
+
+public class FlowQuery {
+	private final FlowTracer tracer;
+	private final Compilation comp;
+	private final HashMap<String,Slice> slices = new HashMap<String,Slice>();
+	private final HashMap<String,List<Flow>> flows = new HashMap<String,List<Flow>>();
+	private volatile boolean stale = false;
+	private final Compilation.ChangeListener listener = new Compilation.ChangeListener() {
+		public void compilationChanged(Compilation comp, Set<OWLAxiom> added, Set<OWLAxiom> removed, Set<OWLClass> affected) {
+			// the caches are cleared by the next query, which does not hold the compilation's lock
+			stale = true;
+		}
+	};
+
+	/**
+	 * Creates a query over the source and target actions of the given tracer.
+	 *
+	 * @param tracer the configured tracer
+	 * @param comp the compilation
+	 */
+	public FlowQuery(FlowTracer tracer, Compilation comp) {
+		this.tracer = tracer;
+		this.comp = comp;
+		clear();
+		comp.addChangeListener(listener);
+	}
+
+	/**
+	 * Discards the cached slices and flows, and reads the compilation again. This is done
+	 * automatically after the compilation changes.
+	 */
+	public synchronized void clear() {
+		stale = false;
+		slices.clear();
+		flows.clear();
+		tracer.setCompilation(comp);
+		tracer.selectRules(comp.getPolicy());
+	}
+
+	/**
+	 * Computes the slice of each datum class in the classified hierarchy, including the
+	 * generic datum class.
+	 *
+	 * @return the number of slices
+	 * @throws ParseException if a role value cannot be compiled
+	 */
+	public synchronized int precompute() throws ParseException {
+		validate();
+		getSlice(Datum.ANYTHING);
+		OWLClass top = tracer.compiler.compile(Datum.ANYTHING).asOWLClass();
+		Set<OWLClass> classes = tracer.taxonomy.getSubClasses(top, false);
+		if (classes != null) {
+			for (OWLClass c : classes) {
+				getSlice(new Datum(c.getIRI().getFragment()));
+			}
+		}
+		return slices.size();
+	}
+
+	/**
+	 * Returns the source rules whose object may be the given datum, in policy order.
+	 *
+	 * @param datum the datum
+	 * @return the source rules of the datum's slice
+	 * @throws ParseException if a role value cannot be compiled
+	 */
+	public synchronized List<Rule> getSourceRules(Datum datum) throws ParseException {
+		validate();
+		return Collections.unmodifiableList(getSlice(datum).sources);
+	}
+
+	/**
+	 * Returns the target rules whose object may be the given datum, in policy order.
+	 *
+	 * @param datum the datum
+	 * @return the target rules of the datum's slice
+	 * @throws ParseException if a role value cannot be compiled
+	 */
+	public synchronized List<Rule> getTargetRules(Datum datum) throws ParseException {
+		validate();
+		return Collections.unmodifiableList(getSlice(datum).targets);
+	}
+
+	/**
+	 * Returns the flows of the given datum, which are the flows that
+	 * {@link FlowTracer#trace(Compilation, Datum)} returns. The flows are traced over the
+	 * datum's slice on the first query, and cached.
+	 *
+	 * @param datum the datum
+	 * @return the flows of the datum
+	 * @throws ParseException if a role value cannot be compiled
+	 */
+	public synchronized List<Flow> trace(Datum datum) throws ParseException {
+		validate();
+		List<Flow> list = flows.get(datum.name);
+		if (list == null) {
+			Slice slice = getSlice(datum);
+			list = Collections.unmodifiableList(tracer.traceSlice(comp, slice.sources, slice.targets));
+			flows.put(datum.name, list);
+		}
+		return list;
+	}
+
+	/**
+	 * Stops observing the compilation and discards the cached results.
+	 */
+	public synchronized void dispose() {
+		comp.removeChangeListener(listener);
+		slices.clear();
+		flows.clear();
+	}
+
+	private void validate() {
+		if (stale) {
+			clear();
+		}
+	}
+
+	private Slice getSlice(Datum datum) throws ParseException {
+		Slice slice = slices.get(datum.name);
+		if (slice == null) {
+			slice = new Slice(tracer.filter(tracer.getSourceRules(), datum), tracer.filter(tracer.getTargetRules(), datum));
+			slices.put(datum.name, slice);
+		}
+		return slice;
+	}
+
+	/**
+	 * The source and target rules whose objects may be one datum.
+	 */
+	private static class Slice {
+		private final ArrayList<Rule> sources, targets;
+
+		private Slice(ArrayList<Rule> sources, ArrayList<Rule> targets) {
+			this.sources = sources;
+			this.targets = targets;
+		}
+	}
+}
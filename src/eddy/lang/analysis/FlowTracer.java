@@ -1,10 +1,18 @@
 package eddy.lang.analysis;
 
 import java.util.ArrayList;	
+import java.util.HashMap;
+import java.util.List;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.reasoner.OWLReasoner;
 
 import eddy.lang.Datum;
 import eddy.lang.Policy;
@@ -15,6 +23,7 @@ import eddy.lang.parser.Compilation;
 import eddy.lang.parser.CompilationProperties;
 import eddy.lang.parser.CompilerConstants;
 import eddy.lang.parser.ParseException;
+import eddy.lang.reasoner.ReasonerProvider;
 
 /**
  * Traces data flows in a {@link Policy} from source to target {@link eddy.lang.Action}.
@@ -27,6 +36,15 @@ import eddy.lang.parser.ParseException;
  * collection rules are source rules and the transfer rules are target rules. Other 
  * types of actions can be included in a flow analysis, e.g., tracing from collection to use.
  * 
+ * The target rules are indexed by the concepts of their traced roles (see {@link RuleIndex}),
+ * so that each source rule is only traced to the target rules whose role values can overlap
+ * its own in the classified hierarchy. If a datum is given, each rule is tested against
+ * the datum once; repeated datum queries are better answered by a {@link FlowQuery}.
+ * 
+ * If more than one thread is set, the source rules are traced in parallel, where each
+ * worker uses its own replica of the tracer, and the flows are returned in the same order
+ * as in a sequential trace.
+ * 
  * @author Travis Breaux
  *
  */
@@ -37,6 +55,8 @@ public class FlowTracer extends Tracer implements CompilerConstants, Compilation
 	private final ArrayList<Rule> sourceRules = new ArrayList<Rule>();
 	private final ArrayList<Rule> targetRules = new ArrayList<Rule>();
 	protected boolean strictPurposing = false;
+	private int threadCount = 1;
+	private ExecutorService executor = null;
 	
 	public FlowTracer() {
 		return;
@@ -63,14 +83,25 @@ public class FlowTracer extends Tracer implements CompilerConstants, Compilation
 	}
 	
 	public ArrayList<Flow> trace(Compilation comp, Datum datum) throws ParseException {
-		ArrayList<Flow> flows = new ArrayList<Flow>();
 		setCompilation(comp);
+		selectRules(comp.getPolicy());
 		
+		// apply the datum constraint, if any, once to each rule
+		List<Rule> sources = sourceRules;
+		List<Rule> targets = targetRules;
+		if (datum != null) {
+			sources = filter(sourceRules, datum);
+			targets = filter(targetRules, datum);
+		}
+		return traceSlice(comp, sources, targets);
+	}
+	
+	/**
+	 * Filters the policy rules to the source and target rules of this tracer.
+	 */
+	void selectRules(Policy policy) {
 		sourceRules.clear();
 		targetRules.clear();
-		
-		// filter the policy rules to those of interest
-		Policy policy = comp.getPolicy();
 		for (Rule rule : policy.rules()) {
 			if (source.contains(rule.action.name)) {
 				sourceRules.add(rule);
@@ -79,24 +110,51 @@ public class FlowTracer extends Tracer implements CompilerConstants, Compilation
 				targetRules.add(rule);
 			}
 		}
-		
-		for (Rule s : sourceRules) {
-			// apply datum constraint, if any
-			if (datum != null) {
-				Flow.Mode mode = getFlowRestriction(s, datum);
-				if (mode == null) {
-					continue;
-				}
+	}
+	
+	/**
+	 * Returns the rules whose object may be the given datum, in order.
+	 */
+	ArrayList<Rule> filter(List<Rule> rules, Datum datum) throws ParseException {
+		ArrayList<Rule> list = new ArrayList<Rule>();
+		for (Rule r : rules) {
+			if (getFlowRestriction(r, datum) != null) {
+				list.add(r);
 			}
-			for (Rule t : targetRules) {
-				// apply datum constraint, if any
-				if (datum != null) {
-					Flow.Mode mode = getFlowRestriction(t, datum);
-					if (mode == null) {
-						continue;
-					}
-				}
-				Flow flow = traceRules(s, t);
+		}
+		return list;
+	}
+	
+	/**
+	 * Traces the flows from the given source rules to the given target rules of the
+	 * compilation, which must already be set.
+	 */
+	ArrayList<Flow> traceSlice(Compilation comp, List<Rule> sourceSlice, List<Rule> targetSlice) throws ParseException {
+		ArrayList<Flow> flows = new ArrayList<Flow>();
+		
+		// index the target rules by the roles compared in each flow
+		Role.Type[] types;
+		if (strictPurposing) {
+			types = new Role.Type[] { Type.OBJECT, Type.SOURCE, Type.PURPOSE };
+		}
+		else {
+			types = new Role.Type[] { Type.OBJECT, Type.SOURCE };
+		}
+		RuleIndex index = new RuleIndex(comp, provider, targetSlice, types);
+		
+		// find the candidate target rules of each source rule
+		ArrayList<Rule> sources = new ArrayList<Rule>(sourceSlice);
+		ArrayList<List<Rule>> candidates = new ArrayList<List<Rule>>();
+		for (Rule s : sources) {
+			candidates.add(index.getCandidateRules(s.action));
+		}
+		
+		if (threadCount > 1 && sources.size() > 1) {
+			return trace(comp, sources, candidates);
+		}
+		for (int i = 0; i < sources.size(); i++) {
+			for (Rule t : candidates.get(i)) {
+				Flow flow = traceRules(sources.get(i), t);
 				if (flow != null) {
 					flows.add(flow);
 				}
@@ -106,37 +164,125 @@ public class FlowTracer extends Tracer implements CompilerConstants, Compilation
 		return flows;
 	}
 	
-	protected Flow traceRules(Rule source, Rule target) throws ParseException {
-		final TreeMap<Role.Type,Flow.Mode> modes = new TreeMap<Role.Type,Flow.Mode>();
-		final Role.Type[] type = new Role.Type[] { Type.OBJECT, Type.SOURCE, Type.PURPOSE };
+	/**
+	 * Traces the candidate pairs of each source rule on a pool of workers, where the source
+	 * rules are dealt to the workers in turn. Each worker traces with its own replica of
+	 * this tracer, which shares the immutable hierarchy snapshot and creates its own
+	 * reasoner only if an anonymous expression must be compared. The role values are
+	 * compiled beforehand on the calling thread, because the compiler is not thread-safe.
+	 * If a worker fails, the other workers are cancelled and the failure is rethrown.
+	 */
+	private ArrayList<Flow> trace(final Compilation comp, final ArrayList<Rule> sources, final ArrayList<List<Rule>> candidates) throws ParseException {
+		final HashMap<String,OWLClassExpression[]> roles = new HashMap<String,OWLClassExpression[]>();
+		for (int i = 0; i < sources.size(); i++) {
+			roles.put(sources.get(i).id, compileRoles(sources.get(i)));
+			for (Rule t : candidates.get(i)) {
+				if (!roles.containsKey(t.id)) {
+					roles.put(t.id, compileRoles(t));
+				}
+			}
+		}
 		
-		// setup the source role value descriptions
-		OWLClassExpression[][] pair;
-		if (strictPurposing) {
-			pair = new OWLClassExpression[3][2];
+		ExecutorService executor = this.executor;
+		if (executor == null) {
+			executor = new ForkJoinPool(threadCount);
 		}
-		else {
-			pair = new OWLClassExpression[2][2];
+		final int workers = Math.min(threadCount, sources.size());
+		@SuppressWarnings("unchecked")
+		final List<Flow>[] results = new List[sources.size()];
+		try {
+			ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int w = 0; w < workers; w++) {
+				final int first = w;
+				futures.add(executor.submit(new Runnable() {
+					public void run() {
+						Replica replica = new Replica(FlowTracer.this, comp);
+						try {
+							for (int i = first; i < sources.size(); i += workers) {
+								Rule s = sources.get(i);
+								ArrayList<Flow> list = new ArrayList<Flow>();
+								for (Rule t : candidates.get(i)) {
+									Flow flow = traceRoles(replica, s, roles.get(s.id), t, roles.get(t.id));
+									if (flow != null) {
+										list.add(flow);
+									}
+								}
+								results[i] = list;
+							}
+						}
+						finally {
+							replica.dispose();
+						}
+					}
+				}));
+			}
+			try {
+				for (Future<?> f : futures) {
+					f.get();
+				}
+			}
+			catch (ExecutionException e) {
+				// fail as a sequential trace would, rather than return a partial trace
+				Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				}
+				if (cause instanceof Error) {
+					throw (Error) cause;
+				}
+				throw new RuntimeException(cause);
+			}
+			finally {
+				for (Future<?> f : futures) {
+					f.cancel(true);
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ParseException("Interrupted while tracing flows");
+		}
+		finally {
+			if (executor != this.executor) {
+				executor.shutdownNow();
+			}
 		}
-
-		// setup the source role value descriptions
-		pair[0][0] = compiler.compile(source.action.getRole(Type.OBJECT).values);
-		pair[1][0] = compiler.compile(source.action.getRole(Type.SOURCE).values);
-		
-		// setup the target role value descriptions
-		pair[0][1] = compiler.compile(target.action.getRole(Type.OBJECT).values);
-		pair[1][1] = compiler.compile(target.action.getRole(Type.SOURCE).values);
 		
-
+		// merge the flows in the order of the source rules, as in a sequential trace
+		ArrayList<Flow> flows = new ArrayList<Flow>();
+		for (List<Flow> list : results) {
+			if (list != null) {
+				flows.addAll(list);
+			}
+		}
+		return flows;
+	}
+	
+	protected Flow traceRules(Rule source, Rule target) throws ParseException {
+		return traceRoles(this, source, compileRoles(source), target, compileRoles(target));
+	}
+	
+	/**
+	 * Returns the compiled OBJECT and SOURCE role values of the rule, followed by the
+	 * PURPOSE role value, if purposing is strict.
+	 */
+	private OWLClassExpression[] compileRoles(Rule rule) throws ParseException {
+		OWLClassExpression[] expr = new OWLClassExpression[strictPurposing ? 3 : 2];
+		expr[0] = compiler.compile(rule.action.getRole(Type.OBJECT).values);
+		expr[1] = compiler.compile(rule.action.getRole(Type.SOURCE).values);
 		if (strictPurposing) {
-			pair[2][0] = compiler.compile(source.action.getRole(Type.PURPOSE).values);
-			pair[2][1] = compiler.compile(target.action.getRole(Type.PURPOSE).values);
+			expr[2] = compiler.compile(rule.action.getRole(Type.PURPOSE).values);
 		}
+		return expr;
+	}
+	
+	private static Flow traceRoles(Tracer tracer, Rule source, OWLClassExpression[] sourceExpr, Rule target, OWLClassExpression[] targetExpr) {
+		final TreeMap<Role.Type,Flow.Mode> modes = new TreeMap<Role.Type,Flow.Mode>();
+		final Role.Type[] type = new Role.Type[] { Type.OBJECT, Type.SOURCE, Type.PURPOSE };
 
 		// clear the entailed flow modes: one for each role is a matching flow
-		modes.clear();
-		for (int i = 0; i < pair.length; i++) {
-			Flow.Mode mode = getFlowRestriction(pair[i][0], pair[i][1]);
+		for (int i = 0; i < sourceExpr.length; i++) {
+			Flow.Mode mode = tracer.getFlowRestriction(sourceExpr[i], targetExpr[i]);
 		
 			if (mode != null) {
 				modes.put(type[i], mode);
@@ -145,9 +291,69 @@ public class FlowTracer extends Tracer implements CompilerConstants, Compilation
 				break;
 			}
 		}
-		if (modes.size() == pair.length) {
+		if (modes.size() == sourceExpr.length) {
 			return new Flow(source, target, modes);
 		}	
 		return null;
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * Sets the number of workers that trace the source rules in parallel. By default, rules
+	 * are traced sequentially on the calling thread.
+	 * 
+	 * @param count the number of workers
+	 */
+	public void setThreadCount(int count) {
+		this.threadCount = count;
+	}
+	
+	/**
+	 * Sets the executor that runs the workers of a parallel trace. The executor is not shut
+	 * down by this tracer. If null, a work-stealing pool is created for each trace.
+	 * 
+	 * @param executor the executor
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+	
+	/**
+	 * Traces flows on one worker thread. The replica shares the hierarchy snapshot and the
+	 * closed-world algebra of its parent, which are immutable, and keeps its own flow mode
+	 * cache and reasoner.
+	 */
+	
+	private static class Replica extends Tracer {
+		private final Compilation comp;
+		
+		private Replica(Tracer parent, Compilation comp) {
+			this.factory = parent.factory;
+			this.taxonomy = parent.taxonomy;
+			this.algebra = parent.algebra;
+			this.provider = parent.provider;
+			this.comp = comp;
+		}
+		
+		protected OWLReasoner getReasoner() {
+			if (reasoner == null) {
+				ReasonerProvider p = provider != null ? provider : comp.getReasonerProvider();
+				OWLOntology ontology = comp.getOntology();
+				
+				// the imports closure is read through the manager, which is not thread-safe
+				synchronized (ontology.getOWLOntologyManager()) {
+					reasoner = p.createReasoner(ontology);
+				}
+			}
+			return reasoner;
+		}
+		
+		private void dispose() {
+			if (reasoner != null) {
+				// disposing removes the reasoner's listener from the shared manager
+				synchronized (comp.getOntology().getOWLOntologyManager()) {
+					reasoner.dispose();
+				}
+			}
+		}
+	}
+}
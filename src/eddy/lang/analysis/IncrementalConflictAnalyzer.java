@@ -0,0 +1,554 @@
+package eddy.lang.analysis;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClass;
+
+import eddy.lang.Action;
+import eddy.lang.Rule;
+import eddy.lang.Rule.Modality;
+import eddy.lang.parser.Compilation;
+import eddy.lang.parser.Logger;
+import eddy.lang.parser.ParseException;
+import eddy.lang.reasoner.ReasonerProvider;
+
+/**
+ * Maintains the {@link Conflict}s of a {@link Compilation} as rules are added to and
+ * removed from its policy. The first call to {@link #analyze()} classifies the complete
+ * extension, as the {@link ExtendedConflictAnalyzer} does, and retains each extension
+ * action that is subsumed by two conflicting rules, together with all of the rules that
+ * subsume it. Each rule is indexed to the actions it subsumes.
+ *
+ * Adding or removing a rule extends the compiled ontology conservatively, so that the
+ * classification of an extension action can only change, if the action overlaps the
+ * changed rule (see {@link ExtensionPruner#overlaps(Action, Action)}). An edit therefore
+ * recomputes only the extension of the prohibitions that overlap the changed rule,
+ * restricted to the actions that overlap it, and re-classifies those actions in one or
+ * more new blocks. The conflicts between rules that do not depend on the changed rule are
+ * retained as they are.
+ *
+ * If the compilation is changed other than through this analyzer, for example, by adding
+ * a type, the next edit re-analyzes the complete extension.
+ *
+ * Each block is a {@link Extension} of the compilation's shared {@link ExtensionBase},
+ * which the retained cells and conflicts refer to. The analyzer counts the references to
+ * each block, and releases a block once no retained cell or conflict refers to it, so
+ * that the conflicts returned before an edit or {@link #dispose()} may refer to released
+ * blocks (see {@link Extension#release()}).
+ */
+
+public class IncrementalConflictAnalyzer {
+	private Logger logger = new Logger(new PrintWriter(System.err), Logger.WARN, this.getClass().getName() + ": ");
+	private final Compilation comp;
+	private int blockSize = 1000;
+	private ReasonerProvider provider = null;
+	private final BlockDispatcher<Block> dispatcher = new BlockDispatcher<Block>();
+	private final TreeMap<String,Cell> cells = new TreeMap<String,Cell>();
+	private final HashMap<String,TreeSet<String>> cellsByRule = new HashMap<String,TreeSet<String>>();
+	private final IdentityHashMap<Extension,Integer> references = new IdentityHashMap<Extension,Integer>();
+	private TreeSet<Conflict> ruleConflicts = new TreeSet<Conflict>();
+	private TreeSet<Conflict> conflicts = null;
+	private int counter = 0;
+	private boolean editing = false;
+	private volatile boolean stale = true;
+	private final Compilation.ChangeListener listener = new Compilation.ChangeListener() {
+		public void compilationChanged(Compilation comp, Set<OWLAxiom> added, Set<OWLAxiom> removed, Set<OWLClass> affected) {
+			if (!editing) {
+				stale = true;
+			}
+		}
+	};
+
+	public IncrementalConflictAnalyzer(Compilation comp) {
+		this.comp = comp;
+		comp.addChangeListener(listener);
+	}
+
+	/**
+	 * Analyzes the complete extension of the compilation and retains the result for
+	 * subsequent edits.
+	 *
+	 * @return the conflicts of the compilation
+	 */
+	public synchronized ArrayList<Conflict> analyze() {
+		releaseAll();
+		cells.clear();
+		cellsByRule.clear();
+		counter = 0;
+		stale = false;
+
+		ArrayList<Action> range = getRange(null);
+		Iterator<Action> actions;
+		try {
+			ExtensionCalculator calculator = new ExtensionCalculator();
+			calculator.setReasonerProvider(provider);
+			ExtensionPruner pruner = new ExtensionPruner(comp, provider);
+			actions = pruner.prune(calculator.iterate(comp, range));
+		} catch (ParseException e) {
+			actions = new ArrayList<Action>().iterator();
+			e.printStackTrace();
+		}
+		int size = classify(actions);
+		logger.log(Logger.DEBUG, "Classified " + size + " actions for " + range.size() + " prohibitions");
+
+		this.conflicts = collect();
+		logger.log(Logger.DEBUG, "Detected " + conflicts.size() + " unique conflicts");
+		return new ArrayList<Conflict>(conflicts);
+	}
+
+	/**
+	 * Adds the rule to the compilation and re-analyzes the extension actions that overlap
+	 * the rule.
+	 *
+	 * @param rule the new rule
+	 * @return the conflicts added and removed by the new rule
+	 * @throws ParseException if the rule cannot be compiled
+	 */
+	public synchronized Delta addRule(Rule rule) throws ParseException {
+		editing = true;
+		try {
+			comp.addRule(rule);
+		}
+		finally {
+			editing = false;
+		}
+		return update(rule);
+	}
+
+	/**
+	 * Removes the rule from the compilation and re-analyzes the extension actions that
+	 * overlapped the rule.
+	 *
+	 * @param rule the rule to remove
+	 * @return the conflicts added and removed by removing the rule
+	 * @throws ParseException if the rule cannot be compiled
+	 */
+	public synchronized Delta removeRule(Rule rule) throws ParseException {
+		editing = true;
+		try {
+			comp.removeRule(rule);
+		}
+		finally {
+			editing = false;
+		}
+		return update(rule);
+	}
+
+	/**
+	 * Returns the current conflicts of the compilation, analyzing the compilation if it
+	 * has not yet been analyzed.
+	 *
+	 * @return the conflicts
+	 */
+	public synchronized ArrayList<Conflict> getConflicts() {
+		if (conflicts == null) {
+			return analyze();
+		}
+		return new ArrayList<Conflict>(conflicts);
+	}
+
+	/**
+	 * Stops observing the compilation and discards the retained result.
+	 */
+	public synchronized void dispose() {
+		comp.removeChangeListener(listener);
+		releaseAll();
+		cells.clear();
+		cellsByRule.clear();
+		conflicts = null;
+	}
+
+	private Delta update(Rule rule) throws ParseException {
+		TreeSet<Conflict> before = conflicts != null ? conflicts : new TreeSet<Conflict>();
+		if (stale) {
+			analyze();
+			return new Delta(before, conflicts);
+		}
+
+		// the cells that overlap the changed rule, or were subsumed by it, are stale
+		ExtensionPruner pruner = new ExtensionPruner(comp, provider);
+		TreeSet<String> dropped = new TreeSet<String>();
+		if (cellsByRule.containsKey(rule.id)) {
+			dropped.addAll(cellsByRule.get(rule.id));
+		}
+		for (Cell cell : cells.values()) {
+			if (pruner.overlaps(cell.action, rule.action)) {
+				dropped.add(cell.action.toString());
+			}
+		}
+		for (String key : dropped) {
+			removeCell(key);
+		}
+
+		// re-classify the actions of the overlapping prohibitions that overlap the rule
+		ArrayList<Action> range = getRange(rule.action);
+		Iterator<Action> actions = new ArrayList<Action>().iterator();
+		if (!range.isEmpty()) {
+			ExtensionCalculator calculator = new ExtensionCalculator();
+			calculator.setReasonerProvider(provider);
+			actions = restrict(pruner.prune(calculator.iterate(comp, range)), pruner, rule.action);
+		}
+		int size = classify(actions);
+		logger.log(Logger.DEBUG, "Re-classified " + size + " actions for " + range.size() + " prohibitions, replacing " + dropped.size() + " actions");
+
+		this.conflicts = collect();
+		return new Delta(before, conflicts);
+	}
+
+	/**
+	 * Returns the distinct actions of the prohibitions that overlap the given action, or of
+	 * every prohibition, if the action is null.
+	 */
+	private ArrayList<Action> getRange(Action action) {
+		ExtensionPruner pruner = null;
+		TreeMap<String,Action> map = new TreeMap<String,Action>();
+		for (Rule r : comp.getPolicy().rules()) {
+			if (!r.modality.equals(Modality.REFRAINMENT) || map.containsKey(r.action.toString())) {
+				continue;
+			}
+			try {
+				if (action != null) {
+					if (pruner == null) {
+						pruner = new ExtensionPruner(comp, provider);
+					}
+					if (!pruner.overlaps(r.action, action)) {
+						continue;
+					}
+				}
+			} catch (ParseException e) {
+				// keep prohibitions that cannot be compared
+				e.printStackTrace();
+			}
+			map.put(r.action.toString(), r.action.clone());
+		}
+		return new ArrayList<Action>(map.values());
+	}
+
+	private static Iterator<Action> restrict(Iterator<Action> actions, ExtensionPruner pruner, Action action) {
+		ArrayList<Action> list = new ArrayList<Action>();
+		while (actions.hasNext()) {
+			Action a = actions.next();
+			try {
+				if (!pruner.overlaps(a, action)) {
+					continue;
+				}
+			} catch (ParseException e) {
+				e.printStackTrace();
+			}
+			list.add(a);
+		}
+		return list.iterator();
+	}
+
+	/**
+	 * Classifies the actions in blocks, retains the conflicting cells and replaces the
+	 * conflicts between rules, and returns the number of actions classified.
+	 */
+	private int classify(Iterator<Action> actions) {
+		final ReasonerProvider provider = this.provider != null ? this.provider : comp.getReasonerProvider();
+		final int offset = counter;
+		final int[] count = new int[1];
+
+		// at least one block is classified, which detects the conflicts between rules
+		final Iterator<List<Action>> stream = ExtensionCalculator.partition(actions, blockSize);
+		final boolean empty = !stream.hasNext();
+		Iterator<List<Action>> blocks = new Iterator<List<Action>>() {
+			private boolean first = true;
+
+			public boolean hasNext() {
+				return stream.hasNext() || (empty && first);
+			}
+			public List<Action> next() {
+				List<Action> block = empty ? new ArrayList<Action>() : stream.next();
+				first = false;
+				count[0] += block.size();
+				return block;
+			}
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+
+		final TreeSet<Conflict> rules = new TreeSet<Conflict>();
+		final ArrayList<Extension> extensions = new ArrayList<Extension>();
+		try {
+			dispatcher.dispatch(blocks, new BlockDispatcher.Task<Block>() {
+				public Block process(int index, List<Action> block) throws Exception {
+					Extension ext = ExtensionCalculator.extend(comp, block, offset + index * blockSize, provider);
+					Block result;
+					try {
+						result = classify(ext);
+					}
+					catch (Exception e) {
+						ext.release();
+						throw e;
+					}
+					if (result.rules.isEmpty() && result.cells.isEmpty()) {
+						ext.release();
+					}
+					else {
+						// the retained cells refer to the block, but not to its reasoner
+						ext.dispose();
+					}
+					return result;
+				}
+			}, new BlockDispatcher.Listener<Block>() {
+				public void blockCompleted(int index, int completed, int total, Block result) {
+					if (!result.rules.isEmpty() || !result.cells.isEmpty()) {
+						extensions.add(result.ext);
+					}
+					if (rules.isEmpty()) {
+						rules.addAll(result.rules);
+					}
+					for (Cell cell : result.cells) {
+						addCell(cell);
+					}
+				}
+			});
+			counter = offset + count[0];
+
+			// the new conflicts between rules replace those retained before
+			for (Conflict c : rules) {
+				retain(c.ext);
+			}
+			for (Conflict c : ruleConflicts) {
+				release(c.ext);
+			}
+			this.ruleConflicts = rules;
+		}
+		catch (BlockDispatcher.BlockException e) {
+			// the retained cells are incomplete, so the next edit re-analyzes everything
+			stale = true;
+			throw e;
+		}
+		finally {
+			// release the new blocks that no retained cell or conflict refers to
+			for (Extension ext : extensions) {
+				if (!references.containsKey(ext)) {
+					ext.release();
+				}
+			}
+		}
+		return count[0];
+	}
+
+	private Block classify(Extension ext) throws ParseException {
+		Block block = new Block(ext);
+		for (Conflict c : new ConflictAnalyzer().analyze(ext)) {
+			if (c.type != Conflict.Type.SHARED) {
+				block.rules.add(c);
+			}
+		}
+
+		// retain every action subsumed by a pair of conflicting rules
+		Set<String> ids = new HashSet<String>(Arrays.asList(ext.getExtension()));
+		TreeMap<String,TreeSet<Rule>> supers = ExtensionCalculator.findRules(ext, ids);
+		for (String id : supers.keySet()) {
+			TreeSet<Rule> rules = supers.get(id);
+			if (isConflicting(rules)) {
+				block.cells.add(new Cell(ext, id, ext.getAction(id), rules));
+			}
+		}
+		return block;
+	}
+
+	private static boolean isConflicting(Set<Rule> rules) {
+		for (Rule r : rules) {
+			for (Rule s : rules) {
+				if (!r.equals(s) && r.modality.conflictsWith(s.modality)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private void addCell(Cell cell) {
+		String key = cell.action.toString();
+		removeCell(key);
+		cells.put(key, cell);
+		retain(cell.ext);
+		for (Rule r : cell.rules) {
+			TreeSet<String> keys = cellsByRule.get(r.id);
+			if (keys == null) {
+				keys = new TreeSet<String>();
+				cellsByRule.put(r.id, keys);
+			}
+			keys.add(key);
+		}
+	}
+
+	private void removeCell(String key) {
+		Cell cell = cells.remove(key);
+		if (cell == null) {
+			return;
+		}
+		release(cell.ext);
+		for (Rule r : cell.rules) {
+			TreeSet<String> keys = cellsByRule.get(r.id);
+			if (keys != null) {
+				keys.remove(key);
+				if (keys.isEmpty()) {
+					cellsByRule.remove(r.id);
+				}
+			}
+		}
+	}
+
+	private void retain(Extension ext) {
+		Integer count = references.get(ext);
+		references.put(ext, count == null ? 1 : count + 1);
+	}
+
+	/**
+	 * Drops one reference to the block, and releases the block, if it was the last.
+	 */
+	private void release(Extension ext) {
+		Integer count = references.get(ext);
+		if (count == null) {
+			return;
+		}
+		if (count > 1) {
+			references.put(ext, count - 1);
+			return;
+		}
+		references.remove(ext);
+		ext.release();
+	}
+
+	/**
+	 * Releases every retained block, and drops the conflicts between rules that refer to
+	 * them.
+	 */
+	private void releaseAll() {
+		for (Extension ext : references.keySet()) {
+			ext.release();
+		}
+		references.clear();
+		ruleConflicts = new TreeSet<Conflict>();
+	}
+
+	/**
+	 * Combines the conflicts between rules with the conflicts of shared interpretation
+	 * witnessed by the retained cells.
+	 */
+	private TreeSet<Conflict> collect() {
+		TreeSet<Conflict> set = new TreeSet<Conflict>(ruleConflicts);
+		TreeMap<Conflict,Conflict> shared = new TreeMap<Conflict,Conflict>();
+		for (Cell cell : cells.values()) {
+			for (Rule r : cell.rules) {
+				for (Rule s : cell.rules) {
+					if (r.equals(s) || !r.modality.conflictsWith(s.modality)) {
+						continue;
+					}
+					Conflict conflict = new Conflict(cell.ext, Conflict.Type.SHARED, r, s, cell.id, cell.action);
+					Conflict existing = shared.get(conflict);
+					if (existing == null) {
+						shared.put(conflict, conflict);
+					}
+					else {
+						existing.actions.put(cell.id, cell.action);
+					}
+				}
+			}
+		}
+		for (Conflict c : shared.keySet()) {
+			set.add(c);
+		}
+		return set;
+	}
+
+	public void setBlockSize(int size) {
+		this.blockSize = size;
+	}
+
+	/**
+	 * Sets the number of worker threads used to classify the extension blocks. By default,
+	 * one thread is used for each available processor.
+	 *
+	 * @param count the number of threads
+	 */
+	public void setThreadCount(int count) {
+		dispatcher.setThreadCount(count);
+	}
+
+	/**
+	 * Sets the provider of the reasoners used to classify each extension block. If null,
+	 * the reasoner provider of the analyzed compilation is used.
+	 *
+	 * @param provider the reasoner provider
+	 */
+	public void setReasonerProvider(ReasonerProvider provider) {
+		this.provider = provider;
+	}
+
+	private static class Cell {
+		private final Extension ext;
+		private final String id;
+		private final Action action;
+		private final TreeSet<Rule> rules;
+
+		private Cell(Extension ext, String id, Action action, TreeSet<Rule> rules) {
+			this.ext = ext;
+			this.id = id;
+			this.action = action;
+			this.rules = rules;
+		}
+	}
+
+	private static class Block {
+		private final Extension ext;
+		private final ArrayList<Conflict> rules = new ArrayList<Conflict>();
+		private final ArrayList<Cell> cells = new ArrayList<Cell>();
+
+		private Block(Extension ext) {
+			this.ext = ext;
+		}
+	}
+
+	/**
+	 * Describes the change in the conflicts of a compilation after an edit.
+	 */
+
+	public static class Delta {
+		public final List<Conflict> added;
+		public final List<Conflict> removed;
+
+		private Delta(TreeSet<Conflict> before, TreeSet<Conflict> after) {
+			ArrayList<Conflict> added = new ArrayList<Conflict>();
+			for (Conflict c : after) {
+				if (!before.contains(c)) {
+					added.add(c);
+				}
+			}
+			ArrayList<Conflict> removed = new ArrayList<Conflict>();
+			for (Conflict c : before) {
+				if (!after.contains(c)) {
+					removed.add(c);
+				}
+			}
+			this.added = Collections.unmodifiableList(added);
+			this.removed = Collections.unmodifiableList(removed);
+		}
+
+		public boolean isEmpty() {
+			return added.isEmpty() && removed.isEmpty();
+		}
+
+		public String toString() {
+			return "+" + added + " -" + removed;
+		}
+	}
+}
@@ -3,9 +3,13 @@ package eddy.lang.analysis;
 import java.io.File;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
 
 import org.semanticweb.owlapi.model.IRI;
 import org.semanticweb.owlapi.util.SimpleIRIMapper;
@@ -21,6 +25,7 @@ import eddy.lang.parser.CompilationProperties;
 import eddy.lang.parser.Compiler;
 import eddy.lang.parser.Logger;
 import eddy.lang.parser.ParseException;
+import eddy.lang.reasoner.ReasonerProvider;
 
 /**
  * Applies the limitation principle across two actions. This implementation
@@ -34,6 +39,10 @@ import eddy.lang.parser.ParseException;
  * The new target rights generated by this principle are not preserved within the
  * original policy and are discarded after this analysis completes.
  * 
+ * The extension is analyzed in blocks, where each block is extended and checked by a worker
+ * on an executor (see {@link BlockDispatcher}), and the violations of each worker are merged
+ * into a concurrent set as soon as the worker completes.
+ * 
  * @author Travis Breaux
  *
  */
@@ -47,11 +56,23 @@ public class LimitationPrinciple implements CompilationProperties {
 		public final TreeSet<Rule> violators;
 		public final TreeSet<Rule> relaxables;
 		
+		/**
+		 * The other actions that the violating action represents, if the analysis collapsed
+		 * interchangeable concepts (see {@link ConceptPartition}). They are violated by the
+		 * same rules, but are not in the extension.
+		 */
+		public final List<Action> represented;
+		
 		public Violation(LimitationPrinciple principle, String id, Action action, TreeSet<Rule> violators, TreeSet<Rule> relaxables) {
+			this(principle, id, action, Collections.<Action>emptyList(), violators, relaxables);
+		}
+		
+		public Violation(LimitationPrinciple principle, String id, Action action, List<Action> represented, TreeSet<Rule> violators, TreeSet<Rule> relaxables) {
 			this.source = new TreeSet<String>(principle.source);
 			this.target = new TreeSet<String>(principle.target);
 			this.id = id;
 			this.action = action;
+			this.represented = represented;
 			this.violators = violators;
 			this.relaxables = relaxables;
 		}
@@ -76,17 +97,20 @@ public class LimitationPrinciple implements CompilationProperties {
 			return s;
 		}
 	}
-	class Worker implements Runnable {
-		private Extension extComp;
-		private ArrayList<Violation> violations = null;
-		private int index;
-		private LimitationPrinciple principle;
+	class Worker implements BlockDispatcher.Task<List<Violation>> {
+		private final LimitationPrinciple principle;
+		private final Compilation comp;
+		private final ReasonerProvider provider;
 		
-		public Worker(LimitationPrinciple principle) {
+		public Worker(LimitationPrinciple principle, Compilation comp, ReasonerProvider provider) {
 			this.principle = principle;
+			this.comp = comp;
+			this.provider = provider;
 		}
-		public void run() {
-			this.violations = new ArrayList<Violation>();
+		public List<Violation> process(int index, List<Action> block) {
+			// build the extension of this block on the worker thread
+			Extension extComp = ExtensionCalculator.extend(comp, block, index * blockSize, provider);
+			ArrayList<Violation> violations = new ArrayList<Violation>();
 
 			// find all the target right interpretations
 			TreeMap<Rule,TreeSet<String>> targets = ExtensionCalculator.findExtension(extComp, targetRights);
@@ -133,25 +157,51 @@ public class LimitationPrinciple implements CompilationProperties {
 					}
 				}
 				
-				Violation v = new Violation(principle, id, action, violators, sources);
+				// the concepts collapsed into this action are violated by the same rules
+				List<Action> represented = Collections.emptyList();
+				if (partition != null) {
+					try {
+						List<Action> actions = partition.expand(action);
+						represented = actions.subList(1, actions.size());
+					} catch (ParseException e) {
+						e.printStackTrace();
+					}
+				}
+				
+				Violation v = new Violation(principle, id, action, represented, violators, sources);
 				violations.add(v);
 			}
 			logger.log(Logger.DEBUG, "Found " + violations.size() + " violation(s) among " + targetSize + " targets and " + limitSize + " limits ");
-
+			
+			// the violations do not refer to the block, so remove it from the shared base
+			extComp.release();
+			
+			// merge the violations while other workers continue
+			principle.violations.addAll(violations);
+			return violations;
 		}
 	}
 	private static File basePolicy = null;
 	public static void setOntologyBasePolicy(String path) {
-		basePolicy = new File(path);
+		// a null path restores the shared, bundled upper ontology
+		if (path == null) {
+			basePolicy = null;
+		}
+		else {
+			basePolicy = new File(path);
+		}
 	}
 	private final TreeSet<String> source = new TreeSet<String>();
 	private final TreeSet<String> target = new TreeSet<String>();
 	private Compilation extComp;
 	private Logger logger = new Logger(new PrintWriter(System.err), Logger.WARN, this.getClass().getName() + ": ");
-	private int threadCount = 3;
 	private int blockSize = 1000;
+	private ReasonerProvider provider = null;
+	private final BlockDispatcher<List<Violation>> dispatcher = new BlockDispatcher<List<Violation>>();
+	private boolean collapseConcepts = false;
+	private ConceptPartition partition = null;
 	
-	private ArrayList<Violation> violations = new ArrayList<Violation>();
+	private final ConcurrentSkipListSet<Violation> violations = new ConcurrentSkipListSet<Violation>();
 	
 	private ArrayList<Rule> targetRights = new ArrayList<Rule>();
 	
@@ -212,24 +262,25 @@ public class LimitationPrinciple implements CompilationProperties {
 		
 		// compile the extended policy for analysis
 		Compiler compiler = new Compiler();
-		// load the upper ontology
+		compiler.setReasonerProvider(provider != null ? provider : comp.getReasonerProvider());
+		// load the upper ontology from a local file, if overridden; otherwise, the bundled copy
 		if (basePolicy != null) {
-			IRI docIRI = IRI.create("http://gaius.isri.cmu.edu/2011/8/policy-base.owl");
+			IRI docIRI = IRI.create(Compiler.NS);
 			SimpleIRIMapper mapper = new SimpleIRIMapper(docIRI, IRI.create(basePolicy));
 			compiler.getManager().addIRIMapper(mapper);
+			compiler.setSharedPolicyBase(false);
 		}
 		this.extComp = compiler.compile(extPolicy);
 		
 		// compute the extension based on the target actions, only
 		ExtensionCalculator calc = new ExtensionCalculator();
-		ArrayList<Action> actions = calc.compute(comp, targetActions);
-		logger.log(Logger.DEBUG, "Calculated " + actions.size() + " actions in the extensions");
+		calc.setReasonerProvider(provider);
+		calc.setCollapseConcepts(collapseConcepts);
+		Iterator<Action> actions = calc.iterate(comp, targetActions);
+		this.partition = calc.getConceptPartition();
 		
-		// separate the actions into work blocks
-		ArrayList<List<Action>> blocks = new ArrayList<List<Action>>();
-		for (int i = 0; i < actions.size(); i += blockSize) {
-			blocks.add(actions.subList(i, Math.min(actions.size(), i + blockSize)));
-		}
+		// separate the actions into work blocks, as they are enumerated
+		Iterator<List<Action>> blocks = ExtensionCalculator.partition(actions, blockSize);
 		
 		// distribute blocks to workers
 		distribute(blocks, extComp);
@@ -242,66 +293,70 @@ public class LimitationPrinciple implements CompilationProperties {
 		return new ArrayList<Violation>(violations);
 	}
 	
-	private void distribute(ArrayList<List<Action>> blocks, Compilation comp) {
-		Worker[] worker = new Worker[threadCount];
-		Thread[] thread = new Thread[threadCount];
-		
-		// initialize workers with shared list
-		for (int i = 0; i < worker.length; i++) {
-			worker[i] = new Worker(this);
-		}
-		
-		logger.log(Logger.DEBUG, "Dispatching " + blocks.size() + " work blocks to " + threadCount + " workers...");
-		for (int i = 0; i < thread.length; i++) {
-			thread[i] = new Thread();
-		}
-
-		// begin distribution of blocks to workers
-		int index = 0;
-		boolean running = true;
-		while (running) {
-			running = false;
-			for (int i = 0; i < thread.length; i++) {
-				if (thread[i] == null) {
-					continue;
-				}
-				else if (thread[i].isAlive()) {
-					running = true;
-				}
-				else {
-					// check if this worker has any uncollected work
-					if (worker[i].violations != null) {
-						logger.log(Logger.DEBUG, "Received block " + worker[i].index + " with " + worker[i].violations.size() + " violations");
-						this.violations.addAll(worker[i].violations);
-						worker[i].violations = null;
-					}
-					
-					// start a new thread for any remaining blocks
-					if (index < blocks.size()) {
-						List<Action> block = blocks.get(index);
-						int counter = index * blockSize;
-						worker[i].index = index;
-						worker[i].extComp = ExtensionCalculator.extend(comp, block, counter);
-						index++;
-						thread[i] = new Thread(worker[i]);
-						thread[i].start();
-						running = true;
-					}
-					else {
-						thread[i] = null;
-					}
-				}
+	private void distribute(Iterator<List<Action>> blocks, Compilation comp) {
+		logger.log(Logger.DEBUG, "Dispatching work blocks to " + dispatcher.getThreadCount() + " workers...");
+		Worker worker = new Worker(this, comp, provider != null ? provider : comp.getReasonerProvider());
+		dispatcher.dispatch(blocks, worker, new BlockDispatcher.Listener<List<Violation>>() {
+			public void blockCompleted(int index, int completed, int total, List<Violation> result) {
+				logger.log(Logger.DEBUG, "Received block " + index + " with " + result.size() + " violations");
 			}
-			try {
-				Thread.sleep(1000);
-			} catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-		}
+		});
+	}
+	
+	/**
+	 * Cancels a running analysis. Blocks that have not yet completed are abandoned.
+	 */
+	public void cancel() {
+		dispatcher.cancel();
+	}
+	
+	/**
+	 * Sets the number of worker threads used when no executor is given. By default, one
+	 * thread is used for each available processor.
+	 * 
+	 * @param count the number of threads
+	 */
+	public void setThreadCount(int count) {
+		dispatcher.setThreadCount(count);
+	}
+	
+	/**
+	 * Sets the executor that runs the block workers. The executor is not shut down by this
+	 * analysis. If null, a work-stealing pool is created for each analysis.
+	 * 
+	 * @param executor the executor
+	 */
+	public void setExecutor(ExecutorService executor) {
+		dispatcher.setExecutor(executor);
+	}
+	
+	public void setBlockSize(int size) {
+		this.blockSize = size;
+	}
+	
+	/**
+	 * Sets whether interchangeable leaf concepts are analyzed once per group, and the
+	 * actions of the other group members are recorded with the violation of their
+	 * representative (see {@link ConceptPartition}, {@link Violation#represented}). By
+	 * default, concepts are not collapsed.
+	 * 
+	 * @param collapse true, if interchangeable concepts are collapsed
+	 */
+	public void setCollapseConcepts(boolean collapse) {
+		this.collapseConcepts = collapse;
 	}
 	
 	public Compilation getExtendedCompilation() {
 		return extComp;
 	}
+	
+	/**
+	 * Sets the provider of the reasoners used by this analysis. If null, the reasoner
+	 * provider of the analyzed compilation is used.
+	 * 
+	 * @param provider the reasoner provider
+	 */
+	public void setReasonerProvider(ReasonerProvider provider) {
+		this.provider = provider;
+	}
 }
@@ -0,0 +1,420 @@
+package eddy.lang.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import org.semanticweb.owlapi.model.OWLClassExpression;
+
+import eddy.lang.Actor;
+import eddy.lang.Datum;
+import eddy.lang.Role;
+import eddy.lang.Rule;
+import eddy.lang.analysis.Tracer.Flow;
+import eddy.lang.parser.Compilation;
+import eddy.lang.parser.ParseException;
+import eddy.lang.reasoner.ReasonerProvider;
+
+/**
+ * Describes the multi-hop data lineage of a policy, as a directed graph of the {@link Flow}s
+ * between its rules. The graph is built once, by running a {@link FlowTracer} for each
+ * step of the lineage, which by default are COLLECT to USE, COLLECT to TRANSFER and USE to
+ * TRANSFER. The rules are numbered and the flows are held in primitive adjacency arrays.
+ *
+ * Reachability is precomputed: the strongly connected components of the graph are found
+ * with Tarjan's algorithm and condensed into an acyclic graph, and the components
+ * reachable from each component are held in one {@link BitSet}, which is computed once, in
+ * reverse topological order. Queries such as "every rule that data collected from an actor
+ * can eventually reach" are then answered from the bitsets, without tracing again.
+ *
+ * The precomputed closure ignores the data carried by each flow, so a path may join a flow
+ * of one datum to a flow of another, disjoint datum. Lineage queries for a given datum
+ * therefore search the graph anew, following only the flows whose shared object may be
+ * that datum (see {@link #getLineage(String, Datum, Actor)}).
+ */
+
+public class LineageGraph {
+	private final ArrayList<String[]> steps = new ArrayList<String[]>();
+	private ReasonerProvider provider = null;
+	private int threadCount = 1;
+	private FlowTracer probe = null;
+	private final ArrayList<Flow> flows = new ArrayList<Flow>();
+	private final HashMap<String,Integer> nodes = new HashMap<String,Integer>();
+	private Rule[] rules = new Rule[0];
+
+	// the flow graph, and its condensation, in compressed adjacency arrays
+	private int[] offsets = new int[1], targets = new int[0];
+	private int[] component = new int[0];
+	private int[] memberOffsets = new int[1], members = new int[0];
+	private BitSet[] reach = new BitSet[0];
+
+	public LineageGraph() {
+		return;
+	}
+
+	/**
+	 * Adds a step from the source action to the target action. If no step is added, the
+	 * default steps are traced.
+	 *
+	 * @param source the source action name
+	 * @param target the target action name
+	 */
+	public void addStep(String source, String target) {
+		steps.add(new String[] { source, target });
+	}
+
+	/**
+	 * Sets the number of workers of each {@link FlowTracer} (see
+	 * {@link FlowTracer#setThreadCount(int)}).
+	 *
+	 * @param count the number of workers
+	 */
+	public void setThreadCount(int count) {
+		this.threadCount = count;
+	}
+
+	public void setReasonerProvider(ReasonerProvider provider) {
+		this.provider = provider;
+	}
+
+	/**
+	 * Traces the flows of each step of the lineage in the given compilation, and
+	 * precomputes the reachability of the resulting graph.
+	 *
+	 * @param comp the compilation
+	 * @throws ParseException if a role value cannot be compiled
+	 */
+	public void build(Compilation comp) throws ParseException {
+		List<String[]> steps = this.steps;
+		if (steps.isEmpty()) {
+			steps = Arrays.asList(new String[][] {
+					{ "COLLECT", "USE" }, { "COLLECT", "TRANSFER" }, { "USE", "TRANSFER" } });
+		}
+
+		// number the rules and trace the flows of each step
+		flows.clear();
+		nodes.clear();
+		rules = comp.getPolicy().rules();
+		for (int i = 0; i < rules.length; i++) {
+			nodes.put(rules[i].id, i);
+		}
+		for (String[] step : steps) {
+			FlowTracer tracer = new FlowTracer();
+			tracer.setReasonerProvider(provider);
+			tracer.setThreadCount(threadCount);
+			tracer.addSource(step[0]);
+			tracer.addTarget(step[1]);
+			flows.addAll(tracer.trace(comp));
+			probe = tracer;
+		}
+
+		// sort the edges by source rule into adjacency arrays, dropping duplicates
+		int n = rules.length;
+		long[] edges = new long[flows.size()];
+		for (int i = 0; i < edges.length; i++) {
+			Flow f = flows.get(i);
+			edges[i] = ((long) nodes.get(f.source.id) << 32) | nodes.get(f.target.id);
+		}
+		Arrays.sort(edges);
+		offsets = new int[n + 1];
+		int m = 0;
+		for (int i = 0; i < edges.length; i++) {
+			if (i == 0 || edges[i] != edges[i - 1]) {
+				edges[m++] = edges[i];
+				offsets[(int) (edges[i] >>> 32) + 1]++;
+			}
+		}
+		targets = new int[m];
+		for (int i = 0; i < n; i++) {
+			offsets[i + 1] += offsets[i];
+		}
+		for (int i = 0; i < m; i++) {
+			targets[i] = (int) edges[i];
+		}
+
+		condense();
+	}
+
+	/**
+	 * Finds the strongly connected components with an iterative Tarjan search, which
+	 * completes every component after the components it reaches, and then computes the
+	 * components reachable from each component in that order.
+	 */
+	private void condense() {
+		int n = rules.length;
+		int[] index = new int[n], low = new int[n];
+		Arrays.fill(index, -1);
+		boolean[] onStack = new boolean[n];
+		int[] stack = new int[n], call = new int[n], pos = new int[n];
+		component = new int[n];
+		int counter = 0, count = 0;
+
+		for (int v = 0; v < n; v++) {
+			if (index[v] >= 0) {
+				continue;
+			}
+			int sp = 0, cp = 0;
+			index[v] = low[v] = counter++;
+			stack[sp++] = v;
+			onStack[v] = true;
+			call[cp] = v;
+			pos[cp++] = offsets[v];
+			while (cp > 0) {
+				int u = call[cp - 1];
+				if (pos[cp - 1] < offsets[u + 1]) {
+					int w = targets[pos[cp - 1]++];
+					if (index[w] < 0) {
+						index[w] = low[w] = counter++;
+						stack[sp++] = w;
+						onStack[w] = true;
+						call[cp] = w;
+						pos[cp++] = offsets[w];
+					}
+					else if (onStack[w]) {
+						low[u] = Math.min(low[u], index[w]);
+					}
+					continue;
+				}
+				if (low[u] == index[u]) {
+					int x;
+					do {
+						x = stack[--sp];
+						onStack[x] = false;
+						component[x] = count;
+					} while (x != u);
+					count++;
+				}
+				cp--;
+				if (cp > 0) {
+					int p = call[cp - 1];
+					low[p] = Math.min(low[p], low[u]);
+				}
+			}
+		}
+
+		// list the members of each component
+		memberOffsets = new int[count + 1];
+		for (int v = 0; v < n; v++) {
+			memberOffsets[component[v] + 1]++;
+		}
+		for (int c = 0; c < count; c++) {
+			memberOffsets[c + 1] += memberOffsets[c];
+		}
+		members = new int[n];
+		int[] fill = Arrays.copyOf(memberOffsets, count);
+		for (int v = 0; v < n; v++) {
+			members[fill[component[v]]++] = v;
+		}
+
+		// successors complete before their predecessors, so each closure is computed once
+		reach = new BitSet[count];
+		for (int c = 0; c < count; c++) {
+			reach[c] = new BitSet(count);
+			for (int i = memberOffsets[c]; i < memberOffsets[c + 1]; i++) {
+				int u = members[i];
+				for (int e = offsets[u]; e < offsets[u + 1]; e++) {
+					int d = component[targets[e]];
+					if (d == c) {
+						// a cycle, or a self flow, reaches its own component
+						reach[c].set(c);
+					}
+					else if (!reach[c].get(d)) {
+						reach[c].set(d);
+						reach[c].or(reach[d]);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of rules in the graph.
+	 *
+	 * @return the number of rules
+	 */
+	public int size() {
+		return rules.length;
+	}
+
+	/**
+	 * Returns the number of distinct flows between two rules.
+	 *
+	 * @return the number of edges
+	 */
+	public int getEdgeCount() {
+		return targets.length;
+	}
+
+	/**
+	 * Returns the number of strongly connected components of the graph.
+	 *
+	 * @return the number of components
+	 */
+	public int getComponentCount() {
+		return reach.length;
+	}
+
+	/**
+	 * Returns the flows traced for each step, in the order of the steps.
+	 *
+	 * @return the flows
+	 */
+	public List<Flow> getFlows() {
+		return Collections.unmodifiableList(flows);
+	}
+
+	/**
+	 * Returns true, if data can flow from the first rule to the second along one or more
+	 * flows, regardless of the data carried by each flow.
+	 *
+	 * @param source the source rule
+	 * @param target the target rule
+	 * @return true, if the target is reachable from the source
+	 */
+	public boolean reaches(Rule source, Rule target) {
+		Integer s = nodes.get(source.id), t = nodes.get(target.id);
+		if (s == null || t == null) {
+			return false;
+		}
+		return reach[component[s]].get(component[t]);
+	}
+
+	/**
+	 * Returns the rules reachable along one or more flows from the given rule, in policy
+	 * order, regardless of the data carried by each flow.
+	 *
+	 * @param rule the source rule
+	 * @return the reachable rules
+	 */
+	public List<Rule> getReachable(Rule rule) {
+		return getReachable(Collections.singletonList(rule));
+	}
+
+	/**
+	 * Returns the rules reachable along one or more flows from any of the given rules, in
+	 * policy order, regardless of the data carried by each flow.
+	 *
+	 * @param start the source rules
+	 * @return the reachable rules
+	 */
+	public List<Rule> getReachable(Collection<Rule> start) {
+		BitSet comps = new BitSet(reach.length);
+		for (Rule r : start) {
+			Integer v = nodes.get(r.id);
+			if (v != null) {
+				comps.or(reach[component[v]]);
+			}
+		}
+		BitSet ids = new BitSet(rules.length);
+		for (int c = comps.nextSetBit(0); c >= 0; c = comps.nextSetBit(c + 1)) {
+			for (int i = memberOffsets[c]; i < memberOffsets[c + 1]; i++) {
+				ids.set(members[i]);
+			}
+		}
+		ArrayList<Rule> list = new ArrayList<Rule>();
+		for (int v = ids.nextSetBit(0); v >= 0; v = ids.nextSetBit(v + 1)) {
+			list.add(rules[v]);
+		}
+		return list;
+	}
+
+	/**
+	 * Returns the rules of the given action whose object may be the given datum and whose
+	 * source may be the given actor.
+	 *
+	 * @param action the action name
+	 * @param datum the datum, or null, if any datum is traced
+	 * @param source the source actor, or null, if any source is traced
+	 * @return the matching rules, in policy order
+	 * @throws ParseException if a role value cannot be compiled
+	 */
+	public List<Rule> getRules(String action, Datum datum, Actor source) throws ParseException {
+		ArrayList<Rule> list = new ArrayList<Rule>();
+		if (probe == null) {
+			return list;
+		}
+		OWLClassExpression actor = source == null ? null : probe.compiler.compile(source);
+		for (Rule r : rules) {
+			if (!r.action.name.equals(action)) {
+				continue;
+			}
+			if (datum != null && r.action.getRole(Role.Type.OBJECT) != null
+					&& probe.getFlowRestriction(r, datum) == null) {
+				continue;
+			}
+			Role role = r.action.getRole(Role.Type.SOURCE);
+			if (actor != null && role != null
+					&& probe.getFlowRestriction(probe.compiler.compile(role.values), actor) == null) {
+				continue;
+			}
+			list.add(r);
+		}
+		return list;
+	}
+
+	/**
+	 * Returns every rule that the given datum, when performed by the given action from the
+	 * given source, can eventually reach. For example, the lineage of a datum collected from
+	 * an actor is found with the action COLLECT. If a datum is given, every hop of a path
+	 * must carry the datum: the objects of both rules of the flow and the datum must share
+	 * an interpretation. Otherwise, the precomputed closure is used.
+	 *
+	 * @param action the action name of the first step
+	 * @param datum the datum, or null, if any datum is traced
+	 * @param source the source actor, or null, if any source is traced
+	 * @return the reachable rules, in policy order
+	 * @throws ParseException if a role value cannot be compiled
+	 */
+	public List<Rule> getLineage(String action, Datum datum, Actor source) throws ParseException {
+		List<Rule> start = getRules(action, datum, source);
+		if (datum == null || start.isEmpty()) {
+			return getReachable(start);
+		}
+		OWLClassExpression data = probe.compiler.compile(datum);
+		OWLClassExpression[] objects = new OWLClassExpression[rules.length];
+
+		// search breadth first along the flows that carry the datum
+		BitSet reached = new BitSet(rules.length), queued = new BitSet(rules.length);
+		int[] queue = new int[rules.length];
+		int head = 0, tail = 0;
+		for (Rule r : start) {
+			int v = nodes.get(r.id);
+			queued.set(v);
+			queue[tail++] = v;
+		}
+		while (head < tail) {
+			int u = queue[head++];
+			for (int e = offsets[u]; e < offsets[u + 1]; e++) {
+				int v = targets[e];
+				if (reached.get(v)) {
+					continue;
+				}
+				OWLClassExpression shared = probe.factory.getOWLObjectIntersectionOf(getObject(objects, u), getObject(objects, v));
+				if (probe.getFlowRestriction(shared, data) == null) {
+					continue;
+				}
+				reached.set(v);
+				if (!queued.get(v)) {
+					queued.set(v);
+					queue[tail++] = v;
+				}
+			}
+		}
+		ArrayList<Rule> list = new ArrayList<Rule>();
+		for (int v = reached.nextSetBit(0); v >= 0; v = reached.nextSetBit(v + 1)) {
+			list.add(rules[v]);
+		}
+		return list;
+	}
+
+	private OWLClassExpression getObject(OWLClassExpression[] objects, int v) throws ParseException {
+		if (objects[v] == null) {
+			objects[v] = probe.compiler.compile(rules[v].action.getRole(Role.Type.OBJECT).values);
+		}
+		return objects[v];
+	}
+}
@@ -0,0 +1,355 @@
+package eddy.lang.analysis;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import eddy.lang.Actor;
+import eddy.lang.Datum;
+import eddy.lang.Policy;
+import eddy.lang.Purpose;
+import eddy.lang.Role;
+import eddy.lang.RoleValueSet;
+import eddy.lang.Rule;
+import eddy.lang.Type;
+import eddy.lang.parser.Compilation;
+import eddy.lang.parser.Compiler;
+import eddy.lang.parser.Logger;
+import eddy.lang.parser.ParseException;
+
+/**
+ * Splits a {@link Policy} into independent sub-policies, which can be compiled, classified
+ * and analyzed separately. Two rules may interact, if they share an action name and, for
+ * each role type that both rules restrict, the concepts of their role values are connected
+ * by the subclass and equivalence {@link Type} axioms of the policy, or one of the values
+ * is the top concept of its role. Each sub-policy is a connected component of the rules
+ * that may interact, together with the type axioms that name the concepts of its rules.
+ *
+ * The concepts of a policy are only related by its type axioms, so the decomposition is
+ * computed from the policy alone, without classifying it. Conflicts can only arise within
+ * a component; analyses that relate rules of different actions, such as the
+ * {@link LimitationPrinciple} and the {@link FlowTracer}, require a decomposition that
+ * ignores action names (see {@link #create(Policy, boolean)}).
+ *
+ * The components are compiled and analyzed in parallel with {@link #analyze(Analysis)},
+ * and the results of each component are returned in component order for merging.
+ */
+
+public class PolicyDecomposition {
+	private final Logger logger = new Logger(new PrintWriter(System.err), Logger.WARN, this.getClass().getName() + ": ");
+	private final Policy policy;
+	private final ArrayList<Policy> components = new ArrayList<Policy>();
+	private int threadCount = Runtime.getRuntime().availableProcessors();
+	private ExecutorService executor = null;
+
+	private PolicyDecomposition(Policy policy) {
+		this.policy = policy;
+	}
+
+	/**
+	 * Decomposes the policy into components of rules with overlapping action names and role
+	 * values.
+	 *
+	 * @param policy the policy
+	 * @return the decomposition
+	 */
+	public static PolicyDecomposition create(Policy policy) {
+		return create(policy, true);
+	}
+
+	/**
+	 * Decomposes the policy into components of rules with overlapping role values.
+	 *
+	 * @param policy the policy
+	 * @param byAction true, if rules with different action names are independent
+	 * @return the decomposition
+	 */
+	public static PolicyDecomposition create(Policy policy, boolean byAction) {
+		PolicyDecomposition decomp = new PolicyDecomposition(policy);
+
+		// connect the concepts related by subclass and equivalence axioms
+		Groups concepts = new Groups();
+		Type[] type = policy.types();
+		for (Type t : type) {
+			concepts.find(t.lhs);
+			if (t.op == Type.DISJOINT) {
+				continue;
+			}
+			for (String rhs : t.rhs) {
+				concepts.union(t.lhs, rhs);
+			}
+		}
+
+		// summarize each rule by the concept groups of each role
+		Rule[] rule = policy.rules();
+		ArrayList<HashMap<Role.Type,Set<String>>> roles = new ArrayList<HashMap<Role.Type,Set<String>>>();
+		for (Rule r : rule) {
+			HashMap<Role.Type,Set<String>> map = new HashMap<Role.Type,Set<String>>();
+			for (Role role : r.action.roles()) {
+				Set<String> groups = new HashSet<String>();
+				if (addGroups(role.values, concepts, groups)) {
+					map.put(role.type, groups);
+				}
+			}
+			roles.add(map);
+		}
+
+		// connect the rules that may interact, comparing rules of the same action only
+		Groups rules = new Groups();
+		for (int i = 0; i < rule.length; i++) {
+			rules.find(rule[i].id);
+			for (int j = i + 1; j < rule.length; j++) {
+				if (byAction && !rule[i].action.name.equals(rule[j].action.name)) {
+					continue;
+				}
+				if (overlaps(roles.get(i), roles.get(j))) {
+					rules.union(rule[i].id, rule[j].id);
+				}
+			}
+		}
+
+		// create one sub-policy for each component of rules, in the order of the first rule
+		TreeMap<String,Integer> index = new TreeMap<String,Integer>();
+		ArrayList<Set<String>> names = new ArrayList<Set<String>>();
+		for (int i = 0; i < rule.length; i++) {
+			String root = rules.find(rule[i].id);
+			Integer k = index.get(root);
+			if (k == null) {
+				k = decomp.components.size();
+				index.put(root, k);
+				Policy p = new Policy(policy.id + "-" + (k + 1));
+				for (String attr : policy.attributes()) {
+					p.setAttribute(attr, policy.getAttribute(attr));
+				}
+				decomp.components.add(p);
+				names.add(new HashSet<String>());
+			}
+			decomp.components.get(k).add(rule[i]);
+			for (Set<String> groups : roles.get(i).values()) {
+				names.get(k).addAll(groups);
+			}
+		}
+
+		// add the type axioms that name a concept of each component
+		for (Type t : type) {
+			Set<String> groups = new HashSet<String>();
+			groups.add(concepts.find(t.lhs));
+			for (String rhs : t.rhs) {
+				groups.add(concepts.find(rhs));
+			}
+			for (int k = 0; k < decomp.components.size(); k++) {
+				if (!Collections.disjoint(groups, names.get(k))) {
+					decomp.components.get(k).add(t);
+				}
+			}
+		}
+		decomp.logger.log(Logger.DEBUG, "Decomposed " + rule.length + " rules into " + decomp.components.size() + " components");
+		return decomp;
+	}
+
+	/**
+	 * Adds the concept groups of the value set to the given set, and returns false, if the
+	 * value set includes the top concept of its role and therefore overlaps every group.
+	 */
+	private static boolean addGroups(RoleValueSet values, Groups concepts, Set<String> groups) {
+		if (values.isSingle()) {
+			String name = values.getValue().toString();
+			if (name.equals(Datum.ANYTHING.name) || name.equals(Actor.ANYONE.name) || name.equals(Purpose.ANYTHING.name)) {
+				return false;
+			}
+			groups.add(concepts.find(name));
+			return true;
+		}
+		if (values.type == RoleValueSet.Type.COMPLEMENT || values.type == RoleValueSet.Type.INTERSECT) {
+			// the set is contained by its left-hand side
+			return addGroups(values.getLHS(), concepts, groups);
+		}
+		return addGroups(values.getLHS(), concepts, groups) && addGroups(values.getRHS(), concepts, groups);
+	}
+
+	private static boolean overlaps(HashMap<Role.Type,Set<String>> a, HashMap<Role.Type,Set<String>> b) {
+		for (Role.Type type : a.keySet()) {
+			Set<String> other = b.get(type);
+			if (other != null && Collections.disjoint(a.get(type), other)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public Policy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * Returns the independent sub-policies, in the order of their first rule in the policy.
+	 *
+	 * @return the components
+	 */
+	public List<Policy> getComponents() {
+		return Collections.unmodifiableList(components);
+	}
+
+	public int size() {
+		return components.size();
+	}
+
+	/**
+	 * Compiles each component with a new {@link Compiler}, and applies the analysis to each
+	 * compilation, in parallel. If any component cannot be compiled or analyzed, the
+	 * remaining components are cancelled and the failure is rethrown, so that the merged
+	 * results never silently omit a component.
+	 *
+	 * @param analysis the analysis of each component
+	 * @return the results of each component, in component order
+	 * @throws ComponentException if a component cannot be compiled or analyzed
+	 */
+	public <R> List<R> analyze(final Analysis<R> analysis) {
+		ExecutorService executor = this.executor;
+		if (executor == null) {
+			executor = new ForkJoinPool(threadCount);
+		}
+		ArrayList<R> results = new ArrayList<R>();
+		ArrayList<Future<R>> futures = new ArrayList<Future<R>>();
+		try {
+			for (final Policy p : components) {
+				futures.add(executor.submit(new Callable<R>() {
+					public R call() throws Exception {
+						Compilation comp = new Compiler().compile(p);
+						try {
+							return analysis.analyze(comp);
+						}
+						finally {
+							comp.dispose();
+						}
+					}
+				}));
+			}
+			for (int k = 0; k < futures.size(); k++) {
+				try {
+					results.add(futures.get(k).get());
+				}
+				catch (ExecutionException e) {
+					throw new ComponentException(components.get(k), e.getCause());
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ComponentException(null, e);
+		}
+		finally {
+			for (Future<R> f : futures) {
+				f.cancel(true);
+			}
+			if (executor != this.executor) {
+				executor.shutdownNow();
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Analyzes each component for conflicts, in parallel, and merges the conflicts. Each
+	 * component is analyzed by an {@link ExtendedConflictAnalyzer} with a single worker.
+	 *
+	 * @return the conflicts of the policy
+	 * @throws ComponentException if a component cannot be compiled or analyzed
+	 */
+	public ArrayList<Conflict> analyzeConflicts() {
+		TreeSet<Conflict> conflicts = new TreeSet<Conflict>();
+		for (List<Conflict> list : analyze(new Analysis<List<Conflict>>() {
+			public List<Conflict> analyze(Compilation comp) {
+				ExtendedConflictAnalyzer analyzer = new ExtendedConflictAnalyzer();
+				analyzer.setThreadCount(1);
+				return analyzer.analyze(comp);
+			}
+		})) {
+			conflicts.addAll(list);
+		}
+		return new ArrayList<Conflict>(conflicts);
+	}
+
+	/**
+	 * Sets the number of components analyzed at once, when no executor is given. By default,
+	 * one component is analyzed for each available processor.
+	 *
+	 * @param count the number of threads
+	 */
+	public void setThreadCount(int count) {
+		this.threadCount = count;
+	}
+
+	/**
+	 * Sets the executor that analyzes the components. The executor is not shut down by this
+	 * decomposition. If null, a work-stealing pool is created for each analysis.
+	 *
+	 * @param executor the executor
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Analyzes one compiled component on a worker thread.
+	 *
+	 * @param <R> the type of the component result
+	 */
+
+	public static interface Analysis<R> {
+		public R analyze(Compilation comp) throws Exception;
+	}
+
+	/**
+	 * Reports the failure to compile or analyze one component of a decomposition.
+	 */
+
+	public static class ComponentException extends RuntimeException {
+		public final static long serialVersionUID = 1;
+		public final Policy component;
+
+		public ComponentException(Policy component, Throwable cause) {
+			super("Failed to analyze component " + (component == null ? "" : component.id) + ": " + cause, cause);
+			this.component = component;
+		}
+	}
+
+	/**
+	 * Maintains disjoint sets of names, with path compression.
+	 */
+	private static class Groups {
+		private final HashMap<String,String> parent = new HashMap<String,String>();
+
+		private String find(String name) {
+			String p = parent.get(name);
+			if (p == null) {
+				parent.put(name, name);
+				return name;
+			}
+			if (p.equals(name)) {
+				return name;
+			}
+			String root = find(p);
+			parent.put(name, root);
+			return root;
+		}
+
+		private void union(String a, String b) {
+			String x = find(a), y = find(b);
+			if (!x.equals(y)) {
+				parent.put(x, y);
+			}
+		}
+	}
+}
@@ -0,0 +1,267 @@
+package eddy.lang.analysis;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLObjectComplementOf;
+import org.semanticweb.owlapi.model.OWLObjectIntersectionOf;
+import org.semanticweb.owlapi.model.OWLObjectUnionOf;
+
+import eddy.lang.Action;
+import eddy.lang.Role;
+import eddy.lang.RoleValueSet;
+import eddy.lang.Rule;
+import eddy.lang.parser.Compilation;
+import eddy.lang.parser.Compiler;
+import eddy.lang.parser.ParseException;
+import eddy.lang.reasoner.ReasonerProvider;
+import eddy.lang.reasoner.TaxonomySnapshot;
+
+/**
+ * Evaluates {@link RoleValueSet}s under a closed-world reading of the classified hierarchy.
+ * Each concept is interpreted as the set of leaf concepts below it, which is held in a
+ * {@link BitSet} over the leaves of the hierarchy, so that unions, intersections and
+ * complements are evaluated with word-parallel OR, AND and ANDNOT operations. Two value
+ * sets overlap, if they share a leaf, and one subsumes the other, if it contains every
+ * leaf of the other.
+ *
+ * The closed-world reading assumes that every concept is the union of its subconcepts and
+ * that the leaves of the vocabulary have no unnamed overlap. Under that assumption, rule
+ * overlap and flow modes are answered from the bitsets, without querying the reasoner.
+ * Unsatisfiable and unknown concepts are empty.
+ */
+
+public class RoleValueAlgebra {
+	private final TaxonomySnapshot taxonomy;
+	private final Compiler compiler;
+	private final BitSet[] bits;
+	private final BitSet universe = new BitSet();
+	private final ArrayList<Integer> leaves = new ArrayList<Integer>();
+
+	private RoleValueAlgebra(TaxonomySnapshot taxonomy, Compiler compiler) {
+		this.taxonomy = taxonomy;
+		this.compiler = compiler;
+		this.bits = new BitSet[taxonomy.size()];
+
+		// parents have smaller ids than their children, so each child is labelled first
+		for (int id = taxonomy.size() - 1; id >= 0; id--) {
+			int[] children = taxonomy.getChildren(id);
+			bits[id] = new BitSet();
+			if (children.length == 0) {
+				bits[id].set(leaves.size());
+				leaves.add(id);
+			}
+			for (int c : children) {
+				bits[id].or(bits[c]);
+			}
+		}
+		universe.set(0, leaves.size());
+	}
+
+	/**
+	 * Creates the algebra over the classified hierarchy of the given compilation.
+	 *
+	 * @param comp the compilation
+	 * @param provider the provider of the reasoner that classifies the compilation, or
+	 * null, if the compilation's default reasoner is used
+	 * @return the algebra
+	 */
+	public static RoleValueAlgebra create(Compilation comp, ReasonerProvider provider) {
+		return new RoleValueAlgebra(comp.getTaxonomySnapshot(provider), comp.getCompiler());
+	}
+
+	/**
+	 * Returns the number of leaf concepts, which is the size of each bitset.
+	 *
+	 * @return the number of leaves
+	 */
+	public int getLeafCount() {
+		return leaves.size();
+	}
+
+	/**
+	 * Returns the leaf concepts of the given bitset, one class for each leaf.
+	 *
+	 * @param set the bitset
+	 * @return the leaf classes
+	 */
+	public List<OWLClass> getLeaves(BitSet set) {
+		ArrayList<OWLClass> list = new ArrayList<OWLClass>();
+		for (int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i + 1)) {
+			list.add(taxonomy.getClasses(leaves.get(i))[0]);
+		}
+		return list;
+	}
+
+	/**
+	 * Returns the leaves of the named class, which must not be modified.
+	 */
+	private BitSet get(OWLClass clazz) {
+		int id = taxonomy.getId(clazz);
+		return id < 0 ? new BitSet() : bits[id];
+	}
+
+	/**
+	 * Returns the leaves of the value set.
+	 *
+	 * @param values the value set
+	 * @return a new bitset of the leaves
+	 * @throws ParseException if a role value cannot be compiled
+	 */
+	public BitSet evaluate(RoleValueSet values) throws ParseException {
+		if (values.isSingle()) {
+			OWLClassExpression expr = compiler.compile(values.getValue());
+			return (BitSet) get(expr.asOWLClass()).clone();
+		}
+		BitSet set = evaluate(values.getLHS());
+		BitSet rhs = evaluate(values.getRHS());
+		switch (values.type) {
+			case UNION: {
+				set.or(rhs);
+				break;
+			}
+			case INTERSECT: {
+				set.and(rhs);
+				break;
+			}
+			case COMPLEMENT: {
+				set.andNot(rhs);
+				break;
+			}
+			default: {
+				throw new ParseException("Unrecognized role value set type: " + values.type);
+			}
+		}
+		return set;
+	}
+
+	/**
+	 * Returns the leaves of a compiled value set, or null, if the expression is not a
+	 * boolean combination of named classes.
+	 *
+	 * @param expr the class expression
+	 * @return a new bitset of the leaves, or null
+	 */
+	public BitSet evaluate(OWLClassExpression expr) {
+		if (!expr.isAnonymous()) {
+			return (BitSet) get(expr.asOWLClass()).clone();
+		}
+		if (expr instanceof OWLObjectIntersectionOf) {
+			BitSet set = (BitSet) universe.clone();
+			for (OWLClassExpression e : ((OWLObjectIntersectionOf) expr).getOperands()) {
+				BitSet b = evaluate(e);
+				if (b == null) {
+					return null;
+				}
+				set.and(b);
+			}
+			return set;
+		}
+		if (expr instanceof OWLObjectUnionOf) {
+			BitSet set = new BitSet();
+			for (OWLClassExpression e : ((OWLObjectUnionOf) expr).getOperands()) {
+				BitSet b = evaluate(e);
+				if (b == null) {
+					return null;
+				}
+				set.or(b);
+			}
+			return set;
+		}
+		if (expr instanceof OWLObjectComplementOf) {
+			BitSet b = evaluate(((OWLObjectComplementOf) expr).getOperand());
+			if (b == null) {
+				return null;
+			}
+			BitSet set = (BitSet) universe.clone();
+			set.andNot(b);
+			return set;
+		}
+		return null;
+	}
+
+	public boolean overlaps(RoleValueSet a, RoleValueSet b) throws ParseException {
+		return evaluate(a).intersects(evaluate(b));
+	}
+
+	/**
+	 * Returns true, if the first value set contains every leaf of the second.
+	 *
+	 * @param a the subsuming value set
+	 * @param b the subsumed value set
+	 * @return true, if a subsumes b
+	 * @throws ParseException if a role value cannot be compiled
+	 */
+	public boolean subsumes(RoleValueSet a, RoleValueSet b) throws ParseException {
+		BitSet set = evaluate(b);
+		set.andNot(evaluate(a));
+		return set.isEmpty();
+	}
+
+	/**
+	 * Returns true, if the two actions share an interpretation: they have the same name,
+	 * and the values of each role type that both actions restrict share a leaf.
+	 *
+	 * @param a the first action
+	 * @param b the second action
+	 * @return true, if the actions overlap
+	 * @throws ParseException if a role value cannot be compiled
+	 */
+	public boolean overlaps(Action a, Action b) throws ParseException {
+		if (!a.name.equals(b.name)) {
+			return false;
+		}
+		for (Role role : a.roles()) {
+			Role other = b.getRole(role.type);
+			if (other != null && !overlaps(role.values, other.values)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public boolean overlaps(Rule r1, Rule r2) throws ParseException {
+		return overlaps(r1.action, r2.action);
+	}
+
+	/**
+	 * Returns the flow mode between two value sets, as described by
+	 * {@link Tracer.Flow.Mode}, or null, if the sets share no leaf.
+	 *
+	 * @param source the source value set
+	 * @param target the target value set
+	 * @return the flow mode, or null
+	 * @throws ParseException if a role value cannot be compiled
+	 */
+	public Tracer.Flow.Mode getFlowRestriction(RoleValueSet source, RoleValueSet target) throws ParseException {
+		return getFlowRestriction(evaluate(source), evaluate(target));
+	}
+
+	/**
+	 * Returns the flow mode between two sets of leaves (see
+	 * {@link #getFlowRestriction(RoleValueSet, RoleValueSet)}).
+	 *
+	 * @param source the source leaves
+	 * @param target the target leaves
+	 * @return the flow mode, or null
+	 */
+	public Tracer.Flow.Mode getFlowRestriction(BitSet source, BitSet target) {
+		if (!source.intersects(target)) {
+			return null;
+		}
+		if (source.equals(target)) {
+			return Tracer.Flow.Mode.EXACTFLOW;
+		}
+		BitSet rest = (BitSet) target.clone();
+		rest.andNot(source);
+		if (rest.isEmpty()) {
+			// the source contains the target
+			return Tracer.Flow.Mode.OVERFLOW;
+		}
+		// the source is contained by, or shares a leaf with, the target
+		return Tracer.Flow.Mode.UNDERFLOW;
+	}
+}
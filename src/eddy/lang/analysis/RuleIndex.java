@@ -0,0 +1,202 @@
+package eddy.lang.analysis;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLClassExpression;
+
+import eddy.lang.Action;
+import eddy.lang.Role;
+import eddy.lang.RoleValueSet;
+import eddy.lang.Rule;
+import eddy.lang.parser.Compilation;
+import eddy.lang.parser.Compiler;
+import eddy.lang.parser.ParseException;
+import eddy.lang.reasoner.ReasonerProvider;
+import eddy.lang.reasoner.TaxonomySnapshot;
+
+/**
+ * Indexes a list of {@link Rule}s by the concepts of their role values, so that the rules
+ * whose role values may overlap those of a given action are found without comparing the
+ * action to every rule. Two concepts overlap in the classified hierarchy, only if they
+ * share a descendant, which includes the case where one concept subsumes the other.
+ * Each rule is therefore posted under every descendant of the named classes that bound
+ * its role value, and the candidates for an action are the rules posted under the
+ * descendants of the action's own bounds.
+ *
+ * The index is conservative: role values that are not bounded by named classes, for
+ * example, because they are missing or anonymous, overlap every value.
+ */
+
+public class RuleIndex {
+	private final TaxonomySnapshot taxonomy;
+	private final Compiler compiler;
+	private final List<Rule> rules;
+	private final Role.Type[] types;
+	private final HashMap<Role.Type,BitSet[]> postings = new HashMap<Role.Type,BitSet[]>();
+	private final HashMap<Role.Type,BitSet> wildcards = new HashMap<Role.Type,BitSet>();
+	private final HashMap<Integer,BitSet> descendants = new HashMap<Integer,BitSet>();
+
+	/**
+	 * Creates an index of the given rules over the given role types.
+	 *
+	 * @param comp the compilation of the rules
+	 * @param provider the provider of the reasoner that classifies the compilation, or
+	 * null, if the compilation's default reasoner is used
+	 * @param rules the indexed rules
+	 * @param types the indexed role types
+	 * @throws ParseException if a role value cannot be compiled
+	 */
+	public RuleIndex(Compilation comp, ReasonerProvider provider, List<Rule> rules, Role.Type... types) throws ParseException {
+		this.taxonomy = comp.getTaxonomySnapshot(provider);
+		this.compiler = comp.getCompiler();
+		this.rules = new ArrayList<Rule>(rules);
+		this.types = types;
+
+		for (Role.Type type : types) {
+			BitSet[] posting = new BitSet[taxonomy.size()];
+			BitSet wildcard = new BitSet(rules.size());
+			for (int i = 0; i < this.rules.size(); i++) {
+				Role role = this.rules.get(i).action.getRole(type);
+				Set<OWLClass> bounds = role == null ? null : getBounds(compiler, role.values);
+				if (bounds == null) {
+					wildcard.set(i);
+					continue;
+				}
+				for (OWLClass c : bounds) {
+					int id = taxonomy.getId(c);
+					if (id < 0) {
+						// unsatisfiable classes overlap nothing, and unknown classes overlap everything
+						if (!taxonomy.isUnsatisfiable(c)) {
+							wildcard.set(i);
+						}
+						continue;
+					}
+					BitSet below = getDescendants(id);
+					for (int x = below.nextSetBit(0); x >= 0; x = below.nextSetBit(x + 1)) {
+						if (posting[x] == null) {
+							posting[x] = new BitSet(rules.size());
+						}
+						posting[x].set(i);
+					}
+				}
+			}
+			postings.put(type, posting);
+			wildcards.put(type, wildcard);
+		}
+	}
+
+	/**
+	 * Returns the indexes, in the indexed list, of the rules whose role values may overlap
+	 * the role values of the given action, for every indexed role type.
+	 *
+	 * @param action the action
+	 * @return the indexes of the candidate rules
+	 * @throws ParseException if a role value cannot be compiled
+	 */
+	public BitSet getCandidates(Action action) throws ParseException {
+		BitSet candidates = new BitSet(rules.size());
+		candidates.set(0, rules.size());
+		for (Role.Type type : types) {
+			if (candidates.isEmpty()) {
+				break;
+			}
+			Role role = action.getRole(type);
+			Set<OWLClass> bounds = role == null ? null : getBounds(compiler, role.values);
+			if (bounds == null) {
+				continue;
+			}
+			BitSet matches = (BitSet) wildcards.get(type).clone();
+			BitSet[] posting = postings.get(type);
+			for (OWLClass c : bounds) {
+				int id = taxonomy.getId(c);
+				if (id < 0) {
+					if (!taxonomy.isUnsatisfiable(c)) {
+						matches.set(0, rules.size());
+					}
+					continue;
+				}
+				BitSet below = getDescendants(id);
+				for (int x = below.nextSetBit(0); x >= 0; x = below.nextSetBit(x + 1)) {
+					if (posting[x] != null) {
+						matches.or(posting[x]);
+					}
+				}
+			}
+			candidates.and(matches);
+		}
+		return candidates;
+	}
+
+	/**
+	 * Returns the rules whose role values may overlap those of the given action, in the
+	 * order of the indexed list (see {@link #getCandidates(Action)}).
+	 *
+	 * @param action the action
+	 * @return the candidate rules
+	 * @throws ParseException if a role value cannot be compiled
+	 */
+	public List<Rule> getCandidateRules(Action action) throws ParseException {
+		ArrayList<Rule> list = new ArrayList<Rule>();
+		BitSet candidates = getCandidates(action);
+		for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+			list.add(rules.get(i));
+		}
+		return list;
+	}
+
+	private BitSet getDescendants(int id) {
+		BitSet set = descendants.get(id);
+		if (set != null) {
+			return set;
+		}
+		set = new BitSet(taxonomy.size());
+		set.set(id);
+		for (int c : taxonomy.getChildren(id)) {
+			set.or(getDescendants(c));
+		}
+		descendants.put(id, set);
+		return set;
+	}
+
+	/**
+	 * Returns the named classes whose union contains the given value set, or null, if the
+	 * set has an anonymous value and is therefore unbounded. Exceptions and intersections
+	 * are bounded by their left-hand side.
+	 *
+	 * @param compiler the compiler of the role values
+	 * @param values the value set
+	 * @return the bounding classes, or null
+	 * @throws ParseException if a role value cannot be compiled
+	 */
+	public static Set<OWLClass> getBounds(Compiler compiler, RoleValueSet values) throws ParseException {
+		Set<OWLClass> bounds = new HashSet<OWLClass>();
+		return addBounds(compiler, values, bounds) ? bounds : null;
+	}
+
+	private static boolean addBounds(Compiler compiler, RoleValueSet values, Set<OWLClass> bounds) throws ParseException {
+		if (values.isSingle()) {
+			OWLClassExpression expr = compiler.compile(values.getValue());
+			if (expr.isAnonymous()) {
+				return false;
+			}
+			bounds.add(expr.asOWLClass());
+			return true;
+		}
+		switch (values.type) {
+			case COMPLEMENT:
+			case INTERSECT: {
+				// the set is contained by its left-hand side
+				return addBounds(compiler, values.getLHS(), bounds);
+			}
+			default: {
+				return addBounds(compiler, values.getLHS(), bounds) && addBounds(compiler, values.getRHS(), bounds);
+			}
+		}
+	}
+}
@@ -0,0 +1,294 @@
+package eddy.lang.analysis;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.reasoner.OWLReasoner;
+
+import eddy.lang.Action;
+import eddy.lang.Role;
+import eddy.lang.RoleValueSet;
+import eddy.lang.Rule;
+import eddy.lang.Rule.Modality;
+import eddy.lang.parser.Compilation;
+import eddy.lang.parser.CompilationProperties;
+import eddy.lang.parser.Compiler;
+import eddy.lang.parser.Logger;
+import eddy.lang.parser.ParseException;
+import eddy.lang.reasoner.ReasonerProvider;
+import eddy.lang.reasoner.TaxonomySnapshot;
+
+/**
+ * Detects {@link Conflict}s between pairs of rules, without computing the extension of
+ * the policy. The rules are grouped by action name and modality, and only the pairs of
+ * rules whose action names overlap and whose {@link Modality}s conflict are compared. A
+ * pair conflicts, if one rule is subsumed by the other in the classified compilation, or
+ * if, for every role type, the intersection of the role values of the two rules is
+ * satisfiable with respect to the class hierarchy and disjointness axioms of the policy.
+ * The satisfiability of each distinct intersection is decided once and cached.
+ *
+ * For each shared interpretation, a witness {@link Action} is created from the more
+ * specific action name and the intersection of each role value. The witnesses are
+ * compiled into one {@link Extension}, which the conflicts refer to, but which is not
+ * classified by this analysis. The cost of the analysis therefore grows with the number of
+ * candidate rule pairs, rather than with the size of the extension. The witness extension
+ * is a block of the compilation's shared {@link ExtensionBase}, so callers must
+ * {@link Extension#release()} it once the conflicts are no longer needed; otherwise,
+ * repeated analyses of one compilation accumulate blocks in the shared manager.
+ *
+ * Unlike the {@link ConflictAnalyzer}, which reports the subsumption of a rule by its
+ * direct superordinate rules, this analysis reports every subsuming rule that conflicts.
+ */
+
+public class SymbolicConflictAnalyzer implements CompilationProperties {
+	private Logger logger = new Logger(new PrintWriter(System.err), Logger.WARN, this.getClass().getName() + ": ");
+	private ReasonerProvider provider = null;
+	private Compiler compiler;
+	private OWLReasoner reasoner;
+	private TaxonomySnapshot taxonomy;
+	private OWLDataFactory factory;
+	private String ns;
+	private final HashMap<String,Boolean> satisfiable = new HashMap<String,Boolean>();
+	private final HashMap<String,String> names = new HashMap<String,String>();
+	private long pairs = 0;
+
+	public SymbolicConflictAnalyzer() {
+		return;
+	}
+
+	/**
+	 * Sets the provider of the reasoner used to classify the compilation. If null, the
+	 * compilation's default reasoner is used.
+	 *
+	 * @param provider the reasoner provider
+	 */
+	public void setReasonerProvider(ReasonerProvider provider) {
+		this.provider = provider;
+	}
+
+	/**
+	 * Detects the conflicts between the rules of the compilation. Every conflict refers to
+	 * the same witness extension, which the caller must release (see
+	 * {@link Extension#release()}).
+	 *
+	 * @param comp the compilation
+	 * @return the conflicts, in rule order
+	 * @throws ParseException if a role value cannot be compiled
+	 */
+	public ArrayList<Conflict> analyze(Compilation comp) throws ParseException {
+		// reset global variables
+		satisfiable.clear();
+		names.clear();
+		pairs = 0;
+
+		this.compiler = comp.getCompiler();
+		this.reasoner = comp.getReasoner(provider);
+		this.taxonomy = comp.getTaxonomySnapshot(provider);
+		this.factory = comp.getOntology().getOWLOntologyManager().getOWLDataFactory();
+		this.ns = comp.getOntology().getOntologyID().getOntologyIRI().toString();
+
+		// group the rules by action name, and then by modality
+		TreeMap<String,List<List<Rule>>> groups = new TreeMap<String,List<List<Rule>>>();
+		for (Rule rule : comp.getPolicy().rules()) {
+			List<List<Rule>> list = groups.get(rule.action.name);
+			if (list == null) {
+				list = new ArrayList<List<Rule>>();
+				groups.put(rule.action.name, list);
+			}
+			List<Rule> group = null;
+			for (List<Rule> g : list) {
+				if (g.get(0).modality.equals(rule.modality)) {
+					group = g;
+					break;
+				}
+			}
+			if (group == null) {
+				group = new ArrayList<Rule>();
+				list.add(group);
+			}
+			group.add(rule);
+		}
+
+		// compare the rules of each pair of groups with overlapping names and conflicting modalities
+		ArrayList<Candidate> found = new ArrayList<Candidate>();
+		String[] name = groups.keySet().toArray(new String[groups.size()]);
+		for (int i = 0; i < name.length; i++) {
+			for (int j = i; j < name.length; j++) {
+				String witness = getCommonName(name[i], name[j]);
+				if (witness == null) {
+					continue;
+				}
+				List<List<Rule>> list1 = groups.get(name[i]);
+				List<List<Rule>> list2 = groups.get(name[j]);
+				for (int k = 0; k < list1.size(); k++) {
+					for (int l = (i == j ? k : 0); l < list2.size(); l++) {
+						Modality m = list1.get(k).get(0).modality;
+						Modality n = list2.get(l).get(0).modality;
+						if (!m.conflictsWith(n) && !n.conflictsWith(m)) {
+							continue;
+						}
+						compare(list1.get(k), list2.get(l), i == j && k == l, witness, found);
+					}
+				}
+			}
+		}
+		logger.log(Logger.DEBUG, "Compared " + pairs + " candidate rule pairs");
+
+		// compile the witnesses of the shared interpretations into one extension
+		ArrayList<Action> witnesses = new ArrayList<Action>();
+		for (Candidate c : found) {
+			if (c.type == Conflict.Type.SHARED) {
+				c.id = "x" + witnesses.size();
+				witnesses.add(c.action);
+			}
+		}
+		Extension ext = ExtensionCalculator.extend(comp, witnesses, 0, provider);
+
+		TreeSet<Conflict> conflicts = new TreeSet<Conflict>();
+		for (Candidate c : found) {
+			conflicts.add(new Conflict(ext, c.type, c.rule1, c.rule2, c.id, c.action));
+		}
+		comp.getProperties().setProperty(RULE_CONFLICTS, conflicts.size() + "");
+		logger.log(Logger.DEBUG, "Detected " + conflicts.size() + " unique conflicts");
+		return new ArrayList<Conflict>(conflicts);
+	}
+
+	private void compare(List<Rule> group1, List<Rule> group2, boolean same, String name, List<Candidate> found) throws ParseException {
+		for (int i = 0; i < group1.size(); i++) {
+			for (int j = (same ? i + 1 : 0); j < group2.size(); j++) {
+				Rule r1 = group1.get(i);
+				Rule r2 = group2.get(j);
+				pairs++;
+
+				// a subsumed rule conflicts over its whole interpretation
+				OWLClass c1 = factory.getOWLClass(IRI.create(ns + "#" + r1.id));
+				OWLClass c2 = factory.getOWLClass(IRI.create(ns + "#" + r2.id));
+				if (taxonomy.contains(c1) && taxonomy.contains(c2)) {
+					if (taxonomy.isSubClassOf(c1, c2)) {
+						found.add(new Candidate(Conflict.Type.SUBSUMED_BY, r1, r2, r1.id, r1.action.clone()));
+						continue;
+					}
+					if (taxonomy.isSubClassOf(c2, c1)) {
+						found.add(new Candidate(Conflict.Type.SUBSUMED_BY, r2, r1, r2.id, r2.action.clone()));
+						continue;
+					}
+				}
+				else if (taxonomy.isUnsatisfiable(c1) || taxonomy.isUnsatisfiable(c2)) {
+					continue;
+				}
+
+				// otherwise, each role must admit a shared value
+				Action witness = intersect(r1.action, r2.action, name);
+				if (witness != null) {
+					found.add(new Candidate(Conflict.Type.SHARED, r1, r2, null, witness));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the action whose roles intersect the role values of both actions, or null, if
+	 * the intersection of some role is unsatisfiable.
+	 */
+	private Action intersect(Action a1, Action a2, String name) throws ParseException {
+		Action witness = new Action(name);
+		for (Role role : a1.roles()) {
+			Role other = a2.getRole(role.type);
+			if (other == null) {
+				witness.add(role.clone());
+				continue;
+			}
+			if (!isSatisfiable(role.values, other.values)) {
+				return null;
+			}
+			RoleValueSet values = role.values.toString().equals(other.values.toString())
+					? role.values.clone() : new RoleValueSet.Intersect(role.values.clone(), other.values.clone());
+			witness.add(new Role(role.type, role.prefix, values));
+		}
+		for (Role role : a2.roles()) {
+			if (a1.getRole(role.type) == null) {
+				witness.add(role.clone());
+			}
+		}
+		return witness;
+	}
+
+	private boolean isSatisfiable(RoleValueSet v1, RoleValueSet v2) throws ParseException {
+		String s1 = v1.toString(), s2 = v2.toString();
+		String key = s1.compareTo(s2) < 0 ? s1 + "&" + s2 : s2 + "&" + s1;
+		Boolean value = satisfiable.get(key);
+		if (value != null) {
+			return value;
+		}
+
+		OWLClassExpression e1 = compiler.compile(v1);
+		OWLClassExpression e2 = compiler.compile(v2);
+		if (!e1.isAnonymous() && !e2.isAnonymous() && taxonomy.contains(e1.asOWLClass()) && taxonomy.contains(e2.asOWLClass())) {
+			// named classes that subsume one another intersect in the subclass
+			OWLClass c = e1.asOWLClass(), d = e2.asOWLClass();
+			if (c.equals(d) || taxonomy.isSubClassOf(c, d) || taxonomy.isSubClassOf(d, c) || !taxonomy.getCommonSubClasses(c, d, true).isEmpty()) {
+				satisfiable.put(key, true);
+				return true;
+			}
+		}
+		value = reasoner.isSatisfiable(factory.getOWLObjectIntersectionOf(e1, e2));
+		satisfiable.put(key, value);
+		return value;
+	}
+
+	/**
+	 * Returns the name of the most general action subsumed by both names, or null, if the
+	 * actions do not overlap.
+	 */
+	private String getCommonName(String n1, String n2) {
+		if (n1.equals(n2)) {
+			return n1;
+		}
+		String key = n1 + "&" + n2;
+		if (names.containsKey(key)) {
+			return names.get(key);
+		}
+		OWLClass c = factory.getOWLClass(IRI.create(ns + "#" + n1));
+		OWLClass d = factory.getOWLClass(IRI.create(ns + "#" + n2));
+		String name = null;
+		if (taxonomy.contains(c) && taxonomy.contains(d)) {
+			if (taxonomy.isSubClassOf(c, d)) {
+				name = n1;
+			}
+			else if (taxonomy.isSubClassOf(d, c)) {
+				name = n2;
+			}
+			else {
+				for (OWLClass e : taxonomy.getCommonSubClasses(c, d, true)) {
+					name = e.getIRI().getFragment();
+					break;
+				}
+			}
+		}
+		names.put(key, name);
+		return name;
+	}
+
+	private static class Candidate {
+		private final Conflict.Type type;
+		private final Rule rule1, rule2;
+		private final Action action;
+		private String id;
+
+		private Candidate(Conflict.Type type, Rule rule1, Rule rule2, String id, Action action) {
+			this.type = type;
+			this.rule1 = rule1;
+			this.rule2 = rule2;
+			this.id = id;
+			this.action = action;
+		}
+	}
+}
@@ -1,7 +1,12 @@
 package eddy.lang.analysis;
 
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Set;	
 import java.util.TreeMap;
+import java.util.WeakHashMap;
 
 import org.semanticweb.owlapi.model.OWLAxiom;
 import org.semanticweb.owlapi.model.OWLClass;
@@ -16,6 +21,8 @@ import eddy.lang.Rule;
 import eddy.lang.parser.Compilation;
 import eddy.lang.parser.Compiler;
 import eddy.lang.parser.ParseException;
+import eddy.lang.reasoner.ReasonerProvider;
+import eddy.lang.reasoner.TaxonomySnapshot;
 
 /**
  * Traces a {@link Tracer.Flow} between two {@link eddy.lang.RoleValue} objects. If the trace
@@ -23,6 +30,14 @@ import eddy.lang.parser.ParseException;
  * {@link Flow.Mode#EXACTFLOW}, {@link Flow.Mode#UNDERFLOW}, or 
  * {@link Flow.Mode#OVERFLOW}.
  * 
+ * In closed-world mode, flows between boolean combinations of named concepts are
+ * categorized from the leaves of each concept (see {@link RoleValueAlgebra}), without
+ * querying the reasoner.
+ * 
+ * The flow mode of each pair of compiled expressions is computed once and cached for the
+ * classification it was computed over. Named classes are compared in the classified
+ * hierarchy, where the descendants of each class are collected once.
+ * 
  * @author Travis Breaux
  *
  */
@@ -30,12 +45,62 @@ import eddy.lang.parser.ParseException;
 public abstract class Tracer {
 	protected OWLDataFactory factory;
 	protected OWLReasoner reasoner;
+	protected TaxonomySnapshot taxonomy;
 	protected Compiler compiler;
+	protected ReasonerProvider provider = null;
+	protected RoleValueAlgebra algebra = null;
+	private boolean closedWorld = false;
+	private final WeakHashMap<TaxonomySnapshot,FlowCache> caches = new WeakHashMap<TaxonomySnapshot,FlowCache>();
+	private FlowCache cache = new FlowCache();
 	
 	protected void setCompilation(Compilation comp) {
 		this.factory = comp.getOntology().getOWLOntologyManager().getOWLDataFactory();
-		this.reasoner = comp.getReasoner();
+		this.reasoner = comp.getReasoner(provider);
+		this.taxonomy = comp.getTaxonomySnapshot(provider);
 		this.compiler = comp.getCompiler();
+		this.algebra = closedWorld ? RoleValueAlgebra.create(comp, provider) : null;
+		
+		// reuse the flow modes computed over the same classification
+		FlowCache c = caches.get(taxonomy);
+		if (c == null) {
+			c = new FlowCache();
+			caches.put(taxonomy, c);
+		}
+		this.cache = c;
+	}
+	
+	/**
+	 * Sets whether flows are traced under a closed-world reading of the concept hierarchy
+	 * (see {@link RoleValueAlgebra}). By default, flows are traced under the open-world
+	 * semantics of the reasoner.
+	 * 
+	 * @param closedWorld true, if flows are traced in closed-world mode
+	 */
+	public void setClosedWorld(boolean closedWorld) {
+		if (this.closedWorld != closedWorld) {
+			caches.clear();
+			cache = new FlowCache();
+		}
+		this.closedWorld = closedWorld;
+	}
+	
+	/**
+	 * Returns the reasoner queried for flows between anonymous class expressions.
+	 * 
+	 * @return the reasoner
+	 */
+	protected OWLReasoner getReasoner() {
+		return reasoner;
+	}
+	
+	/**
+	 * Sets the provider of the reasoner used to trace flows. If null, the compilation's
+	 * default reasoner is used.
+	 * 
+	 * @param provider the reasoner provider
+	 */
+	public void setReasonerProvider(ReasonerProvider provider) {
+		this.provider = provider;
 	}
 	
 	protected Flow.Mode getFlowRestriction(Rule rule, Datum datum) throws ParseException {
@@ -46,22 +111,52 @@ public abstract class Tracer {
 	}
 	
 	protected Flow.Mode getFlowRestriction(OWLClassExpression source, OWLClassExpression target) {
+		// each pair of expressions is categorized once per classification
+		List<OWLClassExpression> key = Arrays.asList(source, target);
+		if (cache.modes.containsKey(key)) {
+			return cache.modes.get(key);
+		}
+		Flow.Mode mode = computeFlowRestriction(source, target);
+		cache.modes.put(key, mode);
+		return mode;
+	}
+	
+	private Flow.Mode computeFlowRestriction(OWLClassExpression source, OWLClassExpression target) {
+		if (algebra != null) {
+			BitSet s = algebra.evaluate(source);
+			BitSet t = algebra.evaluate(target);
+			if (s != null && t != null) {
+				return algebra.getFlowRestriction(s, t);
+			}
+		}
+		
+		// named classes are compared using the hierarchy snapshot
+		if (!source.isAnonymous() && !target.isAnonymous() 
+				&& taxonomy.contains(source.asOWLClass()) && taxonomy.contains(target.asOWLClass())) {
+			return getFlowRestriction(taxonomy.getId(source.asOWLClass()), taxonomy.getId(target.asOWLClass()));
+		}
+		
 		OWLAxiom axiom1 = factory.getOWLSubClassOfAxiom(source, target);
 		OWLAxiom axiom2 = factory.getOWLSubClassOfAxiom(target, source);
 		OWLAxiom axiom3 = factory.getOWLEquivalentClassesAxiom(source, target);
 		Flow.Mode mode = null;
 		
-		if (reasoner.isEntailed(axiom3)) {
+		if (getReasoner().isEntailed(axiom3)) {
 			mode = Flow.Mode.EXACTFLOW;
 		}
-		else if (reasoner.isEntailed(axiom2)) {
+		else if (getReasoner().isEntailed(axiom2)) {
 			mode = Flow.Mode.OVERFLOW;
 		}
-		else if (reasoner.isEntailed(axiom1)) {
+		else if (getReasoner().isEntailed(axiom1)) {
 			mode = Flow.Mode.UNDERFLOW;
 		}
 		else {
-			Set<OWLClass> set = reasoner.getSubClasses(source, true).getFlattened();
+			// the direct subclasses of each source are retrieved once
+			Set<OWLClass> set = cache.subclasses.get(source);
+			if (set == null) {
+				set = getReasoner().getSubClasses(source, true).getFlattened();
+				cache.subclasses.put(source, set);
+			}
 			final OWLClass nothing = factory.getOWLNothing();
 			for (OWLClass src : set) {
 				if (src.equals(nothing)) {
@@ -76,6 +171,53 @@ public abstract class Tracer {
 		return mode;
 	}
 	
+	private Flow.Mode getFlowRestriction(int source, int target) {
+		if (source == target) {
+			return Flow.Mode.EXACTFLOW;
+		}
+		else if (taxonomy.isSubClassOf(target, source)) {
+			return Flow.Mode.OVERFLOW;
+		}
+		else if (taxonomy.isSubClassOf(source, target)) {
+			return Flow.Mode.UNDERFLOW;
+		}
+		
+		/* Otherwise, a strict subclass of the source flows to the target, only if it is
+		 * also subsumed by the target, so the source and target share a descendant.
+		 */
+		if (getDescendants(source).intersects(getDescendants(target))) {
+			return Flow.Mode.UNDERFLOW;
+		}
+		return null;
+	}
+	
+	/**
+	 * Returns the ids of the given node and of all nodes below it, which are computed once
+	 * for each node.
+	 */
+	private BitSet getDescendants(int id) {
+		BitSet set = cache.descendants.get(id);
+		if (set != null) {
+			return set;
+		}
+		set = new BitSet(taxonomy.size());
+		set.set(id);
+		for (int c : taxonomy.getChildren(id)) {
+			set.or(getDescendants(c));
+		}
+		cache.descendants.put(id, set);
+		return set;
+	}
+	
+	/**
+	 * Holds the flow modes and hierarchy searches computed over one classification.
+	 */
+	private static class FlowCache {
+		private final HashMap<List<OWLClassExpression>,Flow.Mode> modes = new HashMap<List<OWLClassExpression>,Flow.Mode>();
+		private final HashMap<OWLClassExpression,Set<OWLClass>> subclasses = new HashMap<OWLClassExpression,Set<OWLClass>>();
+		private final HashMap<Integer,BitSet> descendants = new HashMap<Integer,BitSet>();
+	}
+	
 	/**
 	 * Describes a flow between two {@link Rule} objects. The flow has one of the following
 	 * modes to characterize the relationship between two {@link eddy.lang.RoleValue} in the rule: 
@@ -3,20 +3,32 @@ package eddy.lang.parser;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Properties;
+import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
-import org.semanticweb.HermiT.Reasoner;
 import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClass;
 import org.semanticweb.owlapi.model.OWLOntology;
 import org.semanticweb.owlapi.model.OWLOntologyManager;
 import org.semanticweb.owlapi.model.OWLOntologyStorageException;
-import org.semanticweb.owlapi.reasoner.BufferingMode;
+import org.semanticweb.owlapi.reasoner.InferenceType;
 import org.semanticweb.owlapi.reasoner.OWLReasoner;
-import org.semanticweb.owlapi.reasoner.SimpleConfiguration;
 
-import uk.ac.manchester.cs.factplusplus.owlapiv3.FaCTPlusPlusReasoner;
 import eddy.lang.Policy;
+import eddy.lang.Rule;
+import eddy.lang.Type;
+import eddy.lang.reasoner.ReasonerProvider;
+import eddy.lang.reasoner.SeededReasoner;
+import eddy.lang.reasoner.StoredTaxonomy;
+import eddy.lang.reasoner.TaxonomySnapshot;
 
 /**
  * Describes the {@link Compiler} result of a given {@link Policy}. The compilation includes
@@ -24,6 +36,19 @@ import eddy.lang.Policy;
  * are used to perform various kinds of policy analysis (see {@link eddy.lang.analysis} for
  * available analytics).
  * 
+ * The reasoner is created by a {@link ReasonerProvider}, which defaults to HermiT (see
+ * {@link ReasonerProvider#getDefault()}). Analyses may request additional reasoners over the
+ * same ontology from other providers using {@link #getReasoner(ReasonerProvider)}.
+ * 
+ * Reasoners are created on first use, so that compilations that are only saved or printed
+ * never pay for reasoner construction. Callers that know which inferences they will need
+ * may request them ahead of time using {@link #precompute(InferenceType...)}, or using
+ * {@link #precomputeInBackground(InferenceType...)} while preparing other work.
+ * 
+ * Rules and types may be added to and removed from a compilation without recompiling the
+ * policy. Only the affected axioms are changed, the reasoners are refreshed with the
+ * buffered changes, and {@link ChangeListener}s are notified of the affected classes.
+ * 
  * @author Travis Breaux
  */
 
@@ -31,18 +56,26 @@ public class Compilation {
 	private final Policy policy;
 	private final Compiler compiler;
 	private final OWLOntology ontology;
+	private final ReasonerProvider provider;
+	private final HashMap<ReasonerProvider,OWLReasoner> reasoners = new HashMap<ReasonerProvider,OWLReasoner>();
+	private final HashMap<ReasonerProvider,TaxonomySnapshot> snapshots = new HashMap<ReasonerProvider,TaxonomySnapshot>();
 	private OWLReasoner reasoner;
+	private CompilationCache cache = null;
 	private final Properties properties = new Properties();
+	private final CopyOnWriteArrayList<ChangeListener> listeners = new CopyOnWriteArrayList<ChangeListener>();
 	
 	public Compilation(Compiler compiler, Policy policy, OWLOntology ontology) {
+		this(compiler, policy, ontology, ReasonerProvider.getDefault());
+	}
+	
+	public Compilation(Compiler compiler, Policy policy, OWLOntology ontology, ReasonerProvider provider) {
 		this.policy = policy;
 		this.compiler = compiler;
 		this.ontology = ontology;
+		this.provider = provider;
 		
-		//this.reasoner = PelletReasonerFactory.getInstance().createNonBufferingReasoner(ontology);
-		//this.reasoner = new FaCTPlusPlusReasoner(ontology, new SimpleConfiguration(), BufferingMode.NON_BUFFERING);
-		this.reasoner = new Reasoner(ontology);
-		//this.reasoner = new SnorocketOWLReasoner(ontology, new SimpleConfiguration(), false);
+		// the reasoner is created on the first call to getReasoner()
+		this.reasoner = null;
 	}
 	
 	public Policy getPolicy() {
@@ -53,17 +86,284 @@ public class Compilation {
 		return ontology;
 	}
 	
-	public OWLReasoner getReasoner() {
+	public synchronized OWLReasoner getReasoner() {
+		if (reasoner == null) {
+			this.reasoner = provider.createReasoner(ontology);
+		}
+		return reasoner;
+	}
+	
+	/**
+	 * Seeds the default reasoner with a previously classified hierarchy of this
+	 * compilation's ontology (see {@link CompilationCache}). Requests that cannot be
+	 * answered from the hierarchy are forwarded to a reasoner from this compilation's
+	 * provider. The seed is ignored, if the default reasoner already exists.
+	 * 
+	 * @param taxonomy the classified hierarchy
+	 */
+	public synchronized void seedReasoner(StoredTaxonomy taxonomy) {
+		if (reasoner == null) {
+			this.reasoner = new SeededReasoner(ontology, taxonomy, provider);
+		}
+	}
+	
+	/**
+	 * Stores the class hierarchy of this compilation in the given cache, once the default
+	 * reasoner has classified it, when it is precomputed, a snapshot of it is taken, or
+	 * the compilation is disposed (see {@link CompilationCache#apply(Compilation)}). The
+	 * reasoner is not created or classified only to store the hierarchy.
+	 * 
+	 * @param cache the compilation cache
+	 */
+	synchronized void storeWhenClassified(CompilationCache cache) {
+		this.cache = cache;
+	}
+	
+	/**
+	 * Stores the class hierarchy, if it is pending and the default reasoner has classified
+	 * it. The caller must hold the lock of this compilation.
+	 */
+	private void storeIfClassified() {
+		if (cache != null && reasoner != null && reasoner.isPrecomputed(InferenceType.CLASS_HIERARCHY)) {
+			CompilationCache c = cache;
+			cache = null;
+			c.store(this);
+		}
+	}
+	
+	/**
+	 * Returns true, if the default reasoner has been created for this compilation.
+	 * 
+	 * @return true, if the reasoner exists
+	 */
+	public synchronized boolean hasReasoner() {
+		return reasoner != null;
+	}
+	
+	/**
+	 * Creates the default reasoner, if needed, and precomputes the given inference types.
+	 * If no types are given, then the class hierarchy is precomputed. The lock of this
+	 * compilation is held during precomputation, so that no other request reaches the
+	 * reasoner, which is not thread-safe, until it completes.
+	 * 
+	 * @param types the inference types to precompute
+	 * @return the default reasoner
+	 */
+	public synchronized OWLReasoner precompute(InferenceType... types) {
+		if (types.length == 0) {
+			types = new InferenceType[] { InferenceType.CLASS_HIERARCHY };
+		}
+		OWLReasoner reasoner = getReasoner();
+		reasoner.precomputeInferences(types);
+		storeIfClassified();
 		return reasoner;
 	}
 	
-	public void refreshReasoner() {
-		if (reasoner instanceof FaCTPlusPlusReasoner) {
-			reasoner = new FaCTPlusPlusReasoner(ontology, new SimpleConfiguration(), BufferingMode.NON_BUFFERING);
+	/**
+	 * Precomputes the given inference types on a background thread (see
+	 * {@link #precompute(InferenceType...)}). Calls to {@link #getReasoner()} and the other
+	 * reasoner requests of this compilation wait until precomputation completes. A reasoner
+	 * obtained before the call is not guarded, so callers that hold one must wait on the
+	 * returned future before querying it.
+	 * 
+	 * @param types the inference types to precompute
+	 * @return the future default reasoner
+	 */
+	public Future<OWLReasoner> precomputeInBackground(final InferenceType... types) {
+		FutureTask<OWLReasoner> task = new FutureTask<OWLReasoner>(new Callable<OWLReasoner>() {
+			public OWLReasoner call() {
+				return precompute(types);
+			}
+		});
+		Thread thread = new Thread(task, "precompute-" + ontology.getOntologyID());
+		thread.setDaemon(true);
+		thread.start();
+		return task;
+	}
+	
+	/**
+	 * Returns a reasoner over this compilation's ontology from the given provider. The
+	 * reasoner is created on the first request and reused thereafter. If the provider is
+	 * null or is this compilation's provider, then the default reasoner is returned.
+	 * 
+	 * @param provider the reasoner provider
+	 * @return the reasoner from the given provider
+	 */
+	public synchronized OWLReasoner getReasoner(ReasonerProvider provider) {
+		if (provider == null || provider == this.provider) {
+			return getReasoner();
+		}
+		OWLReasoner r = reasoners.get(provider);
+		if (r == null) {
+			r = provider.createReasoner(ontology);
+			reasoners.put(provider, r);
+		}
+		return r;
+	}
+	
+	public ReasonerProvider getReasonerProvider() {
+		return provider;
+	}
+	
+	/**
+	 * Returns an immutable snapshot of the class hierarchy computed by the default
+	 * reasoner. The snapshot is extracted on the first request and shared thereafter.
+	 * 
+	 * @return the class hierarchy snapshot
+	 */
+	public TaxonomySnapshot getTaxonomySnapshot() {
+		return getTaxonomySnapshot(null);
+	}
+	
+	/**
+	 * Returns an immutable snapshot of the class hierarchy computed by the reasoner from
+	 * the given provider (see {@link #getReasoner(ReasonerProvider)}). The snapshot is
+	 * discarded when the reasoners are refreshed.
+	 * 
+	 * @param provider the reasoner provider
+	 * @return the class hierarchy snapshot
+	 */
+	public synchronized TaxonomySnapshot getTaxonomySnapshot(ReasonerProvider provider) {
+		if (provider == null) {
+			provider = this.provider;
 		}
-		else {
-			reasoner.flush();
+		TaxonomySnapshot snapshot = snapshots.get(provider);
+		if (snapshot == null) {
+			snapshot = TaxonomySnapshot.create(getReasoner(provider));
+			snapshots.put(provider, snapshot);
+			storeIfClassified();
 		}
+		return snapshot;
+	}
+	
+	public synchronized void refreshReasoner() {
+		snapshots.clear();
+		if (reasoner != null) {
+			reasoner = provider.refreshReasoner(reasoner);
+		}
+		for (ReasonerProvider p : reasoners.keySet()) {
+			reasoners.put(p, p.refreshReasoner(reasoners.get(p)));
+		}
+	}
+	
+	/**
+	 * Adds the rule to the policy and compiles it into the existing ontology. The reasoners
+	 * are refreshed with the buffered changes, rather than recreated, and the change
+	 * listeners are notified of the affected classes.
+	 * 
+	 * @param rule the new rule
+	 * @return the classes in the signature of the added and removed axioms
+	 * @throws ParseException if the rule cannot be compiled
+	 */
+	public synchronized Set<OWLClass> addRule(Rule rule) throws ParseException {
+		Set<OWLAxiom> added = new HashSet<OWLAxiom>();
+		Set<OWLAxiom> removed = new HashSet<OWLAxiom>();
+		compiler.add(rule, added, removed);
+		policy.add(rule);
+		return changed(added, removed);
+	}
+	
+	/**
+	 * Removes the rule from the policy and retracts its axioms from the ontology (see
+	 * {@link #addRule(Rule)}).
+	 * 
+	 * @param rule the rule to remove
+	 * @return the classes in the signature of the added and removed axioms
+	 * @throws ParseException if the rule cannot be compiled
+	 */
+	public synchronized Set<OWLClass> removeRule(Rule rule) throws ParseException {
+		Set<OWLAxiom> added = new HashSet<OWLAxiom>();
+		Set<OWLAxiom> removed = new HashSet<OWLAxiom>();
+		compiler.remove(rule, added, removed);
+		policy.remove(rule);
+		return changed(added, removed);
+	}
+	
+	/**
+	 * Adds the type to the policy and compiles it into the existing ontology (see
+	 * {@link #addRule(Rule)}).
+	 * 
+	 * @param type the new type
+	 * @return the classes in the signature of the added and removed axioms
+	 * @throws ParseException if the type cannot be compiled
+	 */
+	public synchronized Set<OWLClass> addType(Type type) throws ParseException {
+		Set<OWLAxiom> added = new HashSet<OWLAxiom>();
+		Set<OWLAxiom> removed = new HashSet<OWLAxiom>();
+		compiler.add(type, added, removed);
+		policy.add(type);
+		return changed(added, removed);
+	}
+	
+	/**
+	 * Removes the type from the policy and retracts its axioms from the ontology (see
+	 * {@link #addRule(Rule)}).
+	 * 
+	 * @param type the type to remove
+	 * @return the classes in the signature of the added and removed axioms
+	 * @throws ParseException if the type cannot be compiled
+	 */
+	public synchronized Set<OWLClass> removeType(Type type) throws ParseException {
+		Set<OWLAxiom> added = new HashSet<OWLAxiom>();
+		Set<OWLAxiom> removed = new HashSet<OWLAxiom>();
+		compiler.remove(type, added, removed);
+		policy.remove(type);
+		return changed(added, removed);
+	}
+	
+	private Set<OWLClass> changed(Set<OWLAxiom> added, Set<OWLAxiom> removed) {
+		Set<OWLClass> affected = new HashSet<OWLClass>();
+		for (OWLAxiom axiom : added) {
+			affected.addAll(axiom.getClassesInSignature());
+		}
+		for (OWLAxiom axiom : removed) {
+			affected.addAll(axiom.getClassesInSignature());
+		}
+		if (added.isEmpty() && removed.isEmpty()) {
+			return affected;
+		}
+		
+		// flush the buffered changes to the existing reasoners
+		refreshReasoner();
+		for (ChangeListener l : listeners) {
+			l.compilationChanged(this, added, removed, affected);
+		}
+		return affected;
+	}
+	
+	public void addChangeListener(ChangeListener listener) {
+		listeners.add(listener);
+	}
+	
+	public void removeChangeListener(ChangeListener listener) {
+		listeners.remove(listener);
+	}
+	
+	/**
+	 * Disposes every reasoner created for this compilation and discards the hierarchy
+	 * snapshots. Reasoners requested afterwards are created anew.
+	 */
+	public synchronized void dispose() {
+		snapshots.clear();
+		storeIfClassified();
+		if (reasoner != null) {
+			dispose(reasoner);
+			reasoner = null;
+		}
+		for (OWLReasoner r : reasoners.values()) {
+			dispose(r);
+		}
+		reasoners.clear();
+	}
+	
+	/**
+	 * Disposes one reasoner of this compilation. Subclasses whose reasoners share an
+	 * ontology manager override this method to dispose while holding the manager's lock.
+	 * 
+	 * @param reasoner the reasoner
+	 */
+	protected void dispose(OWLReasoner reasoner) {
+		reasoner.dispose();
 	}
 	
 	public Compiler getCompiler() {
@@ -112,4 +412,22 @@ public class Compilation {
 				return null;
 			}
 		}
+	
+	/**
+	 * Receives the axiom changes of a {@link Compilation} that is edited incrementally, so
+	 * that caches derived from the compilation may be updated or discarded. Listeners are
+	 * notified after the reasoners have been refreshed.
+	 */
+	
+	public static interface ChangeListener {
+		/**
+		 * Notifies the listener that the ontology of the compilation has changed.
+		 * 
+		 * @param comp the changed compilation
+		 * @param added the added axioms
+		 * @param removed the removed axioms
+		 * @param affected the classes in the signature of the changed axioms
+		 */
+		public void compilationChanged(Compilation comp, Set<OWLAxiom> added, Set<OWLAxiom> removed, Set<OWLClass> affected);
+	}
 }
@@ -0,0 +1,196 @@
+package eddy.lang.parser;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.semanticweb.owlapi.reasoner.InferenceType;
+
+import eddy.lang.Policy;
+import eddy.lang.Rule;
+import eddy.lang.Type;
+import eddy.lang.reasoner.ReasonerProvider;
+import eddy.lang.reasoner.StoredTaxonomy;
+
+/**
+ * Stores the classified class hierarchy of each {@link Policy} in a directory, so that
+ * re-analyzing an unchanged policy does not require reclassification.
+ * Each entry is keyed by a digest of the policy namespace, types and rules, which are
+ * sorted to normalize their order, the version of the upper ontology (see
+ * {@link PolicyBase#getVersion()}) and the reasoner provider of the compilation, which is
+ * identified by its class and description, so that a hierarchy classified by one reasoner
+ * never seeds a compilation of another. An entry is the class hierarchy of the compiled
+ * ontology ("key.taxonomy", see {@link StoredTaxonomy}).
+ *
+ * The compiled ontology itself is not stored. The compiler translates the policy again on
+ * a hit, because translation is a linear pass that also rebuilds the compiler's
+ * declarations, which later edits and extensions of the compilation depend on, and which
+ * a loaded ontology would not restore. Classification is the step that the cache removes.
+ *
+ * When a cache is assigned to a {@link Compiler}, each compilation is seeded from a stored
+ * hierarchy, if one exists. Otherwise, the hierarchy is stored once the compilation has
+ * been classified for another reason, so that the compiler does not classify eagerly
+ * (see {@link Compilation#precompute(InferenceType...)}).
+ */
+
+public class CompilationCache {
+	private final File directory;
+	private int hits = 0, misses = 0;
+
+	public CompilationCache(File directory) {
+		this.directory = directory;
+		directory.mkdirs();
+	}
+
+	/**
+	 * Returns the cache key of the given policy, when classified by reasoners of the given
+	 * provider.
+	 *
+	 * @param policy the policy
+	 * @param provider the reasoner provider
+	 * @return the cache key
+	 * @throws ParseException if the upper ontology cannot be loaded
+	 */
+	public String key(Policy policy, ReasonerProvider provider) throws ParseException {
+		ArrayList<String> types = new ArrayList<String>();
+		for (Type type : policy.types()) {
+			types.add(type.type + " " + type.lhs + " " + type.op + " " + Arrays.toString(type.rhs));
+		}
+		Collections.sort(types);
+
+		ArrayList<String> rules = new ArrayList<String>();
+		for (Rule rule : policy.rules()) {
+			rules.add(rule.id + " " + rule.toString());
+		}
+		Collections.sort(rules);
+
+		ArrayList<String> list = new ArrayList<String>();
+		try {
+			list.add("BASE " + PolicyBase.getVersion());
+		}
+		catch (OWLOntologyCreationException e) {
+			throw new ParseException("Cannot load policy framework from: " + CompilerConstants.NS);
+		}
+		list.add("REASONER " + provider.getClass().getName() + " " + provider);
+		list.add("NAMESPACE " + policy.getAttribute("NAMESPACE"));
+		list.addAll(types);
+		list.addAll(rules);
+		return digest(list);
+	}
+
+	/**
+	 * Seeds the reasoner of the compilation from the stored class hierarchy, if the policy
+	 * is in the cache, or stores the hierarchy of the compilation once it is classified,
+	 * otherwise.
+	 *
+	 * @param comp the compilation
+	 * @return true, if the compilation was seeded from the cache
+	 * @throws ParseException if the upper ontology cannot be loaded
+	 */
+	public boolean apply(Compilation comp) throws ParseException {
+		String key = key(comp.getPolicy(), comp.getReasonerProvider());
+		File file = new File(directory, key + ".taxonomy");
+
+		if (file.exists()) {
+			OWLDataFactory factory = comp.getOntology().getOWLOntologyManager().getOWLDataFactory();
+			try {
+				FileReader reader = new FileReader(file);
+				try {
+					comp.seedReasoner(StoredTaxonomy.read(reader, factory));
+					synchronized (this) {
+						hits++;
+					}
+					return true;
+				}
+				finally {
+					reader.close();
+				}
+			}
+			catch (IOException e) {
+				// an unreadable entry is replaced below
+			}
+		}
+		synchronized (this) {
+			misses++;
+		}
+		comp.storeWhenClassified(this);
+		return false;
+	}
+
+	/**
+	 * Stores the class hierarchy of the classified compilation, under the key of its
+	 * current policy.
+	 */
+	void store(Compilation comp) {
+		String key;
+		try {
+			key = key(comp.getPolicy(), comp.getReasonerProvider());
+		}
+		catch (ParseException e) {
+			return;
+		}
+		StoredTaxonomy taxonomy = StoredTaxonomy.capture(comp.getReasoner());
+
+		// write to a temporary file first, so concurrent readers never see partial entries
+		try {
+			File temp = File.createTempFile(key, ".tmp", directory);
+			FileWriter writer = new FileWriter(temp);
+			try {
+				taxonomy.write(writer);
+			}
+			finally {
+				writer.close();
+			}
+			if (!temp.renameTo(new File(directory, key + ".taxonomy"))) {
+				temp.delete();
+			}
+		}
+		catch (IOException e) {
+			// the cache is only an optimization, so failures to store are ignored
+		}
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	public synchronized int getMisses() {
+		return misses;
+	}
+
+	static String digest(List<String> lines) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			for (String line : lines) {
+				md.update(line.getBytes("UTF-8"));
+				md.update((byte) '\n');
+			}
+			byte[] hash = md.digest();
+			StringBuilder s = new StringBuilder();
+			for (int i = 0; i < hash.length; i++) {
+				s.append(String.format("%02x", hash[i]));
+			}
+			return s.toString();
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -17,6 +17,7 @@ public interface CompilationProperties {
 	public final static String RULE_EX_RIGHT = "rule-exclusions-of-right";
 	public final static String EXT_COMPUTED = "extension-computed";
 	public final static String EXT_SIZE = "extension-size";
+	public final static String EXT_PRUNED = "extension-pruned";
 	public final static String LIMIT_COMPUTED = "limitation-computed";
 	public final static String LIMIT_SOURCE = "limitation-source";
 	public final static String LIMIT_TARGET = "limitation-target";
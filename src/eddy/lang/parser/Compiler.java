@@ -1,7 +1,7 @@
 package eddy.lang.parser;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
@@ -20,6 +20,7 @@ import org.semanticweb.owlapi.model.OWLOntology;
 import org.semanticweb.owlapi.model.OWLOntologyCreationException;
 import org.semanticweb.owlapi.model.OWLOntologyLoaderConfiguration;
 import org.semanticweb.owlapi.model.OWLOntologyManager;
+import org.semanticweb.owlapi.model.RemoveAxiom;
 import org.semanticweb.owlapi.model.UnloadableImportException;
 import org.semanticweb.owlapi.reasoner.OWLReasoner;
 
@@ -35,12 +36,17 @@ import eddy.lang.RoleValueVisitor;
 import eddy.lang.Rule;
 import eddy.lang.Rule.Modality;
 import eddy.lang.Type;
+import eddy.lang.reasoner.ReasonerProvider;
 
 /**
  * Translates {@link Policy} objects into {@link Compilation} objects. It is assumed that all
  * policy objects have a NAMESPACE attribute defined, otherwise the default namespace (see
  * {@link CompilerConstants#NS} will be used. 
  * 
+ * The upper ontology is resolved from the copy bundled with Eddy (see {@link PolicyBaseMapper}),
+ * and parsed only once per process (see {@link PolicyBase}). Classified compilations may be
+ * reused across processes (see {@link CompilationCache}).
+ * 
  * The compiler employs the {@link RoleValueVisitor} pattern to compile the {@link Role} in an
  * {@link Action} object.
  * 
@@ -55,14 +61,18 @@ public class Compiler implements CompilerConstants {
 	private final TreeMap<Modality,OWLClass> modality = new TreeMap<Modality,OWLClass>();
 	private final TreeMap<Role.Type,OWLObjectProperty> roles = new TreeMap<Role.Type,OWLObjectProperty>();
 	private final TreeSet<String> actions = new TreeSet<String>();
+	private final ArrayList<Type> types = new ArrayList<Type>();
 	private final TreeMap<Integer,TreeSet<String>> declared = new TreeMap<Integer,TreeSet<String>>();
 	private final TreeMap<Integer,TreeSet<String>> undeclared = new TreeMap<Integer,TreeSet<String>>();
 	public final OWLClass classActor, classDatum, classPurpose, classAction;
 	public final OWLObjectProperty roleObject, roleSource, roleTarget, rolePurpose, roleInstrument;
 	private final RoleValueCompiler valueCompiler = new RoleValueCompiler(this);
+	private boolean sharedPolicyBase = true;
+	private ReasonerProvider reasonerProvider = ReasonerProvider.getDefault();
+	private CompilationCache cache = null;
 	
 	public Compiler() {
-		this(OWLManager.createOWLOntologyManager());
+		this(createManager());
 	}
 	
 	public Compiler(OWLOntology ontology) {
@@ -71,10 +81,17 @@ public class Compiler implements CompilerConstants {
 		this.ns = ontology.getOntologyID().getOntologyIRI().toString();
 	}
 	
+	/**
+	 * Creates a compiler over the given manager. The upper ontology is resolved as the
+	 * manager's mappers direct, so callers that create the manager register a
+	 * {@link PolicyBaseMapper} with it to resolve the bundled copy.
+	 *
+	 * @param manager the ontology manager
+	 */
 	public Compiler(OWLOntologyManager manager) {
 		this.manager = manager;
 		this.factory = manager.getOWLDataFactory();
-		
+
 		// declare the actor, datum and purpose classes and declaration repositories
 		this.classActor = factory.getOWLClass(IRI.create(nsActor));
 		this.classDatum = factory.getOWLClass(IRI.create(nsDatum));
@@ -108,7 +125,17 @@ public class Compiler implements CompilerConstants {
 		roles.put(Role.Type.TARGET, roleTarget);
 		roles.put(Role.Type.INSTRUMENT, roleInstrument);
 	}
-	
+
+	/**
+	 * Creates the manager of a new compiler, which resolves the upper ontology to the
+	 * bundled copy, unless otherwise mapped.
+	 */
+	private static OWLOntologyManager createManager() {
+		OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+		manager.addIRIMapper(new PolicyBaseMapper());
+		return manager;
+	}
+
 	public Compilation compile(Policy policy) throws ParseException {
 		// setup the lower ontology namespace
 		this.ns = policy.getAttribute("NAMESPACE");
@@ -130,7 +157,12 @@ public class Compiler implements CompilerConstants {
 
 		manager.applyChange(new AddImport(ontology, decl));
 		try {
-			manager.loadOntology(IRI.create(NS));
+			if (sharedPolicyBase) {
+				PolicyBase.attach(manager);
+			}
+			else {
+				manager.loadOntology(IRI.create(NS));
+			}
 			manager.makeLoadImportRequest(decl, conf);
 		} catch (UnloadableImportException e) {
 			throw new ParseException("Cannot load policy framework from: " + NS);
@@ -154,35 +186,27 @@ public class Compiler implements CompilerConstants {
 		}
 		
 		// declare undeclared top-level subclasses for actors and purposes
-		TreeSet<String> names;
-		names = undeclared.get(Type.CLASS_ACTOR);
-		for (Iterator<String> i = names.iterator(); i.hasNext();) {
-			String name = i.next();
-			OWLClass sub = factory.getOWLClass(IRI.create(ns + "#" + name));
-			OWLAxiom axiom = factory.getOWLSubClassOfAxiom(sub, classActor);
-			manager.applyChange(new AddAxiom(ontology, axiom));
-		}
-		names = undeclared.get(Type.CLASS_PURPOSE);
-		for (Iterator<String> i = names.iterator(); i.hasNext();) {
-			String name = i.next();
-			OWLClass sub = factory.getOWLClass(IRI.create(ns + "#" + name));
-			OWLAxiom axiom = factory.getOWLSubClassOfAxiom(sub, classPurpose);
-			manager.applyChange(new AddAxiom(ontology, axiom));
-		}
-		names = undeclared.get(Type.CLASS_DATUM);
-		for (Iterator<String> i = names.iterator(); i.hasNext();) {
-			String name = i.next();
-			OWLClass sub = factory.getOWLClass(IRI.create(ns + "#" + name));
-			OWLAxiom axiom = factory.getOWLSubClassOfAxiom(sub, classDatum);
-			manager.applyChange(new AddAxiom(ontology, axiom));
-		}
+		declareUndeclared(new HashSet<OWLAxiom>(), new HashSet<OWLAxiom>());
 		
-		Compilation comp = new Compilation(this, policy, ontology);
+		Compilation comp = new Compilation(this, policy, ontology, reasonerProvider);
 		//assumeDisjointnessProperty(comp, classPurpose);
+		
+		// seed the reasoner from, or store the classification in, the compilation cache
+		if (cache != null) {
+			cache.apply(comp);
+		}
 		return comp;
 	}
 	
 	public void compile(Rule rule) throws ParseException {
+		for (OWLAxiom axiom : getAxioms(rule)) {
+			manager.applyChange(new AddAxiom(ontology, axiom));
+		}
+	}
+	
+	private Set<OWLAxiom> getAxioms(Rule rule) throws ParseException {
+		Set<OWLAxiom> axioms = new HashSet<OWLAxiom>();
+		
 		// select the modality class
 		OWLClass modality = this.modality.get(rule.modality);
 		
@@ -191,17 +215,18 @@ public class Compiler implements CompilerConstants {
 
 		// declare the identity is a subclass of its modality and a rule
 		OWLAxiom axiom1 = factory.getOWLSubClassOfAxiom(identity, modality);
-		manager.applyChange(new AddAxiom(ontology, axiom1));
+		axioms.add(axiom1);
 		
 		final OWLClass ruleClass = factory.getOWLClass(IRI.create(nsRule));
 		OWLAxiom axiom2 = factory.getOWLSubClassOfAxiom(identity, ruleClass);
-		manager.applyChange(new AddAxiom(ontology, axiom2));
+		axioms.add(axiom2);
 
 		OWLClassExpression expr = compile(rule.action);
 
 		// declare the equivalence axiom for this rule
 		OWLAxiom axiom3 = factory.getOWLEquivalentClassesAxiom(identity, expr);
-		manager.applyChange(new AddAxiom(ontology, axiom3));
+		axioms.add(axiom3);
+		return axioms;
 	}
 	
 	public OWLClassExpression compile(Role role) throws ParseException {
@@ -296,55 +321,204 @@ public class Compiler implements CompilerConstants {
 	}
 	
 	public void compile(Type type) throws ParseException {
+		for (OWLAxiom axiom : getAxioms(type)) {
+			manager.applyChange(new AddAxiom(ontology, axiom));
+		}
+		declare(type);
+		types.add(type);
+	}
+	
+	private Set<OWLAxiom> getAxioms(Type type) throws ParseException {
+		Set<OWLAxiom> axioms = new HashSet<OWLAxiom>();
+		
+		if (type.op < Type.SUBCLASS || type.op > Type.EQUIVALENT) {
+			throw new ParseException("Unrecognized type operator: " + type.op);
+		}
+		
 		// create the owl class for the lhs and rhs
 		OWLClass lhs = factory.getOWLClass(IRI.create(ns + "#" + type.lhs));
 		
+		for (int i = 0; i < type.rhs.length; i++) {
+			OWLClass rhs = factory.getOWLClass(IRI.create(ns + "#" + type.rhs[i]));
+			switch (type.op) {
+				case Type.SUBCLASS:
+					axioms.add(factory.getOWLSubClassOfAxiom(lhs, rhs));
+					break;
+				case Type.SUPERCLASS:
+					axioms.add(factory.getOWLSubClassOfAxiom(rhs, lhs));
+					break;
+				case Type.DISJOINT:
+					axioms.add(factory.getOWLDisjointClassesAxiom(lhs, rhs));
+					break;
+				case Type.EQUIVALENT:
+					axioms.add(factory.getOWLEquivalentClassesAxiom(rhs, lhs));
+					break;
+			}
+		}
+		return axioms;
+	}
+	
+	private void declare(Type type) {
 		// all left-hand side names are added to the undeclared repository
 		switch (type.op) {
 			case Type.SUBCLASS:
 				// all subclass types are declared
 				declared.get(type.type).add(type.lhs);
-				
 				for (int i = 0; i < type.rhs.length; i++) {
-					OWLClass rhs = factory.getOWLClass(IRI.create(ns + "#" + type.rhs[i]));
-					OWLAxiom axiom = factory.getOWLSubClassOfAxiom(lhs, rhs);
-					manager.applyChange(new AddAxiom(ontology, axiom));
 					undeclared.get(type.type).add(type.rhs[i]);
 				}
 				break;
 			case Type.SUPERCLASS:
 				// all superclass types are undeclared, until declared later
 				undeclared.get(type.type).add(type.lhs);
-				
 				for (int i = 0; i < type.rhs.length; i++) {
-					OWLClass rhs = factory.getOWLClass(IRI.create(ns + "#" + type.rhs[i]));
-					OWLAxiom axiom = factory.getOWLSubClassOfAxiom(rhs, lhs);
-					manager.applyChange(new AddAxiom(ontology, axiom));
 					declared.get(type.type).add(type.rhs[i]);
 				}
 				break;
-			case Type.DISJOINT:
+			default:
+				// disjoint and equivalent types are undeclared, until declared later ???
 				undeclared.get(type.type).add(type.lhs);
 				for (int i = 0; i < type.rhs.length; i++) {
-					OWLClass rhs = factory.getOWLClass(IRI.create(ns + "#" + type.rhs[i]));
-					OWLAxiom axiom = factory.getOWLDisjointClassesAxiom(lhs, rhs);
-					manager.applyChange(new AddAxiom(ontology, axiom));
 					undeclared.get(type.type).add(type.rhs[i]);
 				}
-				break;
-			case Type.EQUIVALENT:
-				// all superclass types are undeclared, until declared later ???
-				undeclared.get(type.type).add(type.lhs);
-				for (int i = 0; i < type.rhs.length; i++) {
-					OWLClass rhs = factory.getOWLClass(IRI.create(ns + "#" + type.rhs[i]));
-					OWLAxiom axiom = factory.getOWLEquivalentClassesAxiom(rhs, lhs);
+		}
+	}
+	
+	/**
+	 * Declares each undeclared actor, datum and purpose as a top-level subclass of its
+	 * upper ontology class, and retracts that declaration from names that have since been
+	 * declared by a type.
+	 */
+	private void declareUndeclared(Set<OWLAxiom> added, Set<OWLAxiom> removed) {
+		TreeMap<Integer,OWLClass> top = new TreeMap<Integer,OWLClass>();
+		top.put(Type.CLASS_ACTOR, classActor);
+		top.put(Type.CLASS_DATUM, classDatum);
+		top.put(Type.CLASS_PURPOSE, classPurpose);
+		
+		for (Integer t : top.keySet()) {
+			undeclared.get(t).removeAll(declared.get(t));
+			for (String name : undeclared.get(t)) {
+				OWLClass sub = factory.getOWLClass(IRI.create(ns + "#" + name));
+				OWLAxiom axiom = factory.getOWLSubClassOfAxiom(sub, top.get(t));
+				if (!ontology.containsAxiom(axiom)) {
 					manager.applyChange(new AddAxiom(ontology, axiom));
-					undeclared.get(type.type).add(type.rhs[i]);
+					added.add(axiom);
 				}
+			}
+			for (String name : declared.get(t)) {
+				OWLClass sub = factory.getOWLClass(IRI.create(ns + "#" + name));
+				OWLAxiom axiom = factory.getOWLSubClassOfAxiom(sub, top.get(t));
+				if (ontology.containsAxiom(axiom)) {
+					manager.applyChange(new RemoveAxiom(ontology, axiom));
+					removed.add(axiom);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Compiles the rule into the ontology of the last compiled policy, and collects the
+	 * axioms added to the ontology, including the declarations of new actions and role
+	 * values (see {@link Compilation#addRule(Rule)}).
+	 * 
+	 * @param rule the new rule
+	 * @param added the set that receives the added axioms
+	 * @param removed the set that receives the removed axioms
+	 * @throws ParseException if the rule cannot be compiled
+	 */
+	public void add(Rule rule, Set<OWLAxiom> added, Set<OWLAxiom> removed) throws ParseException {
+		boolean known = actions.contains(rule.action.name);
+		Set<OWLAxiom> axioms = getAxioms(rule);
+		if (!known) {
+			OWLClass act = factory.getOWLClass(IRI.create(ns + "#" + rule.action.name));
+			added.add(factory.getOWLSubClassOfAxiom(act, classAction));
+		}
+		add(axioms, added);
+		declareUndeclared(added, removed);
+	}
+	
+	/**
+	 * Retracts the axioms of the rule from the ontology of the last compiled policy. The
+	 * declarations of actions and role values are retained.
+	 * 
+	 * @param rule the rule to remove
+	 * @param added the set that receives the added axioms
+	 * @param removed the set that receives the removed axioms
+	 * @throws ParseException if the rule cannot be compiled
+	 */
+	public void remove(Rule rule, Set<OWLAxiom> added, Set<OWLAxiom> removed) throws ParseException {
+		remove(getAxioms(rule), removed);
+	}
+	
+	/**
+	 * Compiles the type into the ontology of the last compiled policy, and collects the
+	 * axioms added to and removed from the ontology, where the top-level declarations of
+	 * the newly declared names are removed.
+	 * 
+	 * @param type the new type
+	 * @param added the set that receives the added axioms
+	 * @param removed the set that receives the removed axioms
+	 * @throws ParseException if the type cannot be compiled
+	 */
+	public void add(Type type, Set<OWLAxiom> added, Set<OWLAxiom> removed) throws ParseException {
+		add(getAxioms(type), added);
+		declare(type);
+		types.add(type);
+		declareUndeclared(added, removed);
+	}
+	
+	/**
+	 * Retracts the axioms of the type from the ontology of the last compiled policy, except
+	 * for axioms also entailed by another compiled type. Names that are no longer declared
+	 * by any type are declared as top-level subclasses.
+	 * 
+	 * @param type the type to remove
+	 * @param added the set that receives the added axioms
+	 * @param removed the set that receives the removed axioms
+	 * @throws ParseException if the type cannot be compiled
+	 */
+	public void remove(Type type, Set<OWLAxiom> added, Set<OWLAxiom> removed) throws ParseException {
+		for (int i = 0; i < types.size(); i++) {
+			if (types.get(i) == type) {
+				types.remove(i);
 				break;
-				
-			default:
-				throw new ParseException("Unrecognized type operator: " + type.op);
+			}
+		}
+		Set<OWLAxiom> axioms = getAxioms(type);
+		for (Type t : types) {
+			axioms.removeAll(getAxioms(t));
+		}
+		remove(axioms, removed);
+		
+		// recompute the declared names from the remaining types
+		for (Integer t : declared.keySet()) {
+			declared.get(t).clear();
+		}
+		for (Type t : types) {
+			declare(t);
+		}
+		undeclared.get(type.type).add(type.lhs);
+		for (int i = 0; i < type.rhs.length; i++) {
+			undeclared.get(type.type).add(type.rhs[i]);
+		}
+		declareUndeclared(added, removed);
+	}
+	
+	private void add(Set<OWLAxiom> axioms, Set<OWLAxiom> added) {
+		for (OWLAxiom axiom : axioms) {
+			if (!ontology.containsAxiom(axiom)) {
+				manager.applyChange(new AddAxiom(ontology, axiom));
+				added.add(axiom);
+			}
+		}
+	}
+	
+	private void remove(Set<OWLAxiom> axioms, Set<OWLAxiom> removed) {
+		for (OWLAxiom axiom : axioms) {
+			if (ontology.containsAxiom(axiom)) {
+				manager.applyChange(new RemoveAxiom(ontology, axiom));
+				removed.add(axiom);
+			}
 		}
 	}
 	
@@ -419,6 +593,45 @@ public class Compiler implements CompilerConstants {
 		return manager;
 	}
 	
+	public ReasonerProvider getReasonerProvider() {
+		return reasonerProvider;
+	}
+	
+	/**
+	 * Sets the provider of the default reasoner for compilations from this compiler.
+	 * 
+	 * @param provider the reasoner provider
+	 */
+	public void setReasonerProvider(ReasonerProvider provider) {
+		this.reasonerProvider = provider;
+	}
+	
+	public CompilationCache getCompilationCache() {
+		return cache;
+	}
+	
+	/**
+	 * Sets the cache of classified compilations. If set, each compilation's reasoner is
+	 * seeded from the cached class hierarchy of an identical policy, or the compilation's
+	 * hierarchy is cached once it has been classified. If null, no cache is used.
+	 * 
+	 * @param cache the compilation cache
+	 */
+	public void setCompilationCache(CompilationCache cache) {
+		this.cache = cache;
+	}
+	
+	/**
+	 * Sets whether the upper ontology is attached from the shared, pre-parsed copy (see 
+	 * {@link PolicyBase}), or loaded through this manager's IRI mappers. The shared copy
+	 * is used by default; disable it to load the upper ontology from a custom mapping.
+	 * 
+	 * @param shared true, if the shared upper ontology should be used
+	 */
+	public void setSharedPolicyBase(boolean shared) {
+		this.sharedPolicyBase = shared;
+	}
+	
 	public OWLObjectProperty getRole(Role.Type type) {
 		return roles.get(type);
 	}
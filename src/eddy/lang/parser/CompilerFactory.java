@@ -4,6 +4,8 @@ import java.util.ArrayList;
 
 import org.semanticweb.owlapi.util.SimpleIRIMapper;
 
+import eddy.lang.reasoner.ReasonerProvider;
+
 /**
  * Provides a factory method to create multiple {@link Compiler} objects. For example, this
  * is used in the {@link eddy.lang.analysis.CrossFlowTracer} to create unique compilers for 
@@ -16,13 +18,25 @@ import org.semanticweb.owlapi.util.SimpleIRIMapper;
 
 public class CompilerFactory {
 	private final ArrayList<SimpleIRIMapper> mappers = new ArrayList<SimpleIRIMapper>();
+	private ReasonerProvider reasonerProvider = ReasonerProvider.getDefault();
+	private CompilationCache cache = null;
 	
 	public void addIRIMapper(SimpleIRIMapper mapper) {
 		mappers.add(mapper);
 	}
 	
+	public void setReasonerProvider(ReasonerProvider provider) {
+		this.reasonerProvider = provider;
+	}
+	
+	public void setCompilationCache(CompilationCache cache) {
+		this.cache = cache;
+	}
+	
 	public Compiler createCompiler() {
 		Compiler compiler = new Compiler();
+		compiler.setReasonerProvider(reasonerProvider);
+		compiler.setCompilationCache(cache);
 		
 		for (SimpleIRIMapper mapper : mappers) {
 			compiler.getManager().addIRIMapper(mapper);
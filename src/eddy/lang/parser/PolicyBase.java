@@ -0,0 +1,87 @@
+package eddy.lang.parser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+
+/**
+ * Provides a process-wide copy of the upper ontology {@link CompilerConstants#NS}. The
+ * ontology is parsed once from the bundled document (see {@link PolicyBaseMapper}) and
+ * the resulting axioms, including the entity declarations, are retained in an immutable
+ * set. Each new {@link OWLOntologyManager} receives the upper ontology by copying this
+ * axiom set into a fresh ontology, which avoids re-parsing the document for every
+ * {@link Compiler} and for every extension block.
+ */
+
+public class PolicyBase implements CompilerConstants {
+	private static Set<OWLAxiom> axioms = null;
+	private static String version = null;
+
+	private PolicyBase() {
+		return;
+	}
+
+	/**
+	 * Returns the immutable set of axioms that comprise the upper ontology. The ontology
+	 * is loaded on the first call to this method.
+	 *
+	 * @return the upper ontology axioms
+	 * @throws OWLOntologyCreationException if the bundled upper ontology cannot be loaded
+	 */
+
+	public static synchronized Set<OWLAxiom> getAxioms() throws OWLOntologyCreationException {
+		if (axioms == null) {
+			OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+			manager.addIRIMapper(new PolicyBaseMapper());
+			OWLOntology ontology = manager.loadOntology(IRI.create(NS));
+			axioms = Collections.unmodifiableSet(ontology.getAxioms());
+		}
+		return axioms;
+	}
+
+	/**
+	 * Returns a digest of the upper ontology axioms, which identifies the version of the 
+	 * upper ontology against which policies are compiled (see {@link CompilationCache}).
+	 * 
+	 * @return the upper ontology version digest
+	 * @throws OWLOntologyCreationException if the bundled upper ontology cannot be loaded
+	 */
+	
+	public static synchronized String getVersion() throws OWLOntologyCreationException {
+		if (version == null) {
+			ArrayList<String> list = new ArrayList<String>();
+			for (OWLAxiom axiom : getAxioms()) {
+				list.add(axiom.toString());
+			}
+			Collections.sort(list);
+			version = CompilationCache.digest(list);
+		}
+		return version;
+	}
+
+	/**
+	 * Attaches the upper ontology to the given manager. If the manager already contains
+	 * the upper ontology, then the existing ontology is returned; otherwise, a new ontology
+	 * is created from the shared axiom set without parsing.
+	 *
+	 * @param manager the manager to receive the upper ontology
+	 * @return the upper ontology in the given manager
+	 * @throws OWLOntologyCreationException if the upper ontology cannot be created
+	 */
+
+	public static OWLOntology attach(OWLOntologyManager manager) throws OWLOntologyCreationException {
+		IRI iri = IRI.create(NS);
+		if (manager.contains(iri)) {
+			return manager.getOntology(iri);
+		}
+		OWLOntology ontology = manager.createOntology(getAxioms(), iri);
+		return ontology;
+	}
+}
@@ -0,0 +1,56 @@
+package eddy.lang.parser;
+
+import java.net.URISyntaxException;
+import java.net.URL;
+
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLOntologyIRIMapper;
+
+/**
+ * Maps the upper ontology {@link CompilerConstants#NS} to the copy of the policy-base
+ * ontology that is bundled with the Eddy distribution. This mapper is registered once with
+ * each {@link org.semanticweb.owlapi.model.OWLOntologyManager} that Eddy creates, including
+ * the manager of each {@link Compiler} created without one, so that compiling a policy
+ * does not require network access to the upper ontology namespace.
+ *
+ * Mappers added to a manager after this mapper take precedence, which allows callers to
+ * continue to redirect the upper ontology to a local file using a
+ * {@link org.semanticweb.owlapi.util.SimpleIRIMapper}.
+ */
+
+public class PolicyBaseMapper implements OWLOntologyIRIMapper, CompilerConstants {
+	public final static String RESOURCE = "policy-base.owl";
+	private final static IRI ontologyIRI = IRI.create(NS);
+	private final static IRI documentIRI = findDocumentIRI();
+
+	public IRI getDocumentIRI(IRI iri) {
+		if (ontologyIRI.equals(iri)) {
+			return documentIRI;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the document IRI of the bundled upper ontology, or null, if the resource
+	 * was not packaged with this distribution.
+	 *
+	 * @return the document IRI of the bundled policy-base ontology
+	 */
+
+	public static IRI getDocumentIRI() {
+		return documentIRI;
+	}
+
+	private static IRI findDocumentIRI() {
+		URL url = PolicyBaseMapper.class.getResource(RESOURCE);
+		if (url == null) {
+			return null;
+		}
+		try {
+			return IRI.create(url.toURI());
+		}
+		catch (URISyntaxException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,231 @@
+package eddy.lang.reasoner;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLNamedIndividual;
+import org.semanticweb.owlapi.reasoner.NodeSet;
+import org.semanticweb.owlapi.reasoner.OWLReasoner;
+
+/**
+ * Decorates an {@link OWLReasoner} with a bounded cache of query results. The results of
+ * {@link #getSubClasses(OWLClassExpression, boolean)},
+ * {@link #getSuperClasses(OWLClassExpression, boolean)},
+ * {@link #getTypes(OWLNamedIndividual, boolean)} and {@link #isEntailed(OWLAxiom)} are
+ * keyed by the structure of the query, so that equal class expressions built separately
+ * share a result. When the cache is full, the least recently used result is evicted. The
+ * cache is cleared whenever the reasoner is flushed.
+ *
+ * Each reasoner records the number of cache hits and misses, and the time spent in the
+ * decorated reasoner answering the misses, in a {@link Statistics} object, which may be
+ * shared by several reasoners (see {@link CachingReasonerProvider}).
+ */
+
+public class CachingReasoner extends DelegatingReasoner {
+	public final static int DEFAULT_CAPACITY = 10000;
+	private final OWLReasoner delegate;
+	private final Statistics statistics;
+	private final LinkedHashMap<Query,Object> cache;
+
+	public CachingReasoner(OWLReasoner delegate) {
+		this(delegate, DEFAULT_CAPACITY, new Statistics());
+	}
+
+	public CachingReasoner(OWLReasoner delegate, final int capacity, Statistics statistics) {
+		this.delegate = delegate;
+		this.statistics = statistics;
+		this.cache = new LinkedHashMap<Query,Object>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			protected boolean removeEldestEntry(Map.Entry<Query,Object> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	protected OWLReasoner getDelegate() {
+		return delegate;
+	}
+
+	public Statistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Removes all cached results, for example, after the ontology has changed in a way that
+	 * is visible to the decorated reasoner without a flush.
+	 */
+	public synchronized void invalidate() {
+		cache.clear();
+	}
+
+	public synchronized void flush() {
+		cache.clear();
+		delegate.flush();
+	}
+
+	@SuppressWarnings("unchecked")
+	public synchronized NodeSet<OWLClass> getSubClasses(OWLClassExpression ce, boolean direct) {
+		Query q = new Query(Query.SUBCLASSES, ce, direct);
+		NodeSet<OWLClass> result = (NodeSet<OWLClass>) cache.get(q);
+		if (result == null) {
+			long time = System.nanoTime();
+			result = delegate.getSubClasses(ce, direct);
+			statistics.miss(System.nanoTime() - time);
+			cache.put(q, result);
+		}
+		else {
+			statistics.hit();
+		}
+		return result;
+	}
+
+	@SuppressWarnings("unchecked")
+	public synchronized NodeSet<OWLClass> getSuperClasses(OWLClassExpression ce, boolean direct) {
+		Query q = new Query(Query.SUPERCLASSES, ce, direct);
+		NodeSet<OWLClass> result = (NodeSet<OWLClass>) cache.get(q);
+		if (result == null) {
+			long time = System.nanoTime();
+			result = delegate.getSuperClasses(ce, direct);
+			statistics.miss(System.nanoTime() - time);
+			cache.put(q, result);
+		}
+		else {
+			statistics.hit();
+		}
+		return result;
+	}
+
+	@SuppressWarnings("unchecked")
+	public synchronized NodeSet<OWLClass> getTypes(OWLNamedIndividual ind, boolean direct) {
+		Query q = new Query(Query.TYPES, ind, direct);
+		NodeSet<OWLClass> result = (NodeSet<OWLClass>) cache.get(q);
+		if (result == null) {
+			long time = System.nanoTime();
+			result = delegate.getTypes(ind, direct);
+			statistics.miss(System.nanoTime() - time);
+			cache.put(q, result);
+		}
+		else {
+			statistics.hit();
+		}
+		return result;
+	}
+
+	public synchronized boolean isEntailed(OWLAxiom axiom) {
+		Query q = new Query(Query.ENTAILED, axiom, false);
+		Boolean result = (Boolean) cache.get(q);
+		if (result == null) {
+			long time = System.nanoTime();
+			result = delegate.isEntailed(axiom);
+			statistics.miss(System.nanoTime() - time);
+			cache.put(q, result);
+		}
+		else {
+			statistics.hit();
+		}
+		return result;
+	}
+
+	public synchronized boolean isEntailed(Set<? extends OWLAxiom> axioms) {
+		for (OWLAxiom axiom : axioms) {
+			if (!isEntailed(axiom)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Describes a cached query by its kind, its structural argument and the direct flag.
+	 */
+	private static class Query {
+		private final static int SUBCLASSES = 0, SUPERCLASSES = 1, TYPES = 2, ENTAILED = 3;
+		private final int kind;
+		private final Object arg;
+		private final boolean direct;
+		private final int hash;
+
+		private Query(int kind, Object arg, boolean direct) {
+			this.kind = kind;
+			this.arg = arg;
+			this.direct = direct;
+			this.hash = (arg.hashCode() * 31 + kind) * 2 + (direct ? 1 : 0);
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Query)) {
+				return false;
+			}
+			Query q = (Query) o;
+			return kind == q.kind && direct == q.direct && arg.equals(q.arg);
+		}
+	}
+
+	/**
+	 * Records the number of cache hits and misses, and the total time spent answering the
+	 * misses, across one or more caching reasoners.
+	 */
+	public static class Statistics {
+		private long hits = 0, misses = 0, missTime = 0;
+
+		private synchronized void hit() {
+			hits++;
+		}
+
+		private synchronized void miss(long time) {
+			misses++;
+			missTime += time;
+		}
+
+		public synchronized long getHits() {
+			return hits;
+		}
+
+		public synchronized long getMisses() {
+			return misses;
+		}
+
+		/**
+		 * Returns the total time spent in the decorated reasoners answering cache misses.
+		 *
+		 * @return the time in nanoseconds
+		 */
+		public synchronized long getMissTime() {
+			return missTime;
+		}
+
+		/**
+		 * Returns the average time spent in the decorated reasoner per cache miss, which
+		 * estimates the time saved by each cache hit.
+		 *
+		 * @return the average time in nanoseconds
+		 */
+		public synchronized long getAverageMissTime() {
+			return misses == 0 ? 0 : missTime / misses;
+		}
+
+		public synchronized double getHitRatio() {
+			long total = hits + misses;
+			return total == 0 ? 0.0 : (double) hits / total;
+		}
+
+		public synchronized void reset() {
+			hits = 0;
+			misses = 0;
+			missTime = 0;
+		}
+
+		public synchronized String toString() {
+			return "hits=" + hits + ", misses=" + misses + ", hit-ratio=" + String.format("%.3f", getHitRatio())
+					+ ", miss-time=" + (missTime / 1000000) + "ms, saved~" + ((hits * getAverageMissTime()) / 1000000) + "ms";
+		}
+	}
+}
@@ -0,0 +1,48 @@
+package eddy.lang.reasoner;
+
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.reasoner.OWLReasoner;
+
+/**
+ * Provides {@link CachingReasoner}s that decorate the reasoners of another provider. All
+ * reasoners created by this provider record their cache hits and misses in one shared
+ * {@link CachingReasoner.Statistics} object.
+ */
+
+public class CachingReasonerProvider extends ReasonerProvider {
+	private final ReasonerProvider provider;
+	private final int capacity;
+	private final CachingReasoner.Statistics statistics = new CachingReasoner.Statistics();
+
+	public CachingReasonerProvider(ReasonerProvider provider) {
+		this(provider, CachingReasoner.DEFAULT_CAPACITY);
+	}
+
+	public CachingReasonerProvider(ReasonerProvider provider, int capacity) {
+		this.provider = provider;
+		this.capacity = capacity;
+	}
+
+	public OWLReasoner createReasoner(OWLOntology ontology) {
+		return new CachingReasoner(provider.createReasoner(ontology), capacity, statistics);
+	}
+
+	public OWLReasoner refreshReasoner(OWLReasoner reasoner) {
+		// the decorated reasoner may be replaced by its provider, so decorate it again
+		CachingReasoner r = (CachingReasoner) reasoner;
+		OWLReasoner d = provider.refreshReasoner(r.getDelegate());
+		if (d == r.getDelegate()) {
+			r.invalidate();
+			return r;
+		}
+		return new CachingReasoner(d, capacity, statistics);
+	}
+
+	public CachingReasoner.Statistics getStatistics() {
+		return statistics;
+	}
+
+	public String toString() {
+		return "Caching " + provider;
+	}
+}
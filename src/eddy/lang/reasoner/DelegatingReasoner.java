@@ -0,0 +1,191 @@
+package eddy.lang.reasoner;
+
+import java.util.List;
+import java.util.Set;
+
+import org.semanticweb.owlapi.model.AxiomType;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLDataProperty;
+import org.semanticweb.owlapi.model.OWLDataPropertyExpression;
+import org.semanticweb.owlapi.model.OWLLiteral;
+import org.semanticweb.owlapi.model.OWLNamedIndividual;
+import org.semanticweb.owlapi.model.OWLObjectPropertyExpression;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+import org.semanticweb.owlapi.reasoner.BufferingMode;
+import org.semanticweb.owlapi.reasoner.FreshEntityPolicy;
+import org.semanticweb.owlapi.reasoner.IndividualNodeSetPolicy;
+import org.semanticweb.owlapi.reasoner.InferenceType;
+import org.semanticweb.owlapi.reasoner.Node;
+import org.semanticweb.owlapi.reasoner.NodeSet;
+import org.semanticweb.owlapi.reasoner.OWLReasoner;
+import org.semanticweb.owlapi.util.Version;
+
+/**
+ * Forwards every {@link OWLReasoner} request to a delegate reasoner. Subclasses override
+ * the requests that they answer directly, and obtain the delegate through
+ * {@link #getDelegate()}, which allows the delegate to be created on first use.
+ */
+
+public abstract class DelegatingReasoner implements OWLReasoner {
+
+	/**
+	 * Returns the reasoner to which unanswered requests are forwarded.
+	 *
+	 * @return the delegate reasoner
+	 */
+	protected abstract OWLReasoner getDelegate();
+
+	public String getReasonerName() {
+		return getDelegate().getReasonerName();
+	}
+	public Version getReasonerVersion() {
+		return getDelegate().getReasonerVersion();
+	}
+	public BufferingMode getBufferingMode() {
+		return getDelegate().getBufferingMode();
+	}
+	public void flush() {
+		getDelegate().flush();
+	}
+	public List<OWLOntologyChange> getPendingChanges() {
+		return getDelegate().getPendingChanges();
+	}
+	public Set<OWLAxiom> getPendingAxiomAdditions() {
+		return getDelegate().getPendingAxiomAdditions();
+	}
+	public Set<OWLAxiom> getPendingAxiomRemovals() {
+		return getDelegate().getPendingAxiomRemovals();
+	}
+	public OWLOntology getRootOntology() {
+		return getDelegate().getRootOntology();
+	}
+	public void interrupt() {
+		getDelegate().interrupt();
+	}
+	public void precomputeInferences(InferenceType... inferenceTypes) {
+		getDelegate().precomputeInferences(inferenceTypes);
+	}
+	public boolean isPrecomputed(InferenceType inferenceType) {
+		return getDelegate().isPrecomputed(inferenceType);
+	}
+	public Set<InferenceType> getPrecomputableInferenceTypes() {
+		return getDelegate().getPrecomputableInferenceTypes();
+	}
+	public boolean isConsistent() {
+		return getDelegate().isConsistent();
+	}
+	public boolean isSatisfiable(OWLClassExpression classExpression) {
+		return getDelegate().isSatisfiable(classExpression);
+	}
+	public Node<OWLClass> getUnsatisfiableClasses() {
+		return getDelegate().getUnsatisfiableClasses();
+	}
+	public boolean isEntailed(OWLAxiom axiom) {
+		return getDelegate().isEntailed(axiom);
+	}
+	public boolean isEntailed(Set<? extends OWLAxiom> axioms) {
+		return getDelegate().isEntailed(axioms);
+	}
+	public boolean isEntailmentCheckingSupported(AxiomType<?> axiomType) {
+		return getDelegate().isEntailmentCheckingSupported(axiomType);
+	}
+	public Node<OWLClass> getTopClassNode() {
+		return getDelegate().getTopClassNode();
+	}
+	public Node<OWLClass> getBottomClassNode() {
+		return getDelegate().getBottomClassNode();
+	}
+	public NodeSet<OWLClass> getSubClasses(OWLClassExpression ce, boolean direct) {
+		return getDelegate().getSubClasses(ce, direct);
+	}
+	public NodeSet<OWLClass> getSuperClasses(OWLClassExpression ce, boolean direct) {
+		return getDelegate().getSuperClasses(ce, direct);
+	}
+	public Node<OWLClass> getEquivalentClasses(OWLClassExpression ce) {
+		return getDelegate().getEquivalentClasses(ce);
+	}
+	public NodeSet<OWLClass> getDisjointClasses(OWLClassExpression ce) {
+		return getDelegate().getDisjointClasses(ce);
+	}
+	public Node<OWLObjectPropertyExpression> getTopObjectPropertyNode() {
+		return getDelegate().getTopObjectPropertyNode();
+	}
+	public Node<OWLObjectPropertyExpression> getBottomObjectPropertyNode() {
+		return getDelegate().getBottomObjectPropertyNode();
+	}
+	public NodeSet<OWLObjectPropertyExpression> getSubObjectProperties(OWLObjectPropertyExpression pe, boolean direct) {
+		return getDelegate().getSubObjectProperties(pe, direct);
+	}
+	public NodeSet<OWLObjectPropertyExpression> getSuperObjectProperties(OWLObjectPropertyExpression pe, boolean direct) {
+		return getDelegate().getSuperObjectProperties(pe, direct);
+	}
+	public Node<OWLObjectPropertyExpression> getEquivalentObjectProperties(OWLObjectPropertyExpression pe) {
+		return getDelegate().getEquivalentObjectProperties(pe);
+	}
+	public NodeSet<OWLObjectPropertyExpression> getDisjointObjectProperties(OWLObjectPropertyExpression pe) {
+		return getDelegate().getDisjointObjectProperties(pe);
+	}
+	public Node<OWLObjectPropertyExpression> getInverseObjectProperties(OWLObjectPropertyExpression pe) {
+		return getDelegate().getInverseObjectProperties(pe);
+	}
+	public NodeSet<OWLClass> getObjectPropertyDomains(OWLObjectPropertyExpression pe, boolean direct) {
+		return getDelegate().getObjectPropertyDomains(pe, direct);
+	}
+	public NodeSet<OWLClass> getObjectPropertyRanges(OWLObjectPropertyExpression pe, boolean direct) {
+		return getDelegate().getObjectPropertyRanges(pe, direct);
+	}
+	public Node<OWLDataProperty> getTopDataPropertyNode() {
+		return getDelegate().getTopDataPropertyNode();
+	}
+	public Node<OWLDataProperty> getBottomDataPropertyNode() {
+		return getDelegate().getBottomDataPropertyNode();
+	}
+	public NodeSet<OWLDataProperty> getSubDataProperties(OWLDataProperty pe, boolean direct) {
+		return getDelegate().getSubDataProperties(pe, direct);
+	}
+	public NodeSet<OWLDataProperty> getSuperDataProperties(OWLDataProperty pe, boolean direct) {
+		return getDelegate().getSuperDataProperties(pe, direct);
+	}
+	public Node<OWLDataProperty> getEquivalentDataProperties(OWLDataProperty pe) {
+		return getDelegate().getEquivalentDataProperties(pe);
+	}
+	public NodeSet<OWLDataProperty> getDisjointDataProperties(OWLDataPropertyExpression pe) {
+		return getDelegate().getDisjointDataProperties(pe);
+	}
+	public NodeSet<OWLClass> getDataPropertyDomains(OWLDataProperty pe, boolean direct) {
+		return getDelegate().getDataPropertyDomains(pe, direct);
+	}
+	public NodeSet<OWLClass> getTypes(OWLNamedIndividual ind, boolean direct) {
+		return getDelegate().getTypes(ind, direct);
+	}
+	public NodeSet<OWLNamedIndividual> getInstances(OWLClassExpression ce, boolean direct) {
+		return getDelegate().getInstances(ce, direct);
+	}
+	public NodeSet<OWLNamedIndividual> getObjectPropertyValues(OWLNamedIndividual ind, OWLObjectPropertyExpression pe) {
+		return getDelegate().getObjectPropertyValues(ind, pe);
+	}
+	public Set<OWLLiteral> getDataPropertyValues(OWLNamedIndividual ind, OWLDataProperty pe) {
+		return getDelegate().getDataPropertyValues(ind, pe);
+	}
+	public Node<OWLNamedIndividual> getSameIndividuals(OWLNamedIndividual ind) {
+		return getDelegate().getSameIndividuals(ind);
+	}
+	public NodeSet<OWLNamedIndividual> getDifferentIndividuals(OWLNamedIndividual ind) {
+		return getDelegate().getDifferentIndividuals(ind);
+	}
+	public long getTimeOut() {
+		return getDelegate().getTimeOut();
+	}
+	public FreshEntityPolicy getFreshEntityPolicy() {
+		return getDelegate().getFreshEntityPolicy();
+	}
+	public IndividualNodeSetPolicy getIndividualNodeSetPolicy() {
+		return getDelegate().getIndividualNodeSetPolicy();
+	}
+	public void dispose() {
+		getDelegate().dispose();
+	}
+}
@@ -0,0 +1,58 @@
+package eddy.lang.reasoner;
+
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.reasoner.BufferingMode;
+import org.semanticweb.owlapi.reasoner.NullReasonerProgressMonitor;
+import org.semanticweb.owlapi.reasoner.OWLReasoner;
+import org.semanticweb.owlapi.reasoner.OWLReasonerConfiguration;
+import org.semanticweb.owlapi.reasoner.OWLReasonerFactory;
+import org.semanticweb.owlapi.reasoner.ReasonerProgressMonitor;
+import org.semanticweb.owlapi.reasoner.SimpleConfiguration;
+
+/**
+ * Provides reasoners from an {@link OWLReasonerFactory}, such as the HermiT, FaCT++ or 
+ * Pellet factories. The buffering mode, time out and progress monitor are applied to 
+ * every reasoner created by this provider.
+ */
+
+public class FactoryReasonerProvider extends ReasonerProvider {
+	private final OWLReasonerFactory factory;
+	private BufferingMode bufferingMode = BufferingMode.BUFFERING;
+	private ReasonerProgressMonitor monitor = new NullReasonerProgressMonitor();
+	private long timeOut = Long.MAX_VALUE;
+	
+	public FactoryReasonerProvider(OWLReasonerFactory factory) {
+		this.factory = factory;
+	}
+	
+	public OWLReasoner createReasoner(OWLOntology ontology) {
+		OWLReasonerConfiguration conf = new SimpleConfiguration(monitor, timeOut);
+		
+		if (bufferingMode == BufferingMode.NON_BUFFERING) {
+			return factory.createNonBufferingReasoner(ontology, conf);
+		}
+		else {
+			return factory.createReasoner(ontology, conf);
+		}
+	}
+	
+	public BufferingMode getBufferingMode() {
+		return bufferingMode;
+	}
+	
+	public void setBufferingMode(BufferingMode mode) {
+		this.bufferingMode = mode;
+	}
+	
+	public void setProgressMonitor(ReasonerProgressMonitor monitor) {
+		this.monitor = monitor;
+	}
+	
+	public void setTimeOut(long millis) {
+		this.timeOut = millis;
+	}
+	
+	public String toString() {
+		return factory.getReasonerName() + " (" + bufferingMode + ")";
+	}
+}
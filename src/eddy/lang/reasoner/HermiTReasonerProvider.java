@@ -0,0 +1,14 @@
+package eddy.lang.reasoner;
+
+import org.semanticweb.HermiT.Reasoner;
+
+/**
+ * Provides HermiT reasoners, which are the default reasoners for Eddy compilations.
+ */
+
+public class HermiTReasonerProvider extends FactoryReasonerProvider {
+	
+	public HermiTReasonerProvider() {
+		super(new Reasoner.ReasonerFactory());
+	}
+}
@@ -0,0 +1,55 @@
+package eddy.lang.reasoner;
+
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.reasoner.OWLReasoner;
+
+/**
+ * Creates the {@link OWLReasoner} used to classify a {@link eddy.lang.parser.Compilation}.
+ * A provider is configured on the {@link eddy.lang.parser.Compiler} or 
+ * {@link eddy.lang.parser.CompilerFactory} to choose the default reasoner of each
+ * compilation, and on individual analyses to override the reasoner for that analysis
+ * (see {@link eddy.lang.parser.Compilation#getReasoner(ReasonerProvider)}).
+ */
+
+public abstract class ReasonerProvider {
+	private static ReasonerProvider defaultProvider = new HermiTReasonerProvider();
+	
+	/**
+	 * Returns a new reasoner for the given ontology.
+	 * 
+	 * @param ontology the ontology to classify
+	 * @return the new reasoner
+	 */
+	public abstract OWLReasoner createReasoner(OWLOntology ontology);
+	
+	/**
+	 * Synchronizes the reasoner with changes to its root ontology. By default, the pending
+	 * changes are flushed to the reasoner; providers whose reasoners do not support 
+	 * incremental changes may return a new reasoner instead.
+	 * 
+	 * @param reasoner the reasoner to refresh
+	 * @return the refreshed reasoner
+	 */
+	public OWLReasoner refreshReasoner(OWLReasoner reasoner) {
+		reasoner.flush();
+		return reasoner;
+	}
+	
+	/**
+	 * Returns the provider used by compilations without an explicit provider.
+	 * 
+	 * @return the default provider
+	 */
+	public static ReasonerProvider getDefault() {
+		return defaultProvider;
+	}
+	
+	/**
+	 * Sets the provider used by compilations without an explicit provider.
+	 * 
+	 * @param provider the new default provider
+	 */
+	public static void setDefault(ReasonerProvider provider) {
+		defaultProvider = provider;
+	}
+}
@@ -0,0 +1,182 @@
+package eddy.lang.reasoner;
+
+import java.util.List;
+import java.util.Set;
+
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLException;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+import org.semanticweb.owlapi.model.OWLOntologyChangeListener;
+import org.semanticweb.owlapi.model.OWLSubClassOfAxiom;
+import org.semanticweb.owlapi.reasoner.InferenceType;
+import org.semanticweb.owlapi.reasoner.Node;
+import org.semanticweb.owlapi.reasoner.NodeSet;
+import org.semanticweb.owlapi.reasoner.OWLReasoner;
+
+/**
+ * Answers class hierarchy requests over named classes from a previously classified
+ * {@link StoredTaxonomy}, and forwards all other requests to a reasoner from the given
+ * provider, which is only created on demand. The stored hierarchy is used until the
+ * ontology changes and the reasoner is flushed, after which all requests are forwarded.
+ */
+
+public class SeededReasoner extends DelegatingReasoner implements OWLOntologyChangeListener {
+	private final OWLOntology ontology;
+	private final ReasonerProvider provider;
+	private StoredTaxonomy taxonomy;
+	private OWLReasoner delegate = null;
+	private boolean changed = false;
+
+	public SeededReasoner(OWLOntology ontology, StoredTaxonomy taxonomy, ReasonerProvider provider) {
+		this.ontology = ontology;
+		this.taxonomy = taxonomy;
+		this.provider = provider;
+		ontology.getOWLOntologyManager().addOntologyChangeListener(this);
+	}
+
+	protected synchronized OWLReasoner getDelegate() {
+		if (delegate == null) {
+			delegate = provider.createReasoner(ontology);
+		}
+		return delegate;
+	}
+
+	/**
+	 * Returns true, if requests are still answered from the stored hierarchy.
+	 *
+	 * @return true, if the stored hierarchy is in use
+	 */
+	public synchronized boolean isSeeded() {
+		return taxonomy != null;
+	}
+
+	public synchronized void ontologiesChanged(List<? extends OWLOntologyChange> changes) throws OWLException {
+		Set<OWLOntology> closure = ontology.getImportsClosure();
+		for (OWLOntologyChange change : changes) {
+			if (closure.contains(change.getOntology())) {
+				changed = true;
+				return;
+			}
+		}
+	}
+
+	public synchronized void flush() {
+		if (changed) {
+			taxonomy = null;
+		}
+		if (delegate != null) {
+			delegate.flush();
+		}
+	}
+
+	public OWLOntology getRootOntology() {
+		return ontology;
+	}
+
+	public synchronized void precomputeInferences(InferenceType... inferenceTypes) {
+		for (InferenceType type : inferenceTypes) {
+			if (taxonomy == null || type != InferenceType.CLASS_HIERARCHY) {
+				super.precomputeInferences(inferenceTypes);
+				return;
+			}
+		}
+	}
+
+	public synchronized boolean isPrecomputed(InferenceType inferenceType) {
+		if (taxonomy != null && inferenceType == InferenceType.CLASS_HIERARCHY) {
+			return true;
+		}
+		return super.isPrecomputed(inferenceType);
+	}
+
+	public synchronized boolean isSatisfiable(OWLClassExpression ce) {
+		if (isStored(ce)) {
+			return !taxonomy.isUnsatisfiable(ce.asOWLClass());
+		}
+		return super.isSatisfiable(ce);
+	}
+
+	public synchronized Node<OWLClass> getUnsatisfiableClasses() {
+		if (taxonomy != null) {
+			return taxonomy.getBottomNode();
+		}
+		return super.getUnsatisfiableClasses();
+	}
+
+	public synchronized boolean isEntailed(OWLAxiom axiom) {
+		if (axiom instanceof OWLSubClassOfAxiom) {
+			OWLSubClassOfAxiom a = (OWLSubClassOfAxiom) axiom;
+			if (isStored(a.getSubClass()) && isStored(a.getSuperClass())) {
+				return taxonomy.isSubClassOf(a.getSubClass().asOWLClass(), a.getSuperClass().asOWLClass());
+			}
+		}
+		return super.isEntailed(axiom);
+	}
+
+	public synchronized boolean isEntailed(Set<? extends OWLAxiom> axioms) {
+		for (OWLAxiom axiom : axioms) {
+			if (!isEntailed(axiom)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public synchronized Node<OWLClass> getTopClassNode() {
+		if (taxonomy != null) {
+			return taxonomy.getTopNode();
+		}
+		return super.getTopClassNode();
+	}
+
+	public synchronized Node<OWLClass> getBottomClassNode() {
+		if (taxonomy != null) {
+			return taxonomy.getBottomNode();
+		}
+		return super.getBottomClassNode();
+	}
+
+	public synchronized NodeSet<OWLClass> getSubClasses(OWLClassExpression ce, boolean direct) {
+		if (isStored(ce)) {
+			NodeSet<OWLClass> set = taxonomy.getSubClasses(ce.asOWLClass(), direct);
+			if (set != null) {
+				return set;
+			}
+		}
+		return super.getSubClasses(ce, direct);
+	}
+
+	public synchronized NodeSet<OWLClass> getSuperClasses(OWLClassExpression ce, boolean direct) {
+		if (isStored(ce)) {
+			NodeSet<OWLClass> set = taxonomy.getSuperClasses(ce.asOWLClass(), direct);
+			if (set != null) {
+				return set;
+			}
+		}
+		return super.getSuperClasses(ce, direct);
+	}
+
+	public synchronized Node<OWLClass> getEquivalentClasses(OWLClassExpression ce) {
+		if (isStored(ce)) {
+			if (taxonomy.isUnsatisfiable(ce.asOWLClass())) {
+				return taxonomy.getBottomNode();
+			}
+			return taxonomy.getNode(ce.asOWLClass());
+		}
+		return super.getEquivalentClasses(ce);
+	}
+
+	public synchronized void dispose() {
+		ontology.getOWLOntologyManager().removeOntologyChangeListener(this);
+		if (delegate != null) {
+			delegate.dispose();
+		}
+	}
+
+	private boolean isStored(OWLClassExpression ce) {
+		return taxonomy != null && !ce.isAnonymous() && taxonomy.contains(ce.asOWLClass());
+	}
+}
@@ -0,0 +1,361 @@
+package eddy.lang.reasoner;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Set;
+
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.reasoner.Node;
+import org.semanticweb.owlapi.reasoner.NodeSet;
+import org.semanticweb.owlapi.reasoner.OWLReasoner;
+import org.semanticweb.owlapi.reasoner.impl.OWLClassNode;
+import org.semanticweb.owlapi.reasoner.impl.OWLClassNodeSet;
+
+/**
+ * Records the classified hierarchy of named classes computed by an {@link OWLReasoner}, so
+ * that the hierarchy can be written to and read from a file, and later used to answer
+ * hierarchy requests without reclassifying the ontology (see {@link SeededReasoner}).
+ *
+ * The hierarchy is recorded as a list of nodes of equivalent classes, beginning with the
+ * top node, the direct parents of each node and the bottom node of unsatisfiable classes.
+ * The text format contains one line per node ("node" followed by the class IRIs), one line
+ * per node with parents ("parents" followed by the node index and parent indices) and one
+ * line for the bottom node ("bottom" followed by the class IRIs).
+ */
+
+public class StoredTaxonomy {
+	private final ArrayList<OWLClassNode> nodes = new ArrayList<OWLClassNode>();
+	private final ArrayList<int[]> parents = new ArrayList<int[]>();
+	private final ArrayList<int[]> children = new ArrayList<int[]>();
+	private final HashMap<OWLClass,Integer> index = new HashMap<OWLClass,Integer>();
+	private OWLClassNode bottom;
+
+	private StoredTaxonomy() {
+		return;
+	}
+
+	/**
+	 * Records the class hierarchy of the given reasoner, starting from the top node.
+	 *
+	 * @param reasoner the reasoner that classifies the hierarchy
+	 * @return the recorded hierarchy
+	 */
+	public static StoredTaxonomy capture(OWLReasoner reasoner) {
+		StoredTaxonomy t = new StoredTaxonomy();
+		Node<OWLClass> bottom = reasoner.getBottomClassNode();
+		HashMap<Node<OWLClass>,ArrayList<Integer>> found = new HashMap<Node<OWLClass>,ArrayList<Integer>>();
+
+		// visit the nodes breadth first and collect the parents of each node
+		LinkedList<Node<OWLClass>> queue = new LinkedList<Node<OWLClass>>();
+		queue.add(reasoner.getTopClassNode());
+		found.put(queue.getFirst(), new ArrayList<Integer>());
+		ArrayList<Node<OWLClass>> order = new ArrayList<Node<OWLClass>>();
+
+		while (!queue.isEmpty()) {
+			Node<OWLClass> node = queue.removeFirst();
+			int i = order.size();
+			order.add(node);
+			t.add(new OWLClassNode(node.getEntities()));
+
+			NodeSet<OWLClass> subs = reasoner.getSubClasses(node.getRepresentativeElement(), true);
+			for (Node<OWLClass> sub : subs.getNodes()) {
+				if (sub.equals(bottom) || sub.isBottomNode()) {
+					continue;
+				}
+				ArrayList<Integer> list = found.get(sub);
+				if (list == null) {
+					list = new ArrayList<Integer>();
+					found.put(sub, list);
+					queue.add(sub);
+				}
+				list.add(i);
+			}
+		}
+		for (Node<OWLClass> node : order) {
+			ArrayList<Integer> list = found.get(node);
+			int[] p = new int[list.size()];
+			for (int j = 0; j < p.length; j++) {
+				p[j] = list.get(j);
+			}
+			t.parents.add(p);
+		}
+		t.bottom = new OWLClassNode(bottom.getEntities());
+		t.link();
+		return t;
+	}
+
+	/**
+	 * Reads a hierarchy in the text format written by {@link #write(Writer)}.
+	 *
+	 * @param reader the reader of the stored hierarchy
+	 * @param factory the factory used to create the named classes
+	 * @return the stored hierarchy
+	 * @throws IOException if the hierarchy cannot be read or is malformed
+	 */
+	public static StoredTaxonomy read(Reader reader, OWLDataFactory factory) throws IOException {
+		StoredTaxonomy t = new StoredTaxonomy();
+		BufferedReader in = new BufferedReader(reader);
+		String line;
+
+		while ((line = in.readLine()) != null) {
+			if (line.length() == 0 || line.startsWith("#")) {
+				continue;
+			}
+			String[] token = line.split(" ");
+			if (token[0].equals("node") || token[0].equals("bottom")) {
+				HashSet<OWLClass> set = new HashSet<OWLClass>();
+				for (int i = 1; i < token.length; i++) {
+					set.add(factory.getOWLClass(IRI.create(token[i])));
+				}
+				if (token[0].equals("node")) {
+					t.add(new OWLClassNode(set));
+					t.parents.add(new int[0]);
+				}
+				else {
+					t.bottom = new OWLClassNode(set);
+				}
+			}
+			else if (token[0].equals("parents")) {
+				try {
+					int[] p = new int[token.length - 2];
+					for (int i = 0; i < p.length; i++) {
+						p[i] = Integer.parseInt(token[i + 2]);
+					}
+					t.parents.set(Integer.parseInt(token[1]), p);
+				}
+				catch (RuntimeException e) {
+					throw new IOException("Malformed parents: " + line);
+				}
+			}
+			else {
+				throw new IOException("Unrecognized taxonomy entry: " + line);
+			}
+		}
+		if (t.nodes.isEmpty() || t.bottom == null) {
+			throw new IOException("Incomplete taxonomy");
+		}
+		for (int[] p : t.parents) {
+			for (int i : p) {
+				if (i < 0 || i >= t.nodes.size()) {
+					throw new IOException("Parent index out of range: " + i);
+				}
+			}
+		}
+		t.link();
+		return t;
+	}
+
+	/**
+	 * Writes this hierarchy in a line-oriented text format.
+	 *
+	 * @param writer the writer to receive the hierarchy
+	 */
+	public void write(Writer writer) {
+		PrintWriter out = new PrintWriter(writer);
+		out.println("# eddy taxonomy, " + nodes.size() + " nodes");
+		for (OWLClassNode node : nodes) {
+			out.println("node" + toString(node));
+		}
+		for (int i = 0; i < parents.size(); i++) {
+			int[] p = parents.get(i);
+			if (p.length == 0) {
+				continue;
+			}
+			String s = "parents " + i;
+			for (int j = 0; j < p.length; j++) {
+				s += " " + p[j];
+			}
+			out.println(s);
+		}
+		out.println("bottom" + toString(bottom));
+		out.flush();
+	}
+
+	/**
+	 * Returns true, if the given class is recorded in this hierarchy, including the
+	 * unsatisfiable classes.
+	 *
+	 * @param clazz the named class
+	 * @return true, if the class is recorded
+	 */
+	public boolean contains(OWLClass clazz) {
+		return index.containsKey(clazz) || bottom.contains(clazz);
+	}
+
+	/**
+	 * Returns true, if the class is recorded as unsatisfiable.
+	 *
+	 * @param clazz the named class
+	 * @return true, if the class is unsatisfiable
+	 */
+	public boolean isUnsatisfiable(OWLClass clazz) {
+		return bottom.contains(clazz);
+	}
+
+	public Node<OWLClass> getTopNode() {
+		return nodes.get(0);
+	}
+
+	public Node<OWLClass> getBottomNode() {
+		return bottom;
+	}
+
+	/**
+	 * Returns the node of classes equivalent to the given satisfiable class, or null, if
+	 * the class is not recorded or is unsatisfiable.
+	 *
+	 * @param clazz the named class
+	 * @return the node of equivalent classes
+	 */
+	public Node<OWLClass> getNode(OWLClass clazz) {
+		Integer i = index.get(clazz);
+		if (i == null) {
+			return null;
+		}
+		return nodes.get(i);
+	}
+
+	/**
+	 * Returns the superclasses of the given satisfiable class, or null, if the class is
+	 * not recorded or is unsatisfiable.
+	 *
+	 * @param clazz the named class
+	 * @param direct true, if only the direct superclasses are requested
+	 * @return the superclasses
+	 */
+	public NodeSet<OWLClass> getSuperClasses(OWLClass clazz, boolean direct) {
+		Integer i = index.get(clazz);
+		if (i == null) {
+			return null;
+		}
+		return collect(i, parents, direct, null);
+	}
+
+	/**
+	 * Returns the subclasses of the given satisfiable class, or null, if the class is not
+	 * recorded or is unsatisfiable. The result always includes the bottom node, if no other
+	 * node is returned or all subclasses are requested.
+	 *
+	 * @param clazz the named class
+	 * @param direct true, if only the direct subclasses are requested
+	 * @return the subclasses
+	 */
+	public NodeSet<OWLClass> getSubClasses(OWLClass clazz, boolean direct) {
+		Integer i = index.get(clazz);
+		if (i == null) {
+			return null;
+		}
+		return collect(i, children, direct, bottom);
+	}
+
+	/**
+	 * Returns true, if the first class is a subclass of the second class, both of which
+	 * must be recorded in this hierarchy.
+	 *
+	 * @param sub the subclass
+	 * @param sup the superclass
+	 * @return true, if the subsumption holds
+	 */
+	public boolean isSubClassOf(OWLClass sub, OWLClass sup) {
+		if (bottom.contains(sub)) {
+			return true;
+		}
+		Integer i = index.get(sub);
+		Integer j = index.get(sup);
+		if (i == null || j == null) {
+			return false;
+		}
+		if (i.equals(j)) {
+			return true;
+		}
+		HashSet<Integer> visited = new HashSet<Integer>();
+		LinkedList<Integer> queue = new LinkedList<Integer>();
+		queue.add(i);
+		while (!queue.isEmpty()) {
+			for (int p : parents.get(queue.removeFirst())) {
+				if (p == j) {
+					return true;
+				}
+				if (visited.add(p)) {
+					queue.add(p);
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the satisfiable named classes recorded in this hierarchy.
+	 *
+	 * @return the satisfiable classes
+	 */
+	public Set<OWLClass> getClasses() {
+		return index.keySet();
+	}
+
+	private void add(OWLClassNode node) {
+		int i = nodes.size();
+		nodes.add(node);
+		for (OWLClass c : node.getEntities()) {
+			index.put(c, i);
+		}
+	}
+
+	private void link() {
+		ArrayList<ArrayList<Integer>> list = new ArrayList<ArrayList<Integer>>();
+		for (int i = 0; i < nodes.size(); i++) {
+			list.add(new ArrayList<Integer>());
+		}
+		for (int i = 0; i < parents.size(); i++) {
+			for (int p : parents.get(i)) {
+				list.get(p).add(i);
+			}
+		}
+		for (ArrayList<Integer> l : list) {
+			int[] c = new int[l.size()];
+			for (int j = 0; j < c.length; j++) {
+				c[j] = l.get(j);
+			}
+			children.add(c);
+		}
+	}
+
+	private NodeSet<OWLClass> collect(int start, ArrayList<int[]> edges, boolean direct, Node<OWLClass> terminal) {
+		OWLClassNodeSet result = new OWLClassNodeSet();
+		HashSet<Integer> visited = new HashSet<Integer>();
+		LinkedList<Integer> queue = new LinkedList<Integer>();
+		queue.add(start);
+
+		while (!queue.isEmpty()) {
+			for (int n : edges.get(queue.removeFirst())) {
+				if (visited.add(n)) {
+					result.addNode(nodes.get(n));
+					if (!direct) {
+						queue.add(n);
+					}
+				}
+			}
+		}
+		if (terminal != null && (!direct || result.isEmpty())) {
+			result.addNode(terminal);
+		}
+		return result;
+	}
+
+	private static String toString(Node<OWLClass> node) {
+		String s = "";
+		for (OWLClass c : node.getEntities()) {
+			s += " " + c.getIRI().toString();
+		}
+		return s;
+	}
+}
@@ -0,0 +1,1097 @@
+package eddy.lang.reasoner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.semanticweb.owlapi.model.AxiomType;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLDisjointClassesAxiom;
+import org.semanticweb.owlapi.model.OWLEquivalentClassesAxiom;
+import org.semanticweb.owlapi.model.OWLObjectComplementOf;
+import org.semanticweb.owlapi.model.OWLObjectIntersectionOf;
+import org.semanticweb.owlapi.model.OWLObjectProperty;
+import org.semanticweb.owlapi.model.OWLObjectPropertyDomainAxiom;
+import org.semanticweb.owlapi.model.OWLObjectPropertyExpression;
+import org.semanticweb.owlapi.model.OWLObjectPropertyRangeAxiom;
+import org.semanticweb.owlapi.model.OWLObjectSomeValuesFrom;
+import org.semanticweb.owlapi.model.OWLObjectUnionOf;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+import org.semanticweb.owlapi.model.OWLSubClassOfAxiom;
+import org.semanticweb.owlapi.reasoner.BufferingMode;
+import org.semanticweb.owlapi.reasoner.FreshEntityPolicy;
+import org.semanticweb.owlapi.reasoner.IndividualNodeSetPolicy;
+import org.semanticweb.owlapi.reasoner.InferenceType;
+import org.semanticweb.owlapi.reasoner.Node;
+import org.semanticweb.owlapi.reasoner.NodeSet;
+import org.semanticweb.owlapi.reasoner.OWLReasoner;
+import org.semanticweb.owlapi.reasoner.impl.OWLClassNode;
+import org.semanticweb.owlapi.reasoner.impl.OWLClassNodeSet;
+import org.semanticweb.owlapi.util.Version;
+
+/**
+ * Classifies the restricted Description Logic fragment produced by the Eddy
+ * {@link eddy.lang.parser.Compiler} using structural subsumption, rather than a tableau.
+ * The fragment consists of: named class hierarchies for actors, data and purposes; the
+ * disjointness and equivalence axioms from {@link eddy.lang.Type}; the rule and extension
+ * classes, which are equivalent to an action class intersected with existential role
+ * restrictions whose fillers are unions, intersections and complements of named classes;
+ * and the domain and range axioms of the upper ontology.
+ *
+ * Each class expression is normalized into a disjunction of terms, where each term is a
+ * conjunction of named classes, complemented named classes and existential restrictions.
+ * A term is completed by adding the told superclasses of its named classes and every
+ * defined class whose definition subsumes the term, until a fixpoint is reached. A
+ * completed term subsumes a definition, if it contains the definition's named classes,
+ * is inconsistent with each complemented class and contains, for each existential
+ * restriction, a restriction on the same role with a subsumed filler.
+ *
+ * If the ontology contains an axiom outside of this fragment, or a query expression
+ * cannot be normalized, the request is forwarded to a fallback reasoner created on demand,
+ * which is HermiT by default.
+ */
+
+public class TaxonomyReasoner extends DelegatingReasoner {
+	private final OWLOntology ontology;
+	private final OWLClass thing, nothing;
+	private final ReasonerProvider provider;
+	private OWLReasoner fallback = null;
+	private Object lock = null;
+	private boolean loaded = false;
+	private boolean inFragment = false;
+	private boolean classified = false;
+
+	// the told axioms, indexed by named class and property
+	private final HashMap<OWLClass,Term> told = new HashMap<OWLClass,Term>();
+	private final HashMap<OWLClass,Term> definitions = new HashMap<OWLClass,Term>();
+	private final HashMap<OWLClass,ArrayList<OWLClass>> definedIndex = new HashMap<OWLClass,ArrayList<OWLClass>>();
+	private final ArrayList<OWLClass> unindexed = new ArrayList<OWLClass>();
+	private final HashMap<OWLClass,HashSet<OWLClass>> disjoints = new HashMap<OWLClass,HashSet<OWLClass>>();
+	private final HashMap<OWLObjectProperty,HashSet<OWLClass>> domains = new HashMap<OWLObjectProperty,HashSet<OWLClass>>();
+	private final HashMap<OWLObjectProperty,HashSet<OWLClass>> ranges = new HashMap<OWLObjectProperty,HashSet<OWLClass>>();
+
+	// the classified hierarchy
+	private final HashSet<OWLClass> signature = new HashSet<OWLClass>();
+	private final HashMap<OWLClass,Term> closure = new HashMap<OWLClass,Term>();
+	private final HashMap<Restriction,HashMap<Restriction,Boolean>> fillers = new HashMap<Restriction,HashMap<Restriction,Boolean>>();
+	private final HashMap<OWLClass,HashSet<OWLClass>> subs = new HashMap<OWLClass,HashSet<OWLClass>>();
+	private final HashMap<OWLClass,OWLClassNode> nodes = new HashMap<OWLClass,OWLClassNode>();
+	private final HashSet<OWLClass> unsatisfiable = new HashSet<OWLClass>();
+
+	public TaxonomyReasoner(OWLOntology ontology) {
+		this(ontology, new HermiTReasonerProvider());
+	}
+
+	public TaxonomyReasoner(OWLOntology ontology, ReasonerProvider provider) {
+		this.ontology = ontology;
+		this.provider = provider;
+		this.thing = ontology.getOWLOntologyManager().getOWLDataFactory().getOWLThing();
+		this.nothing = ontology.getOWLOntologyManager().getOWLDataFactory().getOWLNothing();
+	}
+
+	protected synchronized OWLReasoner getDelegate() {
+		if (fallback == null) {
+			if (lock != null) {
+				synchronized (lock) {
+					fallback = provider.createReasoner(ontology);
+				}
+			}
+			else {
+				fallback = provider.createReasoner(ontology);
+			}
+		}
+		return fallback;
+	}
+
+	/**
+	 * Collects the told axioms of the import closure now, rather than on the first request,
+	 * and creates the fallback reasoner now, if the ontology is outside the fragment. A
+	 * fallback reasoner that a later query expression requires is created while holding the
+	 * given lock. Callers whose ontology shares its manager with other threads call this
+	 * method while holding the manager's lock, so that the manager is not read while it is
+	 * changed.
+	 *
+	 * @param lock the lock that guards the ontology's manager, or null
+	 */
+	public synchronized void prepare(Object lock) {
+		this.lock = lock;
+		load();
+		if (!inFragment) {
+			getDelegate();
+		}
+	}
+
+	/**
+	 * Prepares the given reasoner, if it is a taxonomy reasoner or a
+	 * {@link CachingReasoner} of one (see {@link #prepare(Object)}).
+	 *
+	 * @param reasoner the reasoner
+	 * @param lock the lock that guards the reasoner's manager, or null
+	 */
+	public static void prepare(OWLReasoner reasoner, Object lock) {
+		if (reasoner instanceof CachingReasoner) {
+			reasoner = ((CachingReasoner) reasoner).getDelegate();
+		}
+		if (reasoner instanceof TaxonomyReasoner) {
+			((TaxonomyReasoner) reasoner).prepare(lock);
+		}
+	}
+
+	/**
+	 * Returns true, if the ontology is within the fragment classified by this reasoner.
+	 * Otherwise, all requests are answered by the fallback reasoner.
+	 *
+	 * @return true, if the ontology is within the supported fragment
+	 */
+	public synchronized boolean isInFragment() {
+		load();
+		return inFragment;
+	}
+
+	public String getReasonerName() {
+		return "Eddy Taxonomy Reasoner";
+	}
+
+	public Version getReasonerVersion() {
+		return new Version(1, 0, 0, 0);
+	}
+
+	public BufferingMode getBufferingMode() {
+		return BufferingMode.BUFFERING;
+	}
+
+	public synchronized void flush() {
+		loaded = false;
+		classified = false;
+		if (fallback != null) {
+			fallback.flush();
+		}
+	}
+
+	public List<OWLOntologyChange> getPendingChanges() {
+		return Collections.emptyList();
+	}
+
+	public Set<OWLAxiom> getPendingAxiomAdditions() {
+		return Collections.emptySet();
+	}
+
+	public Set<OWLAxiom> getPendingAxiomRemovals() {
+		return Collections.emptySet();
+	}
+
+	public OWLOntology getRootOntology() {
+		return ontology;
+	}
+
+	public void interrupt() {
+		if (fallback != null) {
+			fallback.interrupt();
+		}
+	}
+
+	public synchronized void precomputeInferences(InferenceType... inferenceTypes) {
+		if (!isInFragment()) {
+			super.precomputeInferences(inferenceTypes);
+			return;
+		}
+		for (InferenceType type : inferenceTypes) {
+			if (type == InferenceType.CLASS_HIERARCHY) {
+				classify();
+			}
+		}
+	}
+
+	public synchronized boolean isPrecomputed(InferenceType inferenceType) {
+		if (!isInFragment()) {
+			return super.isPrecomputed(inferenceType);
+		}
+		return inferenceType == InferenceType.CLASS_HIERARCHY && classified;
+	}
+
+	public synchronized Set<InferenceType> getPrecomputableInferenceTypes() {
+		if (!isInFragment()) {
+			return super.getPrecomputableInferenceTypes();
+		}
+		return Collections.singleton(InferenceType.CLASS_HIERARCHY);
+	}
+
+	public synchronized boolean isConsistent() {
+		// the fragment has no individuals, so every ontology in the fragment is consistent
+		if (!isInFragment()) {
+			return super.isConsistent();
+		}
+		return true;
+	}
+
+	public synchronized boolean isSatisfiable(OWLClassExpression ce) {
+		if (!isInFragment()) {
+			return super.isSatisfiable(ce);
+		}
+		try {
+			return !isUnsatisfiable(translate(ce));
+		}
+		catch (OutOfFragment e) {
+			return super.isSatisfiable(ce);
+		}
+	}
+
+	public synchronized Node<OWLClass> getUnsatisfiableClasses() {
+		if (!isInFragment()) {
+			return super.getUnsatisfiableClasses();
+		}
+		return getBottomClassNode();
+	}
+
+	public synchronized boolean isEntailed(OWLAxiom axiom) {
+		if (!isInFragment()) {
+			return super.isEntailed(axiom);
+		}
+		try {
+			if (axiom instanceof OWLSubClassOfAxiom) {
+				OWLSubClassOfAxiom a = (OWLSubClassOfAxiom) axiom;
+				return subsumes(translate(a.getSubClass()), translate(a.getSuperClass()));
+			}
+			else if (axiom instanceof OWLEquivalentClassesAxiom) {
+				ArrayList<OWLClassExpression> list = new ArrayList<OWLClassExpression>(((OWLEquivalentClassesAxiom) axiom).getClassExpressions());
+				for (int i = 1; i < list.size(); i++) {
+					List<Term> c = translate(list.get(0));
+					List<Term> d = translate(list.get(i));
+					if (!subsumes(c, d) || !subsumes(d, c)) {
+						return false;
+					}
+				}
+				return true;
+			}
+		}
+		catch (OutOfFragment e) {
+			// fall through to the delegate
+		}
+		return super.isEntailed(axiom);
+	}
+
+	public synchronized boolean isEntailed(Set<? extends OWLAxiom> axioms) {
+		for (OWLAxiom axiom : axioms) {
+			if (!isEntailed(axiom)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public boolean isEntailmentCheckingSupported(AxiomType<?> axiomType) {
+		if (axiomType == AxiomType.SUBCLASS_OF || axiomType == AxiomType.EQUIVALENT_CLASSES) {
+			return true;
+		}
+		return super.isEntailmentCheckingSupported(axiomType);
+	}
+
+	public synchronized Node<OWLClass> getTopClassNode() {
+		if (!isInFragment()) {
+			return super.getTopClassNode();
+		}
+		return OWLClassNode.getTopNode();
+	}
+
+	public synchronized Node<OWLClass> getBottomClassNode() {
+		if (!isInFragment()) {
+			return super.getBottomClassNode();
+		}
+		classify();
+		HashSet<OWLClass> set = new HashSet<OWLClass>(unsatisfiable);
+		set.add(nothing);
+		return new OWLClassNode(set);
+	}
+
+	public synchronized NodeSet<OWLClass> getSubClasses(OWLClassExpression ce, boolean direct) {
+		if (!isInFragment()) {
+			return super.getSubClasses(ce, direct);
+		}
+		try {
+			classify();
+			List<Term> c = translate(ce);
+			HashSet<OWLClass> set = new HashSet<OWLClass>();
+
+			if (!ce.isAnonymous() && signature.contains(ce.asOWLClass())) {
+				// named classes are answered directly from the hierarchy
+				OWLClass clazz = ce.asOWLClass();
+				if (!unsatisfiable.contains(clazz)) {
+					set.addAll(subs.get(clazz));
+					set.removeAll(nodes.get(clazz).getEntities());
+				}
+			}
+			else if (!isUnsatisfiable(c)) {
+				// narrow the candidates to subclasses of the named classes in the expression
+				Set<OWLClass> candidates = signature;
+				if (c.size() == 1) {
+					for (OWLClass p : c.get(0).pos) {
+						HashSet<OWLClass> s = subs.get(p);
+						if (s == null) {
+							candidates = Collections.emptySet();
+							break;
+						}
+						else if (s.size() < candidates.size()) {
+							candidates = s;
+						}
+					}
+				}
+				Set<OWLClass> supers = getSuperClasses(c);
+				for (OWLClass x : candidates) {
+					if (unsatisfiable.contains(x) || supers.contains(x)) {
+						continue;
+					}
+					if (subsumes(closureOf(x), c)) {
+						set.add(x);
+					}
+				}
+			}
+			return toNodeSet(set, direct, false);
+		}
+		catch (OutOfFragment e) {
+			return super.getSubClasses(ce, direct);
+		}
+	}
+
+	public synchronized NodeSet<OWLClass> getSuperClasses(OWLClassExpression ce, boolean direct) {
+		if (!isInFragment()) {
+			return super.getSuperClasses(ce, direct);
+		}
+		try {
+			classify();
+			HashSet<OWLClass> set = new HashSet<OWLClass>();
+			List<Term> c = translate(ce);
+			Set<OWLClass> supers = getSuperClasses(c);
+
+			if (supers == null) {
+				// unsatisfiable expressions are subsumed by every satisfiable class
+				set.addAll(signature);
+				set.removeAll(unsatisfiable);
+			}
+			else if (!ce.isAnonymous() && signature.contains(ce.asOWLClass())) {
+				set.addAll(supers);
+				set.removeAll(nodes.get(ce.asOWLClass()).getEntities());
+			}
+			else {
+				// exclude the classes equivalent to the expression
+				for (OWLClass x : supers) {
+					if (!subsumes(closureOf(x), c)) {
+						set.add(x);
+					}
+				}
+			}
+			set.remove(thing);
+			return toNodeSet(set, direct, true);
+		}
+		catch (OutOfFragment e) {
+			return super.getSuperClasses(ce, direct);
+		}
+	}
+
+	public synchronized Node<OWLClass> getEquivalentClasses(OWLClassExpression ce) {
+		if (!isInFragment()) {
+			return super.getEquivalentClasses(ce);
+		}
+		try {
+			classify();
+			List<Term> c = translate(ce);
+			if (isUnsatisfiable(c)) {
+				return getBottomClassNode();
+			}
+			if (!ce.isAnonymous() && signature.contains(ce.asOWLClass())) {
+				return nodes.get(ce.asOWLClass());
+			}
+			HashSet<OWLClass> set = new HashSet<OWLClass>();
+			for (OWLClass x : getSuperClasses(c)) {
+				if (subsumes(closureOf(x), c)) {
+					set.add(x);
+				}
+			}
+			return new OWLClassNode(set);
+		}
+		catch (OutOfFragment e) {
+			return super.getEquivalentClasses(ce);
+		}
+	}
+
+	public long getTimeOut() {
+		return Long.MAX_VALUE;
+	}
+
+	public FreshEntityPolicy getFreshEntityPolicy() {
+		return FreshEntityPolicy.ALLOW;
+	}
+
+	public IndividualNodeSetPolicy getIndividualNodeSetPolicy() {
+		return IndividualNodeSetPolicy.BY_NAME;
+	}
+
+	public synchronized void dispose() {
+		if (fallback != null) {
+			fallback.dispose();
+		}
+	}
+
+	/**
+	 * Collects the told axioms and determines whether the ontology is within the fragment.
+	 */
+	private void load() {
+		if (loaded) {
+			return;
+		}
+		told.clear();
+		definitions.clear();
+		definedIndex.clear();
+		unindexed.clear();
+		disjoints.clear();
+		domains.clear();
+		ranges.clear();
+		closure.clear();
+		fillers.clear();
+		loaded = true;
+		inFragment = false;
+
+		try {
+			for (OWLOntology onto : ontology.getImportsClosure()) {
+				for (OWLAxiom axiom : onto.getLogicalAxioms()) {
+					load(axiom);
+				}
+			}
+		}
+		catch (OutOfFragment e) {
+			return;
+		}
+
+		// index each definition by one of its named classes to limit recognition checks
+		for (OWLClass clazz : definitions.keySet()) {
+			Term def = definitions.get(clazz);
+			if (def.pos.isEmpty()) {
+				unindexed.add(clazz);
+			}
+			else {
+				OWLClass key = def.pos.iterator().next();
+				ArrayList<OWLClass> list = definedIndex.get(key);
+				if (list == null) {
+					list = new ArrayList<OWLClass>();
+					definedIndex.put(key, list);
+				}
+				list.add(clazz);
+			}
+		}
+		inFragment = true;
+	}
+
+	private void load(OWLAxiom axiom) {
+		if (axiom instanceof OWLSubClassOfAxiom) {
+			OWLSubClassOfAxiom a = (OWLSubClassOfAxiom) axiom;
+			if (a.getSubClass().isAnonymous()) {
+				throw new OutOfFragment();
+			}
+			addTold(a.getSubClass().asOWLClass(), single(translate(a.getSuperClass())));
+		}
+		else if (axiom instanceof OWLEquivalentClassesAxiom) {
+			OWLEquivalentClassesAxiom a = (OWLEquivalentClassesAxiom) axiom;
+			ArrayList<OWLClass> named = new ArrayList<OWLClass>();
+			ArrayList<OWLClassExpression> complex = new ArrayList<OWLClassExpression>();
+			for (OWLClassExpression e : a.getClassExpressions()) {
+				if (e.isAnonymous()) {
+					complex.add(e);
+				}
+				else {
+					named.add(e.asOWLClass());
+				}
+			}
+			if (complex.size() > 1) {
+				throw new OutOfFragment();
+			}
+			for (OWLClass n : named) {
+				for (OWLClass m : named) {
+					if (!n.equals(m)) {
+						Term t = new Term();
+						t.pos.add(m);
+						addTold(n, t);
+					}
+				}
+				if (complex.size() == 1) {
+					if (definitions.containsKey(n)) {
+						throw new OutOfFragment();
+					}
+					Term def = single(translate(complex.get(0)));
+					definitions.put(n, def);
+					addTold(n, def);
+				}
+			}
+		}
+		else if (axiom instanceof OWLDisjointClassesAxiom) {
+			ArrayList<OWLClass> named = new ArrayList<OWLClass>();
+			for (OWLClassExpression e : ((OWLDisjointClassesAxiom) axiom).getClassExpressions()) {
+				if (e.isAnonymous()) {
+					throw new OutOfFragment();
+				}
+				named.add(e.asOWLClass());
+			}
+			for (OWLClass n : named) {
+				for (OWLClass m : named) {
+					if (!n.equals(m)) {
+						addTo(disjoints, n, m);
+					}
+				}
+			}
+		}
+		else if (axiom instanceof OWLObjectPropertyDomainAxiom) {
+			OWLObjectPropertyDomainAxiom a = (OWLObjectPropertyDomainAxiom) axiom;
+			if (a.getProperty().isAnonymous() || a.getDomain().isAnonymous()) {
+				throw new OutOfFragment();
+			}
+			addTo(domains, a.getProperty().asOWLObjectProperty(), a.getDomain().asOWLClass());
+		}
+		else if (axiom instanceof OWLObjectPropertyRangeAxiom) {
+			OWLObjectPropertyRangeAxiom a = (OWLObjectPropertyRangeAxiom) axiom;
+			if (a.getProperty().isAnonymous() || a.getRange().isAnonymous()) {
+				throw new OutOfFragment();
+			}
+			addTo(ranges, a.getProperty().asOWLObjectProperty(), a.getRange().asOWLClass());
+		}
+		else if (axiom.getAxiomType() == AxiomType.DATA_PROPERTY_DOMAIN
+				|| axiom.getAxiomType() == AxiomType.DATA_PROPERTY_RANGE) {
+			// data properties do not participate in the class hierarchy
+			return;
+		}
+		else {
+			throw new OutOfFragment();
+		}
+	}
+
+	private void addTold(OWLClass clazz, Term term) {
+		Term t = told.get(clazz);
+		if (t == null) {
+			t = new Term();
+			told.put(clazz, t);
+		}
+		t.add(term);
+	}
+
+	private static <K> void addTo(HashMap<K,HashSet<OWLClass>> map, K key, OWLClass value) {
+		HashSet<OWLClass> set = map.get(key);
+		if (set == null) {
+			set = new HashSet<OWLClass>();
+			map.put(key, set);
+		}
+		set.add(value);
+	}
+
+	/**
+	 * Computes the named superclasses of every class in the ontology signature.
+	 */
+	private void classify() {
+		load();
+		if (classified) {
+			return;
+		}
+		signature.clear();
+		subs.clear();
+		nodes.clear();
+		unsatisfiable.clear();
+
+		for (OWLOntology onto : ontology.getImportsClosure()) {
+			signature.addAll(onto.getClassesInSignature());
+		}
+		signature.remove(thing);
+		signature.remove(nothing);
+
+		for (OWLClass clazz : signature) {
+			Term t = closureOf(clazz);
+			if (t.unsat) {
+				unsatisfiable.add(clazz);
+				continue;
+			}
+			for (OWLClass sup : t.pos) {
+				if (signature.contains(sup)) {
+					addTo(subs, sup, clazz);
+				}
+			}
+		}
+
+		// group mutually subsumed classes into equivalence nodes
+		for (OWLClass clazz : signature) {
+			if (unsatisfiable.contains(clazz) || nodes.containsKey(clazz)) {
+				continue;
+			}
+			HashSet<OWLClass> set = new HashSet<OWLClass>();
+			for (OWLClass sup : closureOf(clazz).pos) {
+				if (signature.contains(sup) && closureOf(sup).pos.contains(clazz)) {
+					set.add(sup);
+				}
+			}
+			OWLClassNode node = new OWLClassNode(set);
+			for (OWLClass c : set) {
+				nodes.put(c, node);
+			}
+		}
+		classified = true;
+	}
+
+	private Term closureOf(OWLClass clazz) {
+		Term t = closure.get(clazz);
+		if (t == null) {
+			Term seed = new Term();
+			seed.pos.add(clazz);
+			t = complete(seed);
+			closure.put(clazz, t);
+		}
+		return t;
+	}
+
+	private Set<OWLClass> getSuperClasses(List<Term> c) {
+		Set<OWLClass> supers = null;
+		for (Term t : c) {
+			Term n = complete(t);
+			if (n.unsat) {
+				continue;
+			}
+			HashSet<OWLClass> set = new HashSet<OWLClass>();
+			for (OWLClass x : n.pos) {
+				if (signature.contains(x) && !unsatisfiable.contains(x)) {
+					set.add(x);
+				}
+			}
+			if (supers == null) {
+				supers = set;
+			}
+			else {
+				supers.retainAll(set);
+			}
+		}
+		return supers;
+	}
+
+	private NodeSet<OWLClass> toNodeSet(Set<OWLClass> set, boolean direct, boolean up) {
+		OWLClassNodeSet result = new OWLClassNodeSet();
+		HashSet<OWLClass> added = new HashSet<OWLClass>();
+
+		for (OWLClass x : set) {
+			if (added.contains(x)) {
+				continue;
+			}
+			OWLClassNode node = nodes.get(x);
+			added.addAll(node.getEntities());
+
+			if (direct) {
+				// skip this node, if another class in the set lies between the node and the query
+				boolean between = false;
+				for (OWLClass y : set) {
+					if (node.contains(y)) {
+						continue;
+					}
+					if ((up && closureOf(y).pos.contains(x)) || (!up && closureOf(x).pos.contains(y))) {
+						between = true;
+						break;
+					}
+				}
+				if (between) {
+					continue;
+				}
+			}
+			result.addNode(node);
+		}
+
+		// add the top or bottom node, as appropriate
+		if (!direct || result.isEmpty()) {
+			if (up) {
+				result.addNode(getTopClassNode());
+			}
+			else {
+				result.addNode(getBottomClassNode());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Completes the term by adding all told superclasses, domains and recognized defined
+	 * classes, and marks the term unsatisfiable if a contradiction is found.
+	 */
+	private Term complete(Term term) {
+		Term n = new Term();
+		n.neg.addAll(term.neg);
+		n.unsat = term.unsat;
+		for (OWLClass p : term.pos) {
+			expand(n, p);
+		}
+		for (Restriction r : term.exists) {
+			expand(n, r);
+		}
+
+		// recognize defined classes until a fixpoint is reached
+		boolean changed = true;
+		while (changed && !n.unsat) {
+			changed = false;
+			ArrayList<OWLClass> candidates = new ArrayList<OWLClass>(unindexed);
+			for (OWLClass p : n.pos) {
+				ArrayList<OWLClass> list = definedIndex.get(p);
+				if (list != null) {
+					candidates.addAll(list);
+				}
+			}
+			for (OWLClass d : candidates) {
+				if (!n.pos.contains(d) && subsumedBy(n, definitions.get(d))) {
+					expand(n, d);
+					changed = true;
+				}
+			}
+			n.unsat = n.unsat || isContradiction(n);
+		}
+		return n;
+	}
+
+	private void expand(Term n, OWLClass clazz) {
+		if (clazz.equals(thing) || !n.pos.add(clazz)) {
+			return;
+		}
+		if (clazz.equals(nothing)) {
+			n.unsat = true;
+			return;
+		}
+		Term t = told.get(clazz);
+		if (t != null) {
+			n.neg.addAll(t.neg);
+			for (Restriction r : t.exists) {
+				expand(n, r);
+			}
+			for (OWLClass p : t.pos) {
+				expand(n, p);
+			}
+		}
+	}
+
+	private void expand(Term n, Restriction r) {
+		n.exists.add(r);
+		HashSet<OWLClass> set = domains.get(r.property);
+		if (set != null) {
+			for (OWLClass d : set) {
+				expand(n, d);
+			}
+		}
+	}
+
+	private boolean isContradiction(Term n) {
+		if (n.unsat) {
+			return true;
+		}
+		for (OWLClass x : n.neg) {
+			if (n.pos.contains(x)) {
+				return true;
+			}
+		}
+		for (OWLClass x : n.pos) {
+			HashSet<OWLClass> set = disjoints.get(x);
+			if (set == null) {
+				continue;
+			}
+			for (OWLClass y : set) {
+				if (n.pos.contains(y)) {
+					return true;
+				}
+			}
+		}
+		for (Restriction r : n.exists) {
+			if (isUnsatisfiable(filler(r))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean isUnsatisfiable(List<Term> c) {
+		for (Term t : c) {
+			if (!complete(t).unsat) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the filler of the restriction, intersected with the property range.
+	 */
+	private List<Term> filler(Restriction r) {
+		HashSet<OWLClass> set = ranges.get(r.property);
+		if (set == null) {
+			return r.filler;
+		}
+		Term range = new Term();
+		range.pos.addAll(set);
+		ArrayList<Term> list = new ArrayList<Term>();
+		for (Term t : r.filler) {
+			Term u = t.copy();
+			u.add(range);
+			list.add(u);
+		}
+		return list;
+	}
+
+	/**
+	 * Returns true, if the completed term is subsumed by the (uncompleted) definition.
+	 */
+	private boolean subsumedBy(Term n, Term d) {
+		if (n.unsat) {
+			return true;
+		}
+		for (OWLClass p : d.pos) {
+			if (!p.equals(thing) && !n.pos.contains(p)) {
+				return false;
+			}
+		}
+		for (OWLClass x : d.neg) {
+			if (n.neg.contains(x)) {
+				continue;
+			}
+			else if (n.pos.contains(x)) {
+				// a contradiction in the term itself is detected when completing the term
+				return false;
+			}
+			Term t = n.copy();
+			t.pos.add(x);
+			if (!complete(t).unsat) {
+				return false;
+			}
+		}
+		for (Restriction r : d.exists) {
+			boolean found = false;
+			for (Restriction s : n.exists) {
+				if (s.property.equals(r.property) && subsumes(s, r)) {
+					found = true;
+					break;
+				}
+			}
+			if (!found) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns true, if the filler of restriction s is subsumed by the filler of restriction r.
+	 * Restrictions are shared among the told axioms, so the result is memoized by identity.
+	 */
+	private boolean subsumes(Restriction s, Restriction r) {
+		HashMap<Restriction,Boolean> map = fillers.get(s);
+		if (map == null) {
+			map = new HashMap<Restriction,Boolean>();
+			fillers.put(s, map);
+		}
+		Boolean result = map.get(r);
+		if (result == null) {
+			result = subsumes(filler(s), r.filler);
+			map.put(r, result);
+		}
+		return result;
+	}
+
+	private boolean subsumes(Term n, List<Term> d) {
+		ArrayList<Term> c = new ArrayList<Term>();
+		c.add(n);
+		return subsumes(c, d);
+	}
+
+	/**
+	 * Returns true, if the concept c is subsumed by the concept d.
+	 */
+	private boolean subsumes(List<Term> c, List<Term> d) {
+		for (Term t : c) {
+			Term n = complete(t);
+			if (n.unsat) {
+				continue;
+			}
+			if (d.size() == 0) {
+				return false;
+			}
+			else if (d.size() == 1) {
+				if (!subsumedBy(n, d.get(0))) {
+					return false;
+				}
+			}
+			else if (!n.exists.isEmpty() || hasRestrictions(d)) {
+				// disjunctions over restrictions are not decided structurally
+				throw new OutOfFragment();
+			}
+			else if (!isUnsatisfiable(n, d, 0)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns true, if the term intersected with the complement of each disjunct from
+	 * the given index is unsatisfiable. Each complement is a disjunction of literals, so
+	 * each choice of literals is checked separately.
+	 */
+	private boolean isUnsatisfiable(Term n, List<Term> d, int index) {
+		if (n.unsat) {
+			return true;
+		}
+		if (index == d.size()) {
+			return false;
+		}
+		Term dt = complete(d.get(index));
+		if (dt.unsat) {
+			return isUnsatisfiable(n, d, index + 1);
+		}
+		Term raw = d.get(index);
+		if (raw.pos.isEmpty() && raw.neg.isEmpty()) {
+			// the disjunct is the top class, whose complement is empty
+			return true;
+		}
+		for (OWLClass p : raw.pos) {
+			Term t = n.copy();
+			t.neg.add(p);
+			if (!isUnsatisfiable(complete(t), d, index + 1)) {
+				return false;
+			}
+		}
+		for (OWLClass x : raw.neg) {
+			if (definitions.containsKey(x)) {
+				throw new OutOfFragment();
+			}
+			Term t = n.copy();
+			t.pos.add(x);
+			if (!isUnsatisfiable(complete(t), d, index + 1)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean hasRestrictions(List<Term> d) {
+		for (Term t : d) {
+			if (!t.exists.isEmpty()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static Term single(List<Term> c) {
+		if (c.size() != 1) {
+			throw new OutOfFragment();
+		}
+		return c.get(0);
+	}
+
+	/**
+	 * Translates the class expression into a disjunction of conjunctive terms.
+	 */
+	private List<Term> translate(OWLClassExpression ce) {
+		ArrayList<Term> list = new ArrayList<Term>();
+		ce = ce.getNNF();
+
+		if (!ce.isAnonymous()) {
+			Term t = new Term();
+			if (ce.isOWLNothing()) {
+				t.unsat = true;
+			}
+			else if (!ce.isOWLThing()) {
+				t.pos.add(ce.asOWLClass());
+			}
+			list.add(t);
+		}
+		else if (ce instanceof OWLObjectIntersectionOf) {
+			list.add(new Term());
+			for (OWLClassExpression e : ((OWLObjectIntersectionOf) ce).getOperands()) {
+				List<Term> c = translate(e);
+				ArrayList<Term> product = new ArrayList<Term>();
+				for (Term t : list) {
+					for (Term u : c) {
+						Term v = t.copy();
+						v.add(u);
+						product.add(v);
+					}
+				}
+				list = product;
+			}
+		}
+		else if (ce instanceof OWLObjectUnionOf) {
+			for (OWLClassExpression e : ((OWLObjectUnionOf) ce).getOperands()) {
+				list.addAll(translate(e));
+			}
+		}
+		else if (ce instanceof OWLObjectComplementOf) {
+			OWLClassExpression e = ((OWLObjectComplementOf) ce).getOperand();
+			if (e.isAnonymous()) {
+				throw new OutOfFragment();
+			}
+			Term t = new Term();
+			if (e.isOWLThing()) {
+				t.unsat = true;
+			}
+			else if (!e.isOWLNothing()) {
+				t.neg.add(e.asOWLClass());
+			}
+			list.add(t);
+		}
+		else if (ce instanceof OWLObjectSomeValuesFrom) {
+			OWLObjectSomeValuesFrom some = (OWLObjectSomeValuesFrom) ce;
+			OWLObjectPropertyExpression prop = some.getProperty();
+			if (prop.isAnonymous()) {
+				throw new OutOfFragment();
+			}
+			Term t = new Term();
+			t.exists.add(new Restriction(prop.asOWLObjectProperty(), translate(some.getFiller())));
+			list.add(t);
+		}
+		else {
+			throw new OutOfFragment();
+		}
+		return list;
+	}
+
+	/**
+	 * Describes a conjunction of named classes, complemented named classes and existential
+	 * restrictions.
+	 */
+	private static class Term {
+		private final HashSet<OWLClass> pos = new HashSet<OWLClass>();
+		private final HashSet<OWLClass> neg = new HashSet<OWLClass>();
+		private final ArrayList<Restriction> exists = new ArrayList<Restriction>();
+		private boolean unsat = false;
+
+		private void add(Term t) {
+			pos.addAll(t.pos);
+			neg.addAll(t.neg);
+			exists.addAll(t.exists);
+			unsat = unsat || t.unsat;
+		}
+		private Term copy() {
+			Term t = new Term();
+			t.add(this);
+			return t;
+		}
+	}
+
+	/**
+	 * Describes an existential restriction over a property and a filler concept.
+	 */
+	private static class Restriction {
+		private final OWLObjectProperty property;
+		private final List<Term> filler;
+
+		private Restriction(OWLObjectProperty property, List<Term> filler) {
+			this.property = property;
+			this.filler = filler;
+		}
+	}
+
+	/**
+	 * Signals that an axiom or expression is outside of the supported fragment.
+	 */
+	private static class OutOfFragment extends RuntimeException {
+		private final static long serialVersionUID = 1;
+	}
+}
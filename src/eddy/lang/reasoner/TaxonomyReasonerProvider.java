@@ -0,0 +1,29 @@
+package eddy.lang.reasoner;
+
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.reasoner.OWLReasoner;
+
+/**
+ * Provides {@link TaxonomyReasoner}s, which classify the Eddy fragment structurally and 
+ * forward the remaining requests to a reasoner from the fallback provider.
+ */
+
+public class TaxonomyReasonerProvider extends ReasonerProvider {
+	private final ReasonerProvider fallback;
+	
+	public TaxonomyReasonerProvider() {
+		this(new HermiTReasonerProvider());
+	}
+	
+	public TaxonomyReasonerProvider(ReasonerProvider fallback) {
+		this.fallback = fallback;
+	}
+	
+	public OWLReasoner createReasoner(OWLOntology ontology) {
+		return new TaxonomyReasoner(ontology, fallback);
+	}
+	
+	public String toString() {
+		return "Eddy Taxonomy Reasoner (fallback: " + fallback + ")";
+	}
+}
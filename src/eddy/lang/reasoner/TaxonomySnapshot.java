@@ -0,0 +1,481 @@
+package eddy.lang.reasoner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Set;
+
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.reasoner.Node;
+import org.semanticweb.owlapi.reasoner.OWLReasoner;
+
+/**
+ * Describes an immutable copy of the classified hierarchy of named classes, which is
+ * extracted once from an {@link OWLReasoner} and may be shared by analyses running on
+ * different threads. Each node of equivalent classes is interned to an integer id, such
+ * that parents always have smaller ids than their children, and the parent and child
+ * relations are held in integer arrays.
+ *
+ * Subsumption between two nodes is answered without searching the hierarchy. Every node
+ * is labelled with the pre- and post-order interval of a depth-first traversal of a
+ * spanning tree of the hierarchy. A node whose ancestors all lie on its spanning tree path
+ * is subsumed by exactly the nodes whose interval encloses its own interval. The remaining
+ * nodes, which have more than one path to the top, keep a sorted array of their ancestors.
+ *
+ * Unsatisfiable classes are not interned; these are reported by
+ * {@link #isUnsatisfiable(OWLClass)} and are excluded from the class sets returned by this
+ * snapshot, as is owl:Nothing.
+ */
+
+public final class TaxonomySnapshot {
+	private final HashMap<OWLClass,Integer> ids = new HashMap<OWLClass,Integer>();
+	private final Set<OWLClass> unsatisfiable;
+	private final OWLClass[][] classes;
+	private final int[][] parents;
+	private final int[][] children;
+	private final int[] pre, post;
+	private final int[][] ancestors;
+
+	private TaxonomySnapshot(ArrayList<Node<OWLClass>> nodes, int[][] parents, Set<OWLClass> unsatisfiable) {
+		int n = nodes.size();
+		this.unsatisfiable = Collections.unmodifiableSet(unsatisfiable);
+		this.classes = new OWLClass[n][];
+		this.parents = parents;
+		this.children = new int[n][];
+		this.pre = new int[n];
+		this.post = new int[n];
+		this.ancestors = new int[n][];
+
+		for (int i = 0; i < n; i++) {
+			Set<OWLClass> set = nodes.get(i).getEntities();
+			classes[i] = set.toArray(new OWLClass[set.size()]);
+			for (OWLClass c : classes[i]) {
+				ids.put(c, i);
+			}
+		}
+
+		// invert the parent relation
+		int[] count = new int[n];
+		for (int i = 0; i < n; i++) {
+			for (int p : parents[i]) {
+				count[p]++;
+			}
+		}
+		for (int i = 0; i < n; i++) {
+			children[i] = new int[count[i]];
+			count[i] = 0;
+		}
+		for (int i = 0; i < n; i++) {
+			for (int p : parents[i]) {
+				children[p][count[p]++] = i;
+			}
+		}
+
+		label();
+	}
+
+	/**
+	 * Extracts the class hierarchy from the given reasoner, beginning at the top node.
+	 *
+	 * @param reasoner the reasoner that classifies the hierarchy
+	 * @return the hierarchy snapshot
+	 */
+	public static TaxonomySnapshot create(OWLReasoner reasoner) {
+		Node<OWLClass> bottom = reasoner.getBottomClassNode();
+		HashMap<Node<OWLClass>,ArrayList<Node<OWLClass>>> supers = new HashMap<Node<OWLClass>,ArrayList<Node<OWLClass>>>();
+		HashMap<Node<OWLClass>,Integer> pending = new HashMap<Node<OWLClass>,Integer>();
+		ArrayList<Node<OWLClass>> found = new ArrayList<Node<OWLClass>>();
+
+		// discover the nodes and their direct parents breadth first
+		Node<OWLClass> top = reasoner.getTopClassNode();
+		LinkedList<Node<OWLClass>> queue = new LinkedList<Node<OWLClass>>();
+		queue.add(top);
+		supers.put(top, new ArrayList<Node<OWLClass>>());
+		while (!queue.isEmpty()) {
+			Node<OWLClass> node = queue.removeFirst();
+			found.add(node);
+			for (Node<OWLClass> sub : reasoner.getSubClasses(node.getRepresentativeElement(), true)) {
+				if (sub.equals(bottom) || sub.isBottomNode()) {
+					continue;
+				}
+				ArrayList<Node<OWLClass>> list = supers.get(sub);
+				if (list == null) {
+					list = new ArrayList<Node<OWLClass>>();
+					supers.put(sub, list);
+					queue.add(sub);
+				}
+				list.add(node);
+			}
+		}
+
+		// assign ids in topological order, so that parents precede their children
+		HashMap<Node<OWLClass>,ArrayList<Node<OWLClass>>> subs = new HashMap<Node<OWLClass>,ArrayList<Node<OWLClass>>>();
+		for (Node<OWLClass> node : found) {
+			pending.put(node, supers.get(node).size());
+			for (Node<OWLClass> p : supers.get(node)) {
+				ArrayList<Node<OWLClass>> list = subs.get(p);
+				if (list == null) {
+					list = new ArrayList<Node<OWLClass>>();
+					subs.put(p, list);
+				}
+				list.add(node);
+			}
+		}
+		ArrayList<Node<OWLClass>> order = new ArrayList<Node<OWLClass>>();
+		HashMap<Node<OWLClass>,Integer> index = new HashMap<Node<OWLClass>,Integer>();
+		queue.add(top);
+		while (!queue.isEmpty()) {
+			Node<OWLClass> node = queue.removeFirst();
+			index.put(node, order.size());
+			order.add(node);
+			ArrayList<Node<OWLClass>> list = subs.get(node);
+			if (list == null) {
+				continue;
+			}
+			for (Node<OWLClass> sub : list) {
+				int c = pending.get(sub) - 1;
+				pending.put(sub, c);
+				if (c == 0) {
+					queue.add(sub);
+				}
+			}
+		}
+
+		int[][] parents = new int[order.size()][];
+		for (int i = 0; i < order.size(); i++) {
+			ArrayList<Node<OWLClass>> list = supers.get(order.get(i));
+			parents[i] = new int[list.size()];
+			for (int j = 0; j < parents[i].length; j++) {
+				parents[i][j] = index.get(list.get(j));
+			}
+			Arrays.sort(parents[i]);
+		}
+
+		HashSet<OWLClass> unsat = new HashSet<OWLClass>(bottom.getEntities());
+		return new TaxonomySnapshot(order, parents, unsat);
+	}
+
+	/**
+	 * Computes the spanning tree intervals and the ancestor arrays of the nodes that have
+	 * more than one path to the top node.
+	 */
+	private void label() {
+		int n = classes.length;
+		if (n == 0) {
+			return;
+		}
+
+		// the spanning tree parent of each node is its parent with the smallest id
+		int[] count = new int[n];
+		for (int i = 1; i < n; i++) {
+			count[parents[i][0]]++;
+		}
+		int[][] tree = new int[n][];
+		for (int i = 0; i < n; i++) {
+			tree[i] = new int[count[i]];
+			count[i] = 0;
+		}
+		for (int i = 1; i < n; i++) {
+			int p = parents[i][0];
+			tree[p][count[p]++] = i;
+		}
+
+		// label each node with its depth-first pre- and post-order numbers
+		int[] stack = new int[n];
+		int[] next = new int[n];
+		int top = 0, clock = 0;
+		stack[0] = 0;
+		pre[0] = clock++;
+		while (top >= 0) {
+			int x = stack[top];
+			if (next[x] < tree[x].length) {
+				int y = tree[x][next[x]++];
+				pre[y] = clock++;
+				stack[++top] = y;
+			}
+			else {
+				post[x] = clock++;
+				top--;
+			}
+		}
+
+		// keep the ancestors of nodes, whose ancestors are not all on the tree path
+		for (int i = 1; i < n; i++) {
+			int p = parents[i][0];
+			if (parents[i].length == 1 && ancestors[p] == null) {
+				continue;
+			}
+			HashSet<Integer> set = new HashSet<Integer>();
+			for (int q : parents[i]) {
+				addAncestors(q, set);
+			}
+			int[] a = new int[set.size()];
+			int j = 0;
+			for (Integer x : set) {
+				a[j++] = x;
+			}
+			Arrays.sort(a);
+			ancestors[i] = a;
+		}
+	}
+
+	private void addAncestors(int x, HashSet<Integer> set) {
+		if (ancestors[x] != null) {
+			set.add(x);
+			for (int a : ancestors[x]) {
+				set.add(a);
+			}
+			return;
+		}
+		// follow the spanning tree path, which contains all ancestors of this node
+		while (true) {
+			set.add(x);
+			if (parents[x].length == 0) {
+				break;
+			}
+			x = parents[x][0];
+		}
+	}
+
+	/**
+	 * Returns the number of nodes in this snapshot, excluding the bottom node.
+	 *
+	 * @return the number of nodes
+	 */
+	public int size() {
+		return classes.length;
+	}
+
+	/**
+	 * Returns the node id of the given class, or -1, if the class is not in the snapshot
+	 * or is unsatisfiable.
+	 *
+	 * @param clazz the named class
+	 * @return the node id
+	 */
+	public int getId(OWLClass clazz) {
+		Integer i = ids.get(clazz);
+		return i == null ? -1 : i;
+	}
+
+	public boolean contains(OWLClass clazz) {
+		return ids.containsKey(clazz);
+	}
+
+	public boolean isUnsatisfiable(OWLClass clazz) {
+		return unsatisfiable.contains(clazz);
+	}
+
+	public Set<OWLClass> getUnsatisfiableClasses() {
+		return unsatisfiable;
+	}
+
+	/**
+	 * Returns the equivalent classes of the given node. The returned array must not be
+	 * modified.
+	 *
+	 * @param id the node id
+	 * @return the classes of this node
+	 */
+	public OWLClass[] getClasses(int id) {
+		return classes[id];
+	}
+
+	/**
+	 * Returns the ids of the direct parents of the given node in ascending order. The
+	 * returned array must not be modified.
+	 *
+	 * @param id the node id
+	 * @return the parent ids
+	 */
+	public int[] getParents(int id) {
+		return parents[id];
+	}
+
+	/**
+	 * Returns the ids of the direct children of the given node in ascending order. The
+	 * returned array must not be modified.
+	 *
+	 * @param id the node id
+	 * @return the child ids
+	 */
+	public int[] getChildren(int id) {
+		return children[id];
+	}
+
+	/**
+	 * Returns true, if the first node is subsumed by, or equal to, the second node.
+	 *
+	 * @param sub the subsumed node id
+	 * @param sup the subsuming node id
+	 * @return true, if the subsumption holds
+	 */
+	public boolean isSubClassOf(int sub, int sup) {
+		if (pre[sup] <= pre[sub] && post[sub] <= post[sup]) {
+			return true;
+		}
+		if (ancestors[sub] == null || sup > sub) {
+			return false;
+		}
+		return Arrays.binarySearch(ancestors[sub], sup) >= 0;
+	}
+
+	/**
+	 * Returns true, if the first class is subsumed by the second class. Unsatisfiable
+	 * classes are subsumed by every class, and classes not in this snapshot are not
+	 * subsumed by any other class.
+	 *
+	 * @param sub the subsumed class
+	 * @param sup the subsuming class
+	 * @return true, if the subsumption holds
+	 */
+	public boolean isSubClassOf(OWLClass sub, OWLClass sup) {
+		if (unsatisfiable.contains(sub)) {
+			return true;
+		}
+		Integer i = ids.get(sub);
+		Integer j = ids.get(sup);
+		if (i == null || j == null) {
+			return sub.equals(sup);
+		}
+		return isSubClassOf(i, j);
+	}
+
+	public boolean isEquivalent(OWLClass c, OWLClass d) {
+		Integer i = ids.get(c);
+		return i != null && i.equals(ids.get(d));
+	}
+
+	/**
+	 * Returns the classes equivalent to the given class, including the class itself, or
+	 * null, if the class is not in the snapshot.
+	 *
+	 * @param clazz the named class
+	 * @return the equivalent classes
+	 */
+	public Set<OWLClass> getEquivalentClasses(OWLClass clazz) {
+		Integer i = ids.get(clazz);
+		if (i == null) {
+			return null;
+		}
+		HashSet<OWLClass> set = new HashSet<OWLClass>();
+		Collections.addAll(set, classes[i]);
+		return set;
+	}
+
+	/**
+	 * Returns the satisfiable subclasses of the given class, excluding its equivalent
+	 * classes, or null, if the class is not in the snapshot.
+	 *
+	 * @param clazz the named class
+	 * @param direct true, if only the direct subclasses are requested
+	 * @return the subclasses
+	 */
+	public Set<OWLClass> getSubClasses(OWLClass clazz, boolean direct) {
+		Integer i = ids.get(clazz);
+		if (i == null) {
+			return null;
+		}
+		return collect(i, children, direct);
+	}
+
+	/**
+	 * Returns the superclasses of the given class, including owl:Thing and excluding its
+	 * equivalent classes, or null, if the class is not in the snapshot.
+	 *
+	 * @param clazz the named class
+	 * @param direct true, if only the direct superclasses are requested
+	 * @return the superclasses
+	 */
+	public Set<OWLClass> getSuperClasses(OWLClass clazz, boolean direct) {
+		Integer i = ids.get(clazz);
+		if (i == null) {
+			return null;
+		}
+		return collect(i, parents, direct);
+	}
+
+	/**
+	 * Returns the satisfiable classes subsumed by both given classes, or null, if either
+	 * class is not in the snapshot. The direct classes are those not subsumed by another
+	 * class in the result. Classes equivalent to either given class are included only if
+	 * that class is subsumed by the other class.
+	 *
+	 * @param c the first named class
+	 * @param d the second named class
+	 * @param direct true, if only the greatest common subclasses are requested
+	 * @return the common subclasses
+	 */
+	public Set<OWLClass> getCommonSubClasses(OWLClass c, OWLClass d, boolean direct) {
+		Integer i = ids.get(c);
+		Integer j = ids.get(d);
+		if (i == null || j == null) {
+			return null;
+		}
+
+		// search below the subsumed class, or the class with the fewest children
+		int from = isSubClassOf(j, i) || children[j].length < children[i].length ? j : i;
+		int other = from == i ? j : i;
+		boolean[] visited = new boolean[classes.length];
+		LinkedList<Integer> queue = new LinkedList<Integer>();
+		ArrayList<Integer> found = new ArrayList<Integer>();
+		queue.add(from);
+		visited[from] = true;
+
+		while (!queue.isEmpty()) {
+			int x = queue.removeFirst();
+			if (isSubClassOf(x, other)) {
+				found.add(x);
+				if (direct) {
+					continue;
+				}
+			}
+			for (int y : children[x]) {
+				if (!visited[y]) {
+					visited[y] = true;
+					queue.add(y);
+				}
+			}
+		}
+
+		// a node may be reached through a path that avoids a subsuming common subclass
+		HashSet<OWLClass> set = new HashSet<OWLClass>();
+		for (int x : found) {
+			boolean subsumed = false;
+			for (int y : direct ? found : Collections.<Integer>emptyList()) {
+				if (x != y && isSubClassOf(x, y)) {
+					subsumed = true;
+					break;
+				}
+			}
+			if (!subsumed) {
+				Collections.addAll(set, classes[x]);
+			}
+		}
+		return set;
+	}
+
+	private Set<OWLClass> collect(int start, int[][] edges, boolean direct) {
+		HashSet<OWLClass> set = new HashSet<OWLClass>();
+		boolean[] visited = direct ? null : new boolean[classes.length];
+		LinkedList<Integer> queue = new LinkedList<Integer>();
+		queue.add(start);
+
+		while (!queue.isEmpty()) {
+			for (int y : edges[queue.removeFirst()]) {
+				if (direct) {
+					Collections.addAll(set, classes[y]);
+				}
+				else if (!visited[y]) {
+					visited[y] = true;
+					Collections.addAll(set, classes[y]);
+					queue.add(y);
+				}
+			}
+		}
+		return set;
+	}
+}
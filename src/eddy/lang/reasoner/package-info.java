@@ -0,0 +1,7 @@
+
+/**
+ * Provides {@link org.semanticweb.owlapi.reasoner.OWLReasoner} implementations and
+ * decorators used to classify Eddy policy compilations.
+ */
+
+package eddy.lang.reasoner;
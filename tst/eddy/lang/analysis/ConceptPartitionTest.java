@@ -0,0 +1,47 @@
+package eddy.lang.analysis;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import eddy.lang.Policy;
+import eddy.lang.parser.Compilation;
+import eddy.lang.parser.Compiler;
+import eddy.lang.parser.ParseException;
+import eddy.lang.parser.Parser;
+
+public class ConceptPartitionTest {
+
+	@Test
+	public void test1_CollapsingPreservesConflicts() throws ParseException {
+		String text = "SPEC HEADER\n" +
+				"\tD contact > email, phone, fax\n" +
+				"SPEC POLICY\n" +
+				"\tP COLLECT contact FROM customer\n" +
+				"\tR COLLECT contact FROM anyone FOR marketing\n" +
+				"\tP COLLECT email FROM customer FOR marketing\n";
+		Policy policy = new Parser().parse(new StringReader(text));
+		Compilation comp = new Compiler().compile(policy);
+
+		// phone and fax are interchangeable, but email is named by a rule
+		ConceptPartition partition = ConceptPartition.create(comp, null);
+		Assert.assertTrue(partition.getCollapsedCount() > 0);
+
+		TreeSet<String> expected = ExtensionPrunerTest.analyze(comp, false, false);
+		Assert.assertFalse(expected.isEmpty());
+		Assert.assertEquals(expected, ExtensionPrunerTest.analyze(comp, false, true));
+		Assert.assertEquals(expected, ExtensionPrunerTest.analyze(comp, true, true));
+		comp.dispose();
+	}
+
+	@Test
+	public void test2_CollapsingExamples() throws ParseException {
+		Policy policy = new Parser().parse(new File("examples/example.conflicts.policy"));
+		Compilation comp = new Compiler().compile(policy);
+		Assert.assertEquals(ExtensionPrunerTest.analyze(comp, false, false), ExtensionPrunerTest.analyze(comp, false, true));
+		comp.dispose();
+	}
+}
@@ -0,0 +1,81 @@
+package eddy.lang.analysis;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import eddy.lang.Action;
+import eddy.lang.Policy;
+import eddy.lang.parser.Compilation;
+import eddy.lang.parser.Compiler;
+import eddy.lang.parser.ParseException;
+import eddy.lang.parser.Parser;
+
+public class ExtensionPrunerTest {
+
+	/**
+	 * Returns the conflicts as comparable strings, which name the shared actions, rather
+	 * than their extension ids, because pruning renumbers the extension, and include the
+	 * actions represented by collapsed concepts.
+	 */
+	static TreeSet<String> describe(List<Conflict> conflicts) {
+		TreeSet<String> set = new TreeSet<String>();
+		for (Conflict c : conflicts) {
+			String s = c.type + " " + c.rule1.id + "," + c.rule2.id;
+			if (c.type == Conflict.Type.SHARED) {
+				TreeSet<String> actions = new TreeSet<String>();
+				for (Action a : c.actions.values()) {
+					actions.add(a.toString());
+				}
+				for (List<Action> list : c.represented.values()) {
+					for (Action a : list) {
+						actions.add(a.toString());
+					}
+				}
+				s += " at " + actions;
+			}
+			set.add(s);
+		}
+		return set;
+	}
+
+	static TreeSet<String> analyze(Compilation comp, boolean prune, boolean collapse) {
+		ExtendedConflictAnalyzer analyzer = new ExtendedConflictAnalyzer();
+		analyzer.setPruneExtension(prune);
+		analyzer.setCollapseConcepts(collapse);
+		analyzer.setBlockSize(100000);
+		analyzer.setThreadCount(2);
+		ArrayList<Conflict> conflicts = analyzer.analyze(comp);
+		Conflict.release(conflicts);
+		return describe(conflicts);
+	}
+
+	@Test
+	public void test1_PruningPreservesConflicts() throws ParseException {
+		Policy policy = new Parser().parse(new File("examples/example.conflicts.policy"));
+		Compilation comp = new Compiler().compile(policy);
+		TreeSet<String> expected = analyze(comp, false, false);
+		Assert.assertFalse(expected.isEmpty());
+		Assert.assertEquals(expected, analyze(comp, true, false));
+		comp.dispose();
+	}
+
+	@Test
+	public void test2_PruningWithoutConflicts() throws ParseException {
+		String text = "SPEC HEADER\n" +
+				"\tD info > contact, billing\n" +
+				"SPEC POLICY\n" +
+				"\tP COLLECT contact FROM customer\n" +
+				"\tR COLLECT billing FROM customer\n" +
+				"\tP USE info FROM customer\n";
+		Policy policy = new Parser().parse(new StringReader(text));
+		Compilation comp = new Compiler().compile(policy);
+		Assert.assertEquals(analyze(comp, false, false), analyze(comp, true, false));
+		comp.dispose();
+	}
+}
@@ -0,0 +1,78 @@
+package eddy.lang.analysis;
+
+import java.io.File;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import eddy.lang.Policy;
+import eddy.lang.Rule;
+import eddy.lang.Type;
+import eddy.lang.parser.Compilation;
+import eddy.lang.parser.Compiler;
+import eddy.lang.parser.ParseException;
+import eddy.lang.parser.Parser;
+
+public class IncrementalConflictAnalyzerTest {
+
+	private static TreeSet<String> pairs(List<Conflict> conflicts) {
+		TreeSet<String> set = new TreeSet<String>();
+		for (Conflict c : conflicts) {
+			set.add(c.type + " " + c.rule1.id + "," + c.rule2.id);
+		}
+		return set;
+	}
+
+	private static TreeSet<String> analyze(Compilation comp) {
+		IncrementalConflictAnalyzer full = new IncrementalConflictAnalyzer(comp);
+		TreeSet<String> set = pairs(full.analyze());
+		full.dispose();
+		return set;
+	}
+
+	@Test
+	public void test1_DeltaMatchesReanalysis() throws ParseException {
+		Policy example = new Parser().parse(new File("examples/example.conflicts.policy"));
+		Rule[] rules = example.rules();
+		Assert.assertTrue(rules.length > 1);
+		Rule last = rules[rules.length - 1];
+
+		Policy policy = new Policy(example.id);
+		for (String name : example.attributes()) {
+			policy.setAttribute(name, example.getAttribute(name));
+		}
+		for (Type type : example.types()) {
+			policy.add(type);
+		}
+		for (int i = 0; i < rules.length - 1; i++) {
+			policy.add(rules[i]);
+		}
+		Compilation comp = new Compiler().compile(policy);
+		IncrementalConflictAnalyzer inc = new IncrementalConflictAnalyzer(comp);
+		TreeSet<String> before = pairs(inc.analyze());
+
+		// adding the last rule changes the conflicts as a full analysis would
+		IncrementalConflictAnalyzer.Delta delta = inc.addRule(last);
+		TreeSet<String> after = pairs(inc.getConflicts());
+		Assert.assertEquals(analyze(comp), after);
+
+		TreeSet<String> added = new TreeSet<String>(after);
+		added.removeAll(before);
+		TreeSet<String> removed = new TreeSet<String>(before);
+		removed.removeAll(after);
+		Assert.assertFalse(delta.added.isEmpty());
+		Assert.assertEquals(added, pairs(delta.added));
+		Assert.assertEquals(removed, pairs(delta.removed));
+
+		// removing the rule again restores the original conflicts
+		delta = inc.removeRule(last);
+		Assert.assertEquals(before, pairs(inc.getConflicts()));
+		Assert.assertEquals(added, pairs(delta.removed));
+		Assert.assertEquals(analyze(comp), before);
+
+		inc.dispose();
+		comp.dispose();
+	}
+}
@@ -0,0 +1,61 @@
+package eddy.lang.analysis;
+
+import java.io.StringReader;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import eddy.lang.Datum;
+import eddy.lang.Policy;
+import eddy.lang.Rule;
+import eddy.lang.parser.Compilation;
+import eddy.lang.parser.Compiler;
+import eddy.lang.parser.ParseException;
+import eddy.lang.parser.Parser;
+
+public class LineageGraphTest {
+
+	@Test
+	public void test1_ReachabilityWithCycle() throws ParseException {
+		String text = "SPEC HEADER\n" +
+				"\tD record > contact, billing\n" +
+				"\tD contact \\ billing\n" +
+				"SPEC POLICY\n" +
+				"\tP COLLECT contact FROM customer\n" +
+				"\tP USE record FROM customer\n" +
+				"\tP TRANSFER billing FROM customer TO advertiser\n" +
+				"\tP USE contact FROM customer\n" +
+				"\tP TRANSFER contact FROM customer TO advertiser\n";
+		Policy policy = new Parser().parse(new StringReader(text));
+		Compilation comp = new Compiler().compile(policy);
+		Rule[] rules = policy.rules();
+		Rule collect = rules[0], useRecord = rules[1], transferBilling = rules[2];
+		Rule useContact = rules[3], transferContact = rules[4];
+
+		// data transferred from the customer may be used again, which closes a cycle
+		LineageGraph graph = new LineageGraph();
+		graph.addStep("COLLECT", "USE");
+		graph.addStep("USE", "TRANSFER");
+		graph.addStep("TRANSFER", "USE");
+		graph.build(comp);
+
+		Assert.assertTrue(graph.reaches(useContact, useContact));
+		Assert.assertTrue(graph.reaches(transferBilling, useRecord));
+		Assert.assertTrue(graph.reaches(collect, transferContact));
+		Assert.assertFalse(graph.reaches(transferBilling, collect));
+		Assert.assertTrue(graph.getComponentCount() < graph.size());
+
+		// the closure ignores the data, but the lineage of a datum follows only its flows
+		List<Rule> reachable = graph.getReachable(collect);
+		Assert.assertTrue(reachable.contains(transferBilling));
+		Assert.assertFalse(reachable.contains(collect));
+
+		List<Rule> lineage = graph.getLineage("COLLECT", new Datum("contact"), null);
+		Assert.assertTrue(lineage.contains(useRecord));
+		Assert.assertTrue(lineage.contains(useContact));
+		Assert.assertTrue(lineage.contains(transferContact));
+		Assert.assertFalse(lineage.contains(transferBilling));
+		comp.dispose();
+	}
+}
@@ -0,0 +1,58 @@
+package eddy.lang.analysis;
+
+import java.io.StringReader;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import eddy.lang.Policy;
+import eddy.lang.Role;
+import eddy.lang.RoleValueSet;
+import eddy.lang.Rule;
+import eddy.lang.analysis.Tracer.Flow.Mode;
+import eddy.lang.parser.Compilation;
+import eddy.lang.parser.Compiler;
+import eddy.lang.parser.ParseException;
+import eddy.lang.parser.Parser;
+
+public class RoleValueAlgebraTest {
+
+	private static RoleValueSet object(Rule rule) {
+		return rule.action.getRole(Role.Type.OBJECT).values;
+	}
+
+	@Test
+	public void test1_ClosedWorldFlowModes() throws ParseException {
+		String text = "SPEC HEADER\n" +
+				"\tD info > contact, billing\n" +
+				"\tD contact > email, phone\n" +
+				"SPEC POLICY\n" +
+				"\tP COLLECT info FROM customer\n" +
+				"\tP COLLECT contact FROM customer\n" +
+				"\tP COLLECT email, phone FROM customer\n" +
+				"\tP COLLECT billing FROM customer\n" +
+				"\tP COLLECT email FROM customer\n";
+		Policy policy = new Parser().parse(new StringReader(text));
+		Compilation comp = new Compiler().compile(policy);
+		RoleValueAlgebra algebra = RoleValueAlgebra.create(comp, null);
+
+		Rule[] rules = policy.rules();
+		RoleValueSet info = object(rules[0]);
+		RoleValueSet contact = object(rules[1]);
+		RoleValueSet emailPhone = object(rules[2]);
+		RoleValueSet billing = object(rules[3]);
+		RoleValueSet email = object(rules[4]);
+
+		Assert.assertEquals(Mode.OVERFLOW, algebra.getFlowRestriction(info, contact));
+		Assert.assertEquals(Mode.UNDERFLOW, algebra.getFlowRestriction(contact, info));
+		// the named subclasses cover the superclass, as in the closed world of the policy
+		Assert.assertEquals(Mode.EXACTFLOW, algebra.getFlowRestriction(contact, emailPhone));
+		Assert.assertNull(algebra.getFlowRestriction(billing, email));
+
+		Assert.assertTrue(algebra.subsumes(info, email));
+		Assert.assertFalse(algebra.subsumes(email, info));
+		Assert.assertTrue(algebra.overlaps(info, billing));
+		Assert.assertFalse(algebra.overlaps(contact, billing));
+		comp.dispose();
+	}
+}
@@ -0,0 +1,69 @@
+package eddy.lang.analysis;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import eddy.lang.Policy;
+import eddy.lang.Role;
+import eddy.lang.Rule;
+import eddy.lang.parser.Compilation;
+import eddy.lang.parser.Compiler;
+import eddy.lang.parser.ParseException;
+import eddy.lang.parser.Parser;
+
+public class RuleIndexTest {
+
+	/**
+	 * Checks that every pair of rules that traces a flow, when compared without the
+	 * index, is found among the indexed candidates, and returns the number of such pairs.
+	 */
+	private static int compare(Policy policy) throws ParseException {
+		Compilation comp = new Compiler().compile(policy);
+		FlowTracer tracer = new FlowTracer();
+		tracer.addSource("COLLECT");
+		tracer.addTarget("TRANSFER");
+		tracer.addTarget("USE");
+		int traced = tracer.trace(comp).size();
+
+		RuleIndex index = new RuleIndex(comp, null, tracer.getTargetRules(), Role.Type.OBJECT, Role.Type.SOURCE);
+		int flows = 0;
+		for (Rule s : tracer.getSourceRules()) {
+			List<Rule> candidates = index.getCandidateRules(s.action);
+			for (Rule t : tracer.getTargetRules()) {
+				if (tracer.traceRules(s, t) != null) {
+					Assert.assertTrue(s.id + " -> " + t.id, candidates.contains(t));
+					flows++;
+				}
+			}
+		}
+		Assert.assertEquals(traced, flows);
+		comp.dispose();
+		return flows;
+	}
+
+	@Test
+	public void test1_FlowExample() throws ParseException {
+		Policy policy = new Parser().parse(new File("examples/example.flow.policy"));
+		Assert.assertTrue(compare(policy) > 0);
+	}
+
+	@Test
+	public void test2_DisjointData() throws ParseException {
+		String text = "SPEC HEADER\n" +
+				"\tD record > contact, billing\n" +
+				"\tD contact \\ billing\n" +
+				"SPEC POLICY\n" +
+				"\tP COLLECT contact FROM customer\n" +
+				"\tP COLLECT billing FROM customer\n" +
+				"\tP COLLECT anything FROM vendor\n" +
+				"\tP USE record FROM customer\n" +
+				"\tP TRANSFER billing FROM anyone TO advertiser\n" +
+				"\tP TRANSFER contact \\ billing FROM customer TO advertiser\n";
+		Policy policy = new Parser().parse(new StringReader(text));
+		Assert.assertTrue(compare(policy) > 0);
+	}
+}
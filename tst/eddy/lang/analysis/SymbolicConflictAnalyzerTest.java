@@ -0,0 +1,65 @@
+package eddy.lang.analysis;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import eddy.lang.Policy;
+import eddy.lang.parser.Compilation;
+import eddy.lang.parser.Compiler;
+import eddy.lang.parser.ParseException;
+import eddy.lang.parser.Parser;
+
+public class SymbolicConflictAnalyzerTest {
+
+	private static TreeSet<String> pairs(List<Conflict> conflicts) {
+		TreeSet<String> set = new TreeSet<String>();
+		for (Conflict c : conflicts) {
+			String id1 = c.rule1.id, id2 = c.rule2.id;
+			set.add(id1.compareTo(id2) < 0 ? id1 + "," + id2 : id2 + "," + id1);
+		}
+		return set;
+	}
+
+	private static void compare(String filename) throws ParseException {
+		Policy policy = new Parser().parse(new File(filename));
+		Compilation comp = new Compiler().compile(policy);
+		ExtendedConflictAnalyzer extended = new ExtendedConflictAnalyzer();
+		extended.setBlockSize(100000);
+		extended.setThreadCount(2);
+		ArrayList<Conflict> found = extended.analyze(comp);
+		Conflict.release(found);
+		TreeSet<String> expected = pairs(found);
+
+		ArrayList<Conflict> conflicts = new SymbolicConflictAnalyzer().analyze(comp);
+		try {
+			// every pair found in the extension is found without it
+			TreeSet<String> actual = pairs(conflicts);
+			for (String pair : expected) {
+				Assert.assertTrue(filename + ": " + pair, actual.contains(pair));
+			}
+			for (Conflict c : conflicts) {
+				Assert.assertTrue(filename + ": " + c, c.rule1.modality.conflictsWith(c.rule2.modality)
+						|| c.rule2.modality.conflictsWith(c.rule1.modality));
+			}
+		}
+		finally {
+			Conflict.release(conflicts);
+			comp.dispose();
+		}
+	}
+
+	@Test
+	public void test1_ConflictsExample() throws ParseException {
+		compare("examples/example.conflicts.policy");
+	}
+
+	@Test
+	public void test2_LimitUseExample() throws ParseException {
+		compare("examples/example.limit.use.policy");
+	}
+}
@@ -0,0 +1,58 @@
+package eddy.lang.parser;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClass;
+
+import eddy.lang.Policy;
+import eddy.lang.Rule;
+
+public class CompilationTest {
+
+	@Test
+	public void test1_AddAndRemoveRule() throws ParseException {
+		String text = "SPEC HEADER\n" +
+				"\tATTR NAMESPACE \"http://localhost/compilation.owl\"\n" +
+				"\tD info > contact, billing\n" +
+				"SPEC POLICY\n" +
+				"\tP COLLECT info FROM customer\n" +
+				"\tR COLLECT contact FROM customer FOR marketing\n";
+		Policy policy = new Parser().parse(new StringReader(text));
+		Rule[] rules = policy.rules();
+		Rule last = rules[rules.length - 1];
+		policy.remove(last);
+
+		Compilation comp = new Compiler().compile(policy);
+		Set<OWLAxiom> before = new HashSet<OWLAxiom>(comp.getOntology().getLogicalAxioms());
+		final ArrayList<Set<OWLAxiom>> changes = new ArrayList<Set<OWLAxiom>>();
+		comp.addChangeListener(new Compilation.ChangeListener() {
+			public void compilationChanged(Compilation comp, Set<OWLAxiom> added, Set<OWLAxiom> removed, Set<OWLClass> affected) {
+				Assert.assertFalse(affected.isEmpty());
+				changes.add(added);
+				changes.add(removed);
+			}
+		});
+
+		// the edited ontology has the axioms of a fresh compilation of the whole policy
+		Set<OWLClass> affected = comp.addRule(last);
+		Assert.assertFalse(affected.isEmpty());
+		Assert.assertEquals(2, changes.size());
+		Assert.assertFalse(changes.get(0).isEmpty());
+		Compilation fresh = new Compiler().compile(comp.getPolicy());
+		Assert.assertEquals(fresh.getOntology().getLogicalAxioms(), comp.getOntology().getLogicalAxioms());
+		fresh.dispose();
+
+		// removing the rule retracts exactly the axioms that were added
+		comp.removeRule(last);
+		Assert.assertEquals(4, changes.size());
+		Assert.assertEquals(changes.get(0), changes.get(3));
+		Assert.assertEquals(before, comp.getOntology().getLogicalAxioms());
+		comp.dispose();
+	}
+}
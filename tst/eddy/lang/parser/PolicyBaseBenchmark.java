@@ -0,0 +1,106 @@
+package eddy.lang.parser;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+
+import eddy.lang.Action;
+import eddy.lang.Policy;
+import eddy.lang.analysis.ExtensionCalculator;
+import eddy.lang.parser.PolicyGenerator.Config;
+
+/**
+ * Compares the per-block setup cost of loading the upper ontology by parsing the bundled
+ * document against attaching the shared, pre-parsed {@link PolicyBase}.
+ */
+
+public class PolicyBaseBenchmark {
+	private final static int BLOCK_SIZE = 1000;
+
+	private static long parseBase(int passes) throws Exception {
+		long time = System.nanoTime();
+		for (int i = 0; i < passes; i++) {
+			OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+			manager.addIRIMapper(new PolicyBaseMapper());
+			manager.loadOntology(IRI.create(CompilerConstants.NS));
+		}
+		return (System.nanoTime() - time) / passes;
+	}
+
+	private static long attachBase(int passes) throws Exception {
+		long time = System.nanoTime();
+		for (int i = 0; i < passes; i++) {
+			OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+			PolicyBase.attach(manager);
+		}
+		return (System.nanoTime() - time) / passes;
+	}
+
+	private static long extendBlocks(Compilation comp, List<List<Action>> blocks) {
+		long time = System.nanoTime();
+		for (int i = 0; i < blocks.size(); i++) {
+			ExtensionCalculator.extend(comp, blocks.get(i), i * BLOCK_SIZE).release();
+		}
+		return (System.nanoTime() - time) / Math.max(1, blocks.size());
+	}
+
+	public void runTest(String name, int passes) throws Exception {
+		PolicyGenerator g = new PolicyGenerator(new Random(123456789));
+		Config config = g.new Config();
+		config.actorHeight = 4;
+		config.actorSpan = 2;
+		config.purposeHeight = 1;
+		config.purposeSpan = 16;
+		config.dataHeight = 4;
+		config.dataSpan = 2;
+		config.flows = (int) Math.pow(config.dataHeight, config.dataSpan) * 2;
+		config.collectRights = 16;
+		config.useRights = 0;
+		config.transferRights = 0;
+		config.collectProhibitions = 8;
+		config.namespace = "http://test";
+		g.setConfig(config);
+
+		Parser parser = new Parser();
+		parser.getLogger().setLogLevel(Logger.NONE);
+		Policy policy = parser.parse(new StringReader(g.generatePolicy()));
+		Compilation comp = new Compiler().compile(policy);
+
+		// prepare the extension blocks
+		ArrayList<Action> actions = new ExtensionCalculator().compute(comp);
+		List<List<Action>> blocks = new ArrayList<List<Action>>();
+		for (int i = 0; i < actions.size(); i += BLOCK_SIZE) {
+			blocks.add(actions.subList(i, Math.min(actions.size(), i + BLOCK_SIZE)));
+		}
+
+		// warm up both code paths before measuring
+		parseBase(passes);
+		attachBase(passes);
+
+		long parsed = parseBase(passes);
+		long attached = attachBase(passes);
+
+		// measure the complete block setup using the parsed and shared upper ontology
+		ExtensionCalculator.setOntologyBasePolicy("examples/policy-base.owl");
+		long extendParsed = extendBlocks(comp, blocks);
+		ExtensionCalculator.setOntologyBasePolicy(null);
+		long extendAttached = extendBlocks(comp, blocks);
+
+		System.err.println(name + "\tblocks=" + blocks.size() + "\tparse=" + (parsed / 1000) + "us"
+				+ "\tattach=" + (attached / 1000) + "us" + "\textend-parsed=" + (extendParsed / 1000) + "us"
+				+ "\textend-attached=" + (extendAttached / 1000) + "us");
+	}
+
+	public static void main(String[] args) throws Exception {
+		PolicyBaseBenchmark test = new PolicyBaseBenchmark();
+
+		for (int i = 0; i < 5; i++) {
+			test.runTest(i + "", 50);
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package eddy.lang.reasoner;
+
+import java.io.StringReader;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.reasoner.OWLReasoner;
+
+import eddy.lang.Policy;
+import eddy.lang.parser.Compilation;
+import eddy.lang.parser.Compiler;
+import eddy.lang.parser.ParseException;
+import eddy.lang.parser.Parser;
+
+public class CachingReasonerTest {
+
+	@Test
+	public void test1_AnswersMatchDelegate() throws ParseException {
+		String text = "SPEC HEADER\n" +
+				"\tD info > contact, billing\n" +
+				"\tD contact > email, phone\n" +
+				"SPEC POLICY\n" +
+				"\tP COLLECT info FROM customer\n" +
+				"\tR COLLECT contact FROM customer FOR marketing\n";
+		Policy policy = new Parser().parse(new StringReader(text));
+		Compilation comp = new Compiler().compile(policy);
+		OWLReasoner hermit = comp.getReasoner(new HermiTReasonerProvider());
+		CachingReasoner cache = new CachingReasoner(hermit);
+
+		// the first pass misses, and the second pass hits, with the same answers
+		int queries = 0;
+		for (int pass = 0; pass < 2; pass++) {
+			for (OWLClass c : comp.getOntology().getClassesInSignature(true)) {
+				Assert.assertEquals(c.toString(), hermit.getSubClasses(c, true), cache.getSubClasses(c, true));
+				Assert.assertEquals(c.toString(), hermit.getSuperClasses(c, false), cache.getSuperClasses(c, false));
+				if (pass == 0) {
+					queries += 2;
+				}
+			}
+		}
+		Assert.assertEquals(queries, cache.getStatistics().getMisses());
+		Assert.assertEquals(queries, cache.getStatistics().getHits());
+
+		// invalidated results are asked of the delegate again
+		cache.invalidate();
+		OWLClass c = comp.getOntology().getClassesInSignature(true).iterator().next();
+		cache.getSubClasses(c, true);
+		Assert.assertEquals(queries + 1, cache.getStatistics().getMisses());
+		comp.dispose();
+	}
+}
@@ -0,0 +1,53 @@
+package eddy.lang.reasoner;
+
+import java.io.File;
+import java.io.FilenameFilter;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.reasoner.OWLReasoner;
+
+import eddy.lang.Policy;
+import eddy.lang.parser.Compilation;
+import eddy.lang.parser.Compiler;
+import eddy.lang.parser.ParseException;
+import eddy.lang.parser.Parser;
+
+public class TaxonomyReasonerTest {
+
+	private static File[] getExamples() {
+		File[] files = new File("examples").listFiles(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.endsWith(".policy");
+			}
+		});
+		Assert.assertNotNull(files);
+		Assert.assertTrue(files.length > 0);
+		return files;
+	}
+
+	@Test
+	public void test1_ExamplesMatchHermiT() throws ParseException {
+		for (File file : getExamples()) {
+			Policy policy = new Parser().parse(file);
+			Compilation comp = new Compiler().compile(policy);
+			OWLReasoner hermit = comp.getReasoner(new HermiTReasonerProvider());
+			OWLReasoner taxonomy = comp.getReasoner(new TaxonomyReasonerProvider());
+
+			Assert.assertEquals(file.getName(), hermit.isConsistent(), taxonomy.isConsistent());
+			Assert.assertEquals(file.getName(), hermit.getUnsatisfiableClasses().getEntities(),
+					taxonomy.getUnsatisfiableClasses().getEntities());
+			for (OWLClass c : comp.getOntology().getClassesInSignature(true)) {
+				String msg = file.getName() + ": " + c;
+				Assert.assertEquals(msg, hermit.getEquivalentClasses(c).getEntities(),
+						taxonomy.getEquivalentClasses(c).getEntities());
+				Assert.assertEquals(msg, hermit.getSuperClasses(c, false).getFlattened(),
+						taxonomy.getSuperClasses(c, false).getFlattened());
+				Assert.assertEquals(msg, hermit.getSubClasses(c, true).getFlattened(),
+						taxonomy.getSubClasses(c, true).getFlattened());
+			}
+			comp.dispose();
+		}
+	}
+}